@@ -12,15 +12,27 @@ public class ClickScript implements Serializable {
     private long randomDelay;
     private long clickDuration;
     private boolean isLoop;
+    private float positionJitter;
+    private boolean curvedSwipe;
+    private long randomSeed;
+    private int waitEventTypes;
+    private String waitPackage;
+    private List<ScreenState> screenStates;
 
     public ClickScript(String name) {
         this.name = name;
         this.steps = new ArrayList<>();
-        this.repeatCount = 0;
+        this.repeatCount = 1;
         this.clickInterval = 1000;
         this.randomDelay = 100;
         this.clickDuration = 100;
         this.isLoop = false;
+        this.positionJitter = 0;
+        this.curvedSwipe = false;
+        this.randomSeed = 0;
+        this.waitEventTypes = 0;
+        this.waitPackage = null;
+        this.screenStates = new ArrayList<>();
     }
 
     public void addStep(ClickStep step) {
@@ -133,6 +145,81 @@ public class ClickScript implements Serializable {
         isLoop = loop;
     }
 
+    /**
+     * 点击位置随机偏移的最大半径（像素），0表示不偏移
+     */
+    public float getPositionJitter() {
+        return positionJitter;
+    }
+
+    public void setPositionJitter(float positionJitter) {
+        this.positionJitter = positionJitter;
+    }
+
+    /**
+     * 滑动是否使用随机弯曲的曲线轨迹
+     */
+    public boolean isCurvedSwipe() {
+        return curvedSwipe;
+    }
+
+    public void setCurvedSwipe(boolean curvedSwipe) {
+        this.curvedSwipe = curvedSwipe;
+    }
+
+    /**
+     * 随机种子，0表示每次运行使用新的种子；设置为日志中输出的种子可以重放同一次运行
+     */
+    public long getRandomSeed() {
+        return randomSeed;
+    }
+
+    public void setRandomSeed(long randomSeed) {
+        this.randomSeed = randomSeed;
+    }
+
+    /**
+     * 每步执行后等待的辅助功能事件类型（AccessibilityEvent.TYPE_*的组合），
+     * 收到匹配事件立即执行下一步，超时按步骤延迟执行；0表示不等待事件。步骤可以单独覆盖
+     */
+    public int getWaitEventTypes() {
+        return waitEventTypes;
+    }
+
+    public void setWaitEventTypes(int waitEventTypes) {
+        this.waitEventTypes = waitEventTypes;
+    }
+
+    /**
+     * 只接受该应用包名的事件，为空时接受任意应用
+     */
+    public String getWaitPackage() {
+        return waitPackage;
+    }
+
+    public void setWaitPackage(String waitPackage) {
+        this.waitPackage = waitPackage;
+    }
+
+    /**
+     * 状态机模式的界面状态，为空时按步骤列表顺序执行
+     */
+    public List<ScreenState> getScreenStates() {
+        // 旧版本保存的脚本没有这个字段
+        if (screenStates == null) {
+            screenStates = new ArrayList<>();
+        }
+        return screenStates;
+    }
+
+    public void addScreenState(ScreenState state) {
+        getScreenStates().add(state);
+    }
+
+    public boolean isStateMachine() {
+        return screenStates != null && !screenStates.isEmpty();
+    }
+
     public static class ClickStep implements Serializable {
         private float x;
         private float y;
@@ -140,6 +227,10 @@ public class ClickScript implements Serializable {
         private long delay;
         private String description;
         private int repeat;
+        private int waitEventTypes;
+        private String waitPackage;
+        private String selector;
+        private long quietPeriod;
 
         public ClickStep(float x, float y, StepType type, String description) {
             this.x = x;
@@ -207,6 +298,47 @@ public class ClickScript implements Serializable {
             this.repeat = repeat;
         }
 
+        /**
+         * 本步骤执行后等待的事件类型，0表示使用脚本的设置
+         */
+        public int getWaitEventTypes() {
+            return waitEventTypes;
+        }
+
+        public void setWaitEventTypes(int waitEventTypes) {
+            this.waitEventTypes = waitEventTypes;
+        }
+
+        public String getWaitPackage() {
+            return waitPackage;
+        }
+
+        public void setWaitPackage(String waitPackage) {
+            this.waitPackage = waitPackage;
+        }
+
+        /**
+         * 目标元素的选择器，设置后执行时按选择器定位，坐标只作为录制时的参考
+         */
+        public String getSelector() {
+            return selector;
+        }
+
+        public void setSelector(String selector) {
+            this.selector = selector;
+        }
+
+        /**
+         * 等待界面稳定步骤要求界面保持不变的时长，0表示使用默认值
+         */
+        public long getQuietPeriod() {
+            return quietPeriod;
+        }
+
+        public void setQuietPeriod(long quietPeriod) {
+            this.quietPeriod = quietPeriod;
+        }
+
         @Override
         public String toString() {
             return String.format("%s: (%.0f, %.0f) - %s", 
@@ -219,7 +351,8 @@ public class ClickScript implements Serializable {
         LONG_CLICK("长按"),
         SWIPE("滑动"),
         WAIT("等待"),
-        SCROLL("滚动");
+        SCROLL("滚动"),
+        WAIT_STABLE("等待界面稳定");
 
         private final String displayName;
 
@@ -0,0 +1,65 @@
+package com.example.autoclicker.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 状态机脚本中的一个界面状态
+ *
+ * 由一个或多个界面指纹识别（同一个界面在不同情况下结构可能略有不同，例如有无底部提示），
+ * 识别到该界面时执行自己的步骤序列。
+ */
+public class ScreenState implements Serializable {
+    private String name;
+    private List<Long> fingerprints;
+    private List<ClickScript.ClickStep> steps;
+
+    public ScreenState(String name) {
+        this.name = name;
+        this.fingerprints = new ArrayList<>();
+        this.steps = new ArrayList<>();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 识别该界面的结构指纹，取自 {@link com.example.autoclicker.utils.TreeSnapshot#getScreenFingerprint()}
+     */
+    public List<Long> getFingerprints() {
+        return fingerprints;
+    }
+
+    public void addFingerprint(long fingerprint) {
+        if (!fingerprints.contains(fingerprint)) {
+            fingerprints.add(fingerprint);
+        }
+    }
+
+    public void removeFingerprint(long fingerprint) {
+        fingerprints.remove(Long.valueOf(fingerprint));
+    }
+
+    public List<ClickScript.ClickStep> getSteps() {
+        return steps;
+    }
+
+    public void addStep(ClickScript.ClickStep step) {
+        steps.add(step);
+    }
+
+    public int getStepCount() {
+        return steps.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d 个指纹, %d 个步骤", name, fingerprints.size(), steps.size());
+    }
+}
@@ -1,38 +1,86 @@
 package com.example.autoclicker.service;
 
 import android.accessibilityservice.AccessibilityService;
+import android.accessibilityservice.AccessibilityServiceInfo;
 import android.accessibilityservice.GestureDescription;
-import android.graphics.Path;
 import android.graphics.Rect;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.accessibility.AccessibilityEvent;
 import android.view.accessibility.AccessibilityNodeInfo;
 
 import com.example.autoclicker.model.ClickScript;
+import com.example.autoclicker.utils.ElementFuture;
+import com.example.autoclicker.utils.ElementLocationCache;
+import com.example.autoclicker.utils.ElementSelector;
+import com.example.autoclicker.utils.MultiWindowFinder;
 import com.example.autoclicker.utils.SmartElementFinder;
 import com.example.autoclicker.utils.ActionRecorder;
+import com.example.autoclicker.utils.TreeDiffer;
+import com.example.autoclicker.utils.TreeSnapshot;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class AutoClickService extends AccessibilityService {
     private static final String TAG = "AutoClickService";
     private static AutoClickService instance;
-    private boolean isRunning = false;
-    private Handler handler = new Handler(Looper.getMainLooper());
+    public static final int PRIORITY_DEFAULT = 0;
+    public static final long SMART_CLICK_TIMEOUT_MS = 5000;
+
+    private ClickScheduler scheduler;
+    private ScriptExecutor executor;
+    private volatile ScriptExecutor.ScriptRun clickRun;
+    private volatile ClickScheduler.Mode scheduleMode = ClickScheduler.Mode.FIXED_RATE;
     private List<ClickPoint> clickPoints = new ArrayList<>();
-    private int currentPointIndex = 0;
     private int repeatCount = 1;
-    private int currentRepeat = 0;
-    private long interval = 1000;
+    private long interval = 1000; // 默认间隔1秒
     private SmartElementFinder elementFinder;
     private ActionRecorder actionRecorder;
-    private ClickScript currentScript;
-    private int currentStepIndex = 0;
-    private boolean isExecutingScript = false; // 默认间隔1秒
+    private GestureDispatcher gestureDispatcher;
+    private volatile ExecutionMode executionMode = ExecutionMode.TIMED;
+    private volatile long minGestureGap = 0;
+    private BurstClickRunner burstRunner;
+    private ExecutionTelemetry telemetry;
+    private final EventFilter eventFilter = new EventFilter();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private ExecutionCheckpoint checkpoint;
+    private ExecutionWatchdog watchdog;
+    private HandlerThread finderThread;
+    private Handler finderHandler;
+    private TreeSnapshot treeSnapshot;
+    private TreeDiffer treeDiffer;
+    private StateMachineRunner stateMachine;
+    private MultiWindowFinder multiWindowFinder;
+    private final ElementLocationCache locationCache = new ElementLocationCache();
+    private volatile boolean multiWindowSearch = false;
+
+    /**
+     * 节点快照长时间没有查询时释放并退订维护它的事件。释放要等正在进行的查询结束，在查找线程上检查，
+     * 退订回到主线程
+     */
+    private final Runnable snapshotIdleCheck = new Runnable() {
+        @Override
+        public void run() {
+            if (treeSnapshot.releaseIfIdle(SystemClock.uptimeMillis())) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        updateEventSubscription();
+                    }
+                });
+            } else if (treeSnapshot.isWanted()) {
+                finderHandler.postDelayed(this, TreeSnapshot.IDLE_RELEASE_MS);
+            }
+        }
+    };
 
     public static AutoClickService getInstance() {
         return instance;
@@ -40,7 +88,24 @@ public class AutoClickService extends AccessibilityService {
 
     @Override
     public void onAccessibilityEvent(AccessibilityEvent event) {
-        // 处理辅助功能事件
+        if (executor == null || event == null) {
+            return;
+        }
+        // 快照需要所有应用的窗口事件，在过滤之前处理
+        treeSnapshot.onAccessibilityEvent(event);
+        if (!eventFilter.accept(event)) {
+            return;
+        }
+        executor.onAccessibilityEvent(event.getEventType(), event.getPackageName());
+    }
+
+    @Override
+    protected void onServiceConnected() {
+        super.onServiceConnected();
+        resumeInterruptedRuns();
+        // 配置文件只声明最小的默认订阅，连接后按当前运行的需要重新配置
+        updateEventSubscription();
+        Log.d(TAG, "服务已连接");
     }
 
     @Override
@@ -52,8 +117,76 @@ public class AutoClickService extends AccessibilityService {
     public void onCreate() {
         super.onCreate();
         instance = this;
+        scheduler = new ClickScheduler("AutoClickExecutor");
+        gestureDispatcher = new GestureDispatcher(this, scheduler.getHandler());
+        executor = new ScriptExecutor(scheduler, gestureDispatcher);
+        executor.setRunListener(new ScriptExecutor.RunListener() {
+            @Override
+            public void onRunEnded(ScriptExecutor.ScriptRun run) {
+                if (run.getProgram().getEventTypes() != 0) {
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            updateEventSubscription();
+                        }
+                    });
+                }
+            }
+        });
+        burstRunner = new BurstClickRunner(scheduler, gestureDispatcher);
         elementFinder = new SmartElementFinder(this);
-        actionRecorder = new ActionRecorder(this);
+        treeSnapshot = new TreeSnapshot(this);
+        treeSnapshot.setListener(new TreeSnapshot.Listener() {
+            @Override
+            public void onSubscriptionRequested() {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        updateEventSubscription();
+                        finderHandler.removeCallbacks(snapshotIdleCheck);
+                        finderHandler.postDelayed(snapshotIdleCheck, TreeSnapshot.IDLE_RELEASE_MS);
+                    }
+                });
+            }
+        });
+        elementFinder.setTreeSnapshot(treeSnapshot);
+        finderThread = new HandlerThread("ElementFinder");
+        finderThread.start();
+        finderHandler = new Handler(finderThread.getLooper());
+        // 选择器定位在查找线程上进行，调度线程只接收边界
+        executor.setElementLocator(new ScriptInterpreter.ElementLocator() {
+            @Override
+            public boolean locate(ElementSelector selector, Rect outBounds) {
+                return elementFinder.locate(selector, outBounds);
+            }
+        }, finderHandler);
+        treeDiffer = new TreeDiffer(treeSnapshot);
+        // 比较节点树在查找线程上进行，调度线程只接收结果
+        executor.setStabilityProbe(new ScriptExecutor.StabilityProbe() {
+            @Override
+            public long currentSignature() {
+                TreeDiffer.Diff diff = treeDiffer.capture();
+                return diff != null ? diff.getTreeHash() : 0;
+            }
+        }, finderHandler);
+        stateMachine = new StateMachineRunner(scheduler, executor, new StateMachineRunner.FingerprintSource() {
+            @Override
+            public long currentFingerprint() {
+                return treeSnapshot.getScreenFingerprint();
+            }
+        }, finderHandler);
+        multiWindowFinder = new MultiWindowFinder(this);
+        telemetry = new ExecutionTelemetry(gestureDispatcher, eventFilter);
+        scheduler.setLatenessHistogram(telemetry.getScheduleLateness());
+        gestureDispatcher.setLatencyHistogram(telemetry.getGestureLatency());
+        elementFinder.setQueryHistogram(telemetry.getFinderLatency());
+        stateMachine.setIdentifyHistogram(telemetry.getScreenIdentify());
+        elementFinder.setLocationCache(locationCache);
+        telemetry.setLocationCache(locationCache);
+        actionRecorder = new ActionRecorder(this, executor);
+        checkpoint = ExecutionCheckpoint.open(getFilesDir());
+        watchdog = new ExecutionWatchdog(executor, scheduler, telemetry);
+        watchdog.start();
         Log.d(TAG, "服务创建");
     }
 
@@ -61,7 +194,18 @@ public class AutoClickService extends AccessibilityService {
     public void onDestroy() {
         super.onDestroy();
         instance = null;
+        // 先关闭检查点，服务销毁导致的停止不清除进度，下次启动时恢复
+        if (checkpoint != null) {
+            checkpoint.close();
+        }
         stopAutoClick();
+        stopScriptExecution();
+        watchdog.shutdown();
+        finderHandler.removeCallbacks(snapshotIdleCheck);
+        finderThread.quitSafely();
+        multiWindowFinder.shutdown();
+        locationCache.clear();
+        scheduler.shutdown();
         Log.d(TAG, "服务销毁");
     }
 
@@ -70,16 +214,13 @@ public class AutoClickService extends AccessibilityService {
      */
     public void setClickPoints(List<ClickPoint> points) {
         this.clickPoints = points;
-        this.currentPointIndex = 0;
-        this.currentRepeat = 0;
     }
 
     /**
-     * 设置重复次数
+     * 设置重复次数，0表示无限循环
      */
     public void setRepeatCount(int count) {
         this.repeatCount = count;
-        this.currentRepeat = 0;
     }
 
     /**
@@ -89,6 +230,73 @@ public class AutoClickService extends AccessibilityService {
         this.interval = interval;
     }
 
+    /**
+     * 设置调度模式：固定频率（默认，长时间运行不漂移）或固定延迟
+     */
+    public void setScheduleMode(ClickScheduler.Mode mode) {
+        this.scheduleMode = mode;
+    }
+
+    public ClickScheduler.Mode getScheduleMode() {
+        return scheduleMode;
+    }
+
+    /**
+     * 设置执行模式：按定时器执行，或等上一个手势完成/取消后再执行下一步
+     */
+    public void setExecutionMode(ExecutionMode mode) {
+        this.executionMode = mode;
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * 完成驱动模式下，上一个手势结束到下一个手势开始的最小间隔（毫秒）
+     */
+    public void setMinGestureGap(long gap) {
+        this.minGestureGap = Math.max(0, gap);
+    }
+
+    public GestureDispatcher getGestureDispatcher() {
+        return gestureDispatcher;
+    }
+
+    public ScriptExecutor getExecutor() {
+        return executor;
+    }
+
+    public ExecutionTelemetry getTelemetry() {
+        return telemetry;
+    }
+
+    public ExecutionWatchdog getWatchdog() {
+        return watchdog;
+    }
+
+    /**
+     * 把执行统计导出到应用的外部文件目录，不可用时导出到内部目录
+     */
+    public File exportTelemetry() {
+        File directory = getExternalFilesDir(null);
+        if (directory == null) {
+            directory = getFilesDir();
+        }
+        return telemetry.export(directory, watchdog.getLastSnapshot());
+    }
+
+    /**
+     * 按当前的调度模式、执行模式和最小间隔生成运行选项
+     */
+    public ScriptExecutor.RunOptions createRunOptions() {
+        ScriptExecutor.RunOptions options = new ScriptExecutor.RunOptions();
+        options.scheduleMode = scheduleMode;
+        options.executionMode = executionMode;
+        options.minGestureGap = minGestureGap;
+        return options;
+    }
+
     /**
      * 开始自动点击
      */
@@ -98,127 +306,121 @@ public class AutoClickService extends AccessibilityService {
             return;
         }
 
-        if (isRunning) {
+        if (isServiceRunning()) {
             Log.w(TAG, "自动点击已在运行中");
             return;
         }
 
-        isRunning = true;
-        currentPointIndex = 0;
-        currentRepeat = 0;
-        
         Log.d(TAG, "开始自动点击");
-        performNextClick();
+        clickRun = executor.start(ScriptCompiler.compileClickPoints(clickPoints, interval, repeatCount),
+            PRIORITY_DEFAULT, 1, createRunOptions());
     }
 
     /**
-     * 停止自动点击
+     * 以连发模式开始自动点击：多个点击打包进一个手势分发
      */
-    public void stopAutoClick() {
-        isRunning = false;
-        handler.removeCallbacksAndMessages(null);
-        Log.d(TAG, "停止自动点击");
+    public void startBurstClick() {
+        if (executor.hasActiveRuns() || burstRunner.isRunning()) {
+            // 连发模式独占手势通道，不参与执行器的仲裁
+            Log.w(TAG, "已有运行中的点击任务");
+            return;
+        }
+        burstRunner.setMinGap(minGestureGap);
+        burstRunner.start(clickPoints, repeatCount);
     }
 
     /**
-     * 执行下一个点击
+     * 吞吐测试：分别以单次分发和连发模式运行phaseDuration毫秒，比较每秒点击数
      */
-    private void performNextClick() {
-        if (!isRunning) {
+    public void startThroughputTest(long phaseDuration) {
+        if (executor.hasActiveRuns() || burstRunner.isRunning()) {
+            Log.w(TAG, "已有运行中的点击任务");
             return;
         }
+        burstRunner.setMinGap(minGestureGap);
+        burstRunner.startThroughputTest(clickPoints, phaseDuration);
+    }
 
-        if (clickPoints.isEmpty()) {
-            Log.e(TAG, "点击点列表为空");
-            stopAutoClick();
-            return;
-        }
+    public String getThroughputReport() {
+        return burstRunner.getThroughputReport();
+    }
 
-        if (currentPointIndex >= clickPoints.size()) {
-            currentPointIndex = 0;
-            currentRepeat++;
-            
-            if (currentRepeat >= repeatCount) {
-                Log.d(TAG, "自动点击完成");
-                stopAutoClick();
-                return;
-            }
-        }
+    public BurstClickRunner getBurstRunner() {
+        return burstRunner;
+    }
 
-        ClickPoint point = clickPoints.get(currentPointIndex);
-        performClick(point.x, point.y);
-        
-        currentPointIndex++;
-        
-        // 安排下一次点击
-        handler.postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                performNextClick();
-            }
-        }, interval);
+    /**
+     * 停止自动点击
+     */
+    public void stopAutoClick() {
+        ScriptExecutor.ScriptRun run = clickRun;
+        if (run != null) {
+            run.stop();
+            clickRun = null;
+        }
+        if (burstRunner != null) {
+            burstRunner.stop();
+        }
+        Log.d(TAG, "停止自动点击");
     }
 
     /**
-     * 执行点击操作
+     * 执行点击操作。手势经执行器分发，不会取消运行中脚本的手势，通道被占用时排队
+     *
+     * @return 无法分发（系统版本不支持或连发进行中）时返回false
      */
     public boolean performClick(float x, float y) {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            Path path = new Path();
-            path.moveTo(x, y);
-            
-            GestureDescription.Builder builder = new GestureDescription.Builder();
-            builder.addStroke(new GestureDescription.StrokeDescription(path, 0, 100));
-            
-            GestureDescription gesture = builder.build();
-            boolean result = dispatchGesture(gesture, null, null);
-            
-            if (result) {
-                Log.d(TAG, "点击成功: (" + x + ", " + y + ")");
-            } else {
-                Log.e(TAG, "点击失败: (" + x + ", " + y + ")");
-            }
-            
-            return result;
+        boolean result = dispatchTap(x, y, GestureCache.TAP_DURATION, null);
+        if (!result) {
+            Log.e(TAG, "点击失败: (" + x + ", " + y + ")");
         }
-        return false;
+        return result;
     }
 
     /**
      * 执行滑动操作
      */
     public boolean performSwipe(float startX, float startY, float endX, float endY, long duration) {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            Path path = new Path();
-            path.moveTo(startX, startY);
-            path.lineTo(endX, endY);
-            
-            GestureDescription.Builder builder = new GestureDescription.Builder();
-            builder.addStroke(new GestureDescription.StrokeDescription(path, 0, duration));
-            
-            GestureDescription gesture = builder.build();
-            return dispatchGesture(gesture, null, null);
-        }
-        return false;
+        return dispatchSwipe(startX, startY, endX, endY, duration, null);
     }
 
     /**
      * 执行长按操作
      */
     public boolean performLongClick(float x, float y, long duration) {
+        return dispatchTap(x, y, duration, null);
+    }
+
+    private boolean dispatchTap(float x, float y, long duration, ScriptExecutor.OneShotListener listener) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            Path path = new Path();
-            path.moveTo(x, y);
-            
-            GestureDescription.Builder builder = new GestureDescription.Builder();
-            builder.addStroke(new GestureDescription.StrokeDescription(path, 0, duration));
-            
-            GestureDescription gesture = builder.build();
-            return dispatchGesture(gesture, null, null);
+            return dispatchOneShot(GestureCache.tap(x, y, duration), duration, listener);
+        }
+        return false;
+    }
+
+    private boolean dispatchSwipe(float startX, float startY, float endX, float endY, long duration,
+            ScriptExecutor.OneShotListener listener) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return dispatchOneShot(GestureCache.swipe(startX, startY, endX, endY, duration), duration, listener);
         }
         return false;
     }
 
+    /**
+     * 一次性手势都经执行器与运行仲裁手势通道。连发模式独占通道，进行中时拒绝
+     */
+    private boolean dispatchOneShot(GestureDescription gesture, long duration,
+            ScriptExecutor.OneShotListener listener) {
+        if (gesture == null) {
+            return false;
+        }
+        if (burstRunner.isRunning()) {
+            Log.w(TAG, "连发进行中，不分发其他手势");
+            return false;
+        }
+        return executor.dispatchOneShot(gesture, duration, listener);
+    }
+
     /**
      * 查找指定文本的节点
      */
@@ -288,7 +490,8 @@ public class AutoClickService extends AccessibilityService {
      * 检查服务是否正在运行
      */
     public boolean isServiceRunning() {
-        return isRunning;
+        ScriptExecutor.ScriptRun run = clickRun;
+        return (run != null && run.isActive()) || (burstRunner != null && burstRunner.isRunning());
     }
 
     public SmartElementFinder getElementFinder() {
@@ -299,100 +502,222 @@ public class AutoClickService extends AccessibilityService {
         return actionRecorder;
     }
 
-    public void executeScript(ClickScript script) {
+    public ScriptExecutor.ScriptRun executeScript(ClickScript script) {
+        return executeScript(script, PRIORITY_DEFAULT, 1);
+    }
+
+    /**
+     * 执行脚本，可以与其他脚本和点击循环同时运行
+     *
+     * @param priority 优先级，数值越大越先获得手势通道
+     * @param share    同优先级下的速率份额
+     * @return 运行句柄，可以暂停、继续和停止
+     */
+    public ScriptExecutor.ScriptRun executeScript(ClickScript script, int priority, int share) {
         if (script == null || script.getStepCount() == 0) {
             Log.e(TAG, "脚本为空或没有步骤");
-            return;
+            return null;
         }
-
-        if (isExecutingScript) {
-            Log.w(TAG, "脚本正在执行中");
-            return;
+        if (burstRunner.isRunning()) {
+            Log.w(TAG, "连发进行中，不能执行脚本");
+            return null;
         }
 
-        currentScript = script;
-        currentStepIndex = 0;
-        isExecutingScript = true;
-        
         Log.d(TAG, "开始执行脚本: " + script.getName());
-        executeNextScriptStep();
+        ScriptProgram program = ScriptCompiler.compile(script);
+        ScriptExecutor.RunOptions options = createRunOptions();
+        // 只执行一遍的脚本重启后不再重放
+        if (checkpoint != null && program.getRepeatCount() != 1) {
+            options.checkpoint = checkpoint.acquire(script, program.getSeed(), priority, share);
+        }
+        return startProgram(program, priority, share, options);
     }
 
-    private void executeNextScriptStep() {
-        if (!isExecutingScript) {
-            return;
+    /**
+     * 以状态机模式执行脚本：识别当前界面，执行对应状态的步骤，再识别下一个界面
+     *
+     * @return 脚本没有界面状态时返回false
+     */
+    public boolean executeStateMachine(ClickScript script) {
+        if (script == null || !script.isStateMachine()) {
+            Log.e(TAG, "脚本为空或没有界面状态");
+            return false;
         }
+        if (burstRunner.isRunning()) {
+            Log.w(TAG, "连发进行中，不能执行脚本");
+            return false;
+        }
+        Log.d(TAG, "开始执行状态机脚本: " + script.getName());
+        return stateMachine.start(script, PRIORITY_DEFAULT, 1, createRunOptions());
+    }
 
-        if (currentScript == null || currentScript.getStepCount() == 0) {
-            Log.e(TAG, "脚本为空或没有步骤");
-            stopScriptExecution();
-            return;
+    /**
+     * 当前界面的结构指纹，用于把当前界面登记为状态机脚本的一个状态。会访问节点树，不要在主线程调用
+     */
+    public long captureScreenFingerprint() {
+        return treeSnapshot.getScreenFingerprint();
+    }
+
+    public StateMachineRunner getStateMachine() {
+        return stateMachine;
+    }
+
+    /**
+     * 连发模式独占手势通道，不参与执行器的仲裁，进行中时不启动新的运行
+     */
+    private ScriptExecutor.ScriptRun startProgram(ScriptProgram program, int priority, int share,
+            ScriptExecutor.RunOptions options) {
+        if (burstRunner.isRunning()) {
+            Log.w(TAG, "连发进行中，不启动运行: " + program.getName());
+            return null;
+        }
+        ScriptExecutor.ScriptRun run = executor.start(program, priority, share, options);
+        if (program.getEventTypes() != 0) {
+            updateEventSubscription();
         }
+        return run;
+    }
 
-        if (currentStepIndex >= currentScript.getStepCount()) {
-            Log.d(TAG, "脚本执行完成");
-            stopScriptExecution();
+    /**
+     * 恢复服务上次被系统杀死时未完成的脚本，从检查点保存的遍数继续
+     */
+    private void resumeInterruptedRuns() {
+        if (checkpoint == null) {
             return;
         }
+        for (ExecutionCheckpoint.Saved saved : checkpoint.loadInterrupted()) {
+            Log.d(TAG, "恢复脚本: " + saved.script.getName() + ", 已完成 " + saved.iteration + " 遍");
+            ScriptExecutor.RunOptions options = createRunOptions();
+            options.startIteration = saved.iteration;
+            options.checkpoint = saved.slot;
+            startProgram(ScriptCompiler.compile(saved.script, saved.seed), saved.priority, saved.share, options);
+        }
+    }
 
-        ClickScript.ClickStep step = currentScript.getStep(currentStepIndex);
-        executeScriptStep(step);
-        
-        currentStepIndex++;
-        
-        long delay = step.getDelay() > 0 ? step.getDelay() : currentScript.getClickInterval();
-        handler.postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                executeNextScriptStep();
-            }
-        }, delay);
-    }
-
-    private void executeScriptStep(ClickScript.ClickStep step) {
-        switch (step.getType()) {
-            case CLICK:
-                performClick(step.getX(), step.getY());
-                break;
-            case LONG_CLICK:
-                performLongClick(step.getX(), step.getY(), currentScript.getClickDuration());
-                break;
-            case SWIPE:
-                performSwipe(step.getX(), step.getY(), step.getX(), step.getY() - 500, 500);
-                break;
-            case SCROLL:
-                performSwipe(step.getX(), step.getY(), step.getX(), step.getY() - 500, 500);
-                break;
-            case WAIT:
-                break;
+    /**
+     * 设置每隔多少遍保存一次执行进度
+     */
+    public void setCheckpointInterval(int iterations) {
+        if (checkpoint != null) {
+            checkpoint.setInterval(iterations);
         }
-        
-        Log.d(TAG, "执行步骤 " + currentStepIndex + ": " + step.getDescription());
     }
 
+    /**
+     * 按当前运行等待的事件重新配置订阅：只订阅需要的事件类型和应用，
+     * 没有运行等待事件时退回到最小订阅，减少系统投递事件的开销。
+     * 节点快照使用期间额外订阅所有应用的窗口事件
+     */
+    public void updateEventSubscription() {
+        int eventTypes = executor.getRequiredEventTypes();
+        String[] packages = eventTypes != 0 ? executor.getRequiredPackages() : null;
+        eventFilter.update(eventTypes, packages);
+
+        boolean snapshot = treeSnapshot.isWanted();
+        AccessibilityServiceInfo info = getServiceInfo();
+        if (info == null) {
+            treeSnapshot.setSubscribed(false);
+            return;
+        }
+        info.eventTypes = EventFilter.IDLE_EVENT_TYPES | eventTypes
+            | (snapshot ? TreeSnapshot.INVALIDATION_EVENT_TYPES : 0);
+        // 低版本上空闲订阅的窗口事件用于维护节点缓存，不能限定应用
+        info.packageNames = EventFilter.IDLE_EVENT_TYPES == 0 && !snapshot ? packages : null;
+        info.notificationTimeout = eventTypes != 0
+            ? EventFilter.GATED_NOTIFICATION_TIMEOUT : EventFilter.IDLE_NOTIFICATION_TIMEOUT;
+        setServiceInfo(info);
+        treeSnapshot.setSubscribed(snapshot);
+        Log.d(TAG, "更新事件订阅: 类型 " + info.eventTypes + ", 应用 "
+            + (packages == null ? "全部" : Arrays.toString(packages)));
+    }
+
+    public EventFilter getEventFilter() {
+        return eventFilter;
+    }
+
+    public TreeSnapshot getTreeSnapshot() {
+        return treeSnapshot;
+    }
+
+    public TreeDiffer getTreeDiffer() {
+        return treeDiffer;
+    }
+
+    public ElementLocationCache getLocationCache() {
+        return locationCache;
+    }
+
+    /**
+     * 停止所有脚本运行（不包括点击循环）
+     */
     public void stopScriptExecution() {
-        isExecutingScript = false;
-        handler.removeCallbacksAndMessages(null);
-        currentScript = null;
-        currentStepIndex = 0;
+        // 先停止状态机，避免它在运行停止后启动下一个状态
+        stateMachine.stop();
+        ScriptExecutor.ScriptRun click = clickRun;
+        for (ScriptExecutor.ScriptRun run : executor.getRuns()) {
+            if (run != click) {
+                run.stop();
+            }
+        }
         Log.d(TAG, "停止脚本执行");
     }
 
     public void smartClickByText(String text, final SmartClickCallback callback) {
-        elementFinder.findElementByText(text, new SmartElementFinder.FindCallback() {
+        elementFinder.findElementByText(text, clickOnFound(callback));
+    }
+
+    public void smartClickById(String viewId, final SmartClickCallback callback) {
+        elementFinder.findElementById(viewId, clickOnFound(callback));
+    }
+
+    public void smartClickByContentDescription(String description, final SmartClickCallback callback) {
+        elementFinder.findElementByContentDescription(description, clickOnFound(callback));
+    }
+
+    private SmartElementFinder.FindCallback clickOnFound(SmartClickCallback callback) {
+        return clickOnFound(callback, null);
+    }
+
+    /**
+     * 点击指定位置，手势结束后回调：完成算成功，分发失败或被取消算失败
+     */
+    private void clickAt(final float x, final float y, final String info, final SmartClickCallback callback) {
+        boolean queued = dispatchTap(x, y, GestureCache.TAP_DURATION, callback == null ? null
+            : new ScriptExecutor.OneShotListener() {
+                @Override
+                public void onOneShotFinished(boolean dispatched, boolean completed) {
+                    if (completed) {
+                        callback.onSuccess(x, y, info);
+                    } else {
+                        callback.onFailure(dispatched ? "点击被取消" : "点击失败");
+                    }
+                }
+            });
+        if (!queued) {
+            Log.e(TAG, "点击失败: (" + x + ", " + y + ")");
+            if (callback != null) {
+                callback.onFailure("点击失败");
+            }
+        }
+    }
+
+    /**
+     * 找到元素后点击其中心，点击结束后在调度线程上回调
+     *
+     * @param future 异步点击的结果，查找返回时它已经取消或超时就不再点击
+     */
+    private SmartElementFinder.FindCallback clickOnFound(final SmartClickCallback callback,
+            final ElementFuture<?> future) {
+        return new SmartElementFinder.FindCallback() {
             @Override
-            public void onElementFound(AccessibilityNodeInfo node, String matchInfo) {
+            public void onElementFound(AccessibilityNodeInfo node, final String matchInfo) {
                 Rect bounds = new Rect();
                 node.getBoundsInScreen(bounds);
-                boolean success = performClick(bounds.centerX(), bounds.centerY());
-                
-                if (callback != null) {
-                    if (success) {
-                        callback.onSuccess(bounds.centerX(), bounds.centerY(), matchInfo);
-                    } else {
-                        callback.onFailure("点击失败");
-                    }
+                if (future != null && future.isDone()) {
+                    Log.d(TAG, "查找已取消或超时，不再点击: " + matchInfo);
+                    return;
                 }
+                clickAt(bounds.centerX(), bounds.centerY(), matchInfo, callback);
             }
 
             @Override
@@ -401,59 +726,266 @@ public class AutoClickService extends AccessibilityService {
                     callback.onFailure(reason);
                 }
             }
-        });
+        };
     }
 
-    public void smartClickById(String viewId, final SmartClickCallback callback) {
-        elementFinder.findElementById(viewId, new SmartElementFinder.FindCallback() {
+    /**
+     * 开启后异步的文本、ID、内容描述智能点击在所有窗口中查找，包括对话框、输入法、分屏和系统浮层
+     */
+    public void setMultiWindowSearch(boolean enabled) {
+        this.multiWindowSearch = enabled;
+    }
+
+    public boolean isMultiWindowSearch() {
+        return multiWindowSearch;
+    }
+
+    /**
+     * 在查找线程上按文本查找并点击，超过默认超时时间以失败结束
+     */
+    public ElementFuture<ClickResult> smartClickByTextAsync(final String text) {
+        if (multiWindowSearch) {
+            return smartClickInWindowsAsync(SmartElementFinder.Selector.byText(text));
+        }
+        return smartClickAsync(new FinderQuery() {
             @Override
-            public void onElementFound(AccessibilityNodeInfo node, String matchInfo) {
-                Rect bounds = new Rect();
-                node.getBoundsInScreen(bounds);
-                boolean success = performClick(bounds.centerX(), bounds.centerY());
-                
-                if (callback != null) {
-                    if (success) {
-                        callback.onSuccess(bounds.centerX(), bounds.centerY(), matchInfo);
-                    } else {
-                        callback.onFailure("点击失败");
-                    }
+            public void run(SmartElementFinder.FindCallback callback) {
+                elementFinder.findElementByText(text, callback);
+            }
+        }, SMART_CLICK_TIMEOUT_MS);
+    }
+
+    public ElementFuture<ClickResult> smartClickByIdAsync(final String viewId) {
+        if (multiWindowSearch) {
+            return smartClickInWindowsAsync(SmartElementFinder.Selector.byId(viewId));
+        }
+        return smartClickAsync(new FinderQuery() {
+            @Override
+            public void run(SmartElementFinder.FindCallback callback) {
+                elementFinder.findElementById(viewId, callback);
+            }
+        }, SMART_CLICK_TIMEOUT_MS);
+    }
+
+    public ElementFuture<ClickResult> smartClickByContentDescriptionAsync(final String description) {
+        if (multiWindowSearch) {
+            return smartClickInWindowsAsync(SmartElementFinder.Selector.byContentDescription(description));
+        }
+        return smartClickAsync(new FinderQuery() {
+            @Override
+            public void run(SmartElementFinder.FindCallback callback) {
+                elementFinder.findElementByContentDescription(description, callback);
+            }
+        }, SMART_CLICK_TIMEOUT_MS);
+    }
+
+    /**
+     * 在查找线程上按选择器查找并点击，选择器语法错误时立即失败
+     */
+    public ElementFuture<ClickResult> smartClickBySelectorAsync(String source) {
+        final ElementSelector selector;
+        try {
+            selector = ElementSelector.parse(source);
+        } catch (IllegalArgumentException e) {
+            return ElementFuture.failed(e.getMessage());
+        }
+        return smartClickAsync(new FinderQuery() {
+            @Override
+            public void run(SmartElementFinder.FindCallback callback) {
+                elementFinder.findElementBySelector(selector, callback);
+            }
+        }, SMART_CLICK_TIMEOUT_MS);
+    }
+
+    /**
+     * 在查找线程上按文本查找元素，不点击
+     */
+    public ElementFuture<SmartElementFinder.ElementInfo> findByTextAsync(final String text) {
+        return findAsync(new FinderQuery() {
+            @Override
+            public void run(SmartElementFinder.FindCallback callback) {
+                elementFinder.findElementByText(text, callback);
+            }
+        }, SMART_CLICK_TIMEOUT_MS);
+    }
+
+    public ElementFuture<SmartElementFinder.ElementInfo> findByIdAsync(final String viewId) {
+        return findAsync(new FinderQuery() {
+            @Override
+            public void run(SmartElementFinder.FindCallback callback) {
+                elementFinder.findElementById(viewId, callback);
+            }
+        }, SMART_CLICK_TIMEOUT_MS);
+    }
+
+    public ElementFuture<SmartElementFinder.ElementInfo> findByContentDescriptionAsync(final String description) {
+        return findAsync(new FinderQuery() {
+            @Override
+            public void run(SmartElementFinder.FindCallback callback) {
+                elementFinder.findElementByContentDescription(description, callback);
+            }
+        }, SMART_CLICK_TIMEOUT_MS);
+    }
+
+    /**
+     * 在查找线程上查找坐标处的元素，用于把坐标点击对应到界面控件
+     */
+    public ElementFuture<SmartElementFinder.ElementInfo> findElementAtAsync(float x, float y) {
+        final int pointX = Math.round(x);
+        final int pointY = Math.round(y);
+        return findAsync(new FinderQuery() {
+            @Override
+            public void run(SmartElementFinder.FindCallback callback) {
+                elementFinder.findElementAt(pointX, pointY, callback);
+            }
+        }, SMART_CLICK_TIMEOUT_MS);
+    }
+
+    /**
+     * 在查找线程上一次解析多个条件，同一界面上有多个目标时只遍历一次节点树。
+     * 结果用完后用 {@link SmartElementFinder#recycle(List)} 回收，取消或超时时查找线程自动回收
+     */
+    public ElementFuture<List<SmartElementFinder.BatchMatch>> findElementsAsync(
+            final List<SmartElementFinder.Selector> selectors) {
+        final ElementFuture<List<SmartElementFinder.BatchMatch>> future = new ElementFuture<>();
+        finderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (future.isDone()) {
+                    return;
+                }
+                List<SmartElementFinder.BatchMatch> results = elementFinder.findElements(selectors);
+                if (results == null) {
+                    future.fail("无法获取根节点");
+                } else if (!future.complete(results)) {
+                    // 已经取消或超时
+                    SmartElementFinder.recycle(results);
                 }
             }
+        });
+        return future.withTimeout(SMART_CLICK_TIMEOUT_MS, mainHandler);
+    }
 
+    /**
+     * 在所有窗口中并行查找，结果按窗口层级从上到下、再按得分排列，节点归调用方所有。
+     * 取消或超时后各窗口立即停止遍历
+     */
+    public ElementFuture<List<MultiWindowFinder.WindowMatch>> findInWindowsAsync(
+            final SmartElementFinder.Selector selector) {
+        final ElementFuture<List<MultiWindowFinder.WindowMatch>> future = new ElementFuture<>();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        future.onCancel(new Runnable() {
             @Override
-            public void onElementNotFound(String reason) {
-                if (callback != null) {
-                    callback.onFailure(reason);
+            public void run() {
+                cancelled.set(true);
+            }
+        });
+        finderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (future.isDone()) {
+                    return;
+                }
+                List<MultiWindowFinder.WindowMatch> matches = multiWindowFinder.find(selector, cancelled);
+                if (matches == null) {
+                    future.fail("无法获取窗口列表");
+                } else if (matches.isEmpty()) {
+                    future.fail("所有窗口中都未找到匹配的元素");
+                } else if (!future.complete(matches)) {
+                    // 已经取消或超时
+                    MultiWindowFinder.recycle(matches);
                 }
             }
         });
+        return future.withTimeout(SMART_CLICK_TIMEOUT_MS, mainHandler);
     }
 
-    public void smartClickByContentDescription(String description, final SmartClickCallback callback) {
-        elementFinder.findElementByContentDescription(description, new SmartElementFinder.FindCallback() {
+    /**
+     * 在所有窗口中查找并点击排在最前的元素
+     */
+    public ElementFuture<ClickResult> smartClickInWindowsAsync(SmartElementFinder.Selector selector) {
+        return findInWindowsAsync(selector).then(
+            new ElementFuture.Step<List<MultiWindowFinder.WindowMatch>, ClickResult>() {
+                @Override
+                public ElementFuture<ClickResult> apply(List<MultiWindowFinder.WindowMatch> matches) {
+                    MultiWindowFinder.WindowMatch top = matches.get(0);
+                    Rect bounds = top.getBounds();
+                    String info = top.toString();
+                    MultiWindowFinder.recycle(matches);
+                    final ElementFuture<ClickResult> clicked = new ElementFuture<>();
+                    clickAt(bounds.centerX(), bounds.centerY(), info, new SmartClickCallback() {
+                        @Override
+                        public void onSuccess(float x, float y, String info) {
+                            clicked.complete(new ClickResult(x, y, info));
+                        }
+
+                        @Override
+                        public void onFailure(String reason) {
+                            clicked.fail(reason);
+                        }
+                    });
+                    return clicked;
+                }
+            });
+    }
+
+    private ElementFuture<ClickResult> smartClickAsync(final FinderQuery query, long timeoutMs) {
+        final ElementFuture<ClickResult> future = new ElementFuture<>();
+        finderHandler.post(new Runnable() {
             @Override
-            public void onElementFound(AccessibilityNodeInfo node, String matchInfo) {
-                Rect bounds = new Rect();
-                node.getBoundsInScreen(bounds);
-                boolean success = performClick(bounds.centerX(), bounds.centerY());
-                
-                if (callback != null) {
-                    if (success) {
-                        callback.onSuccess(bounds.centerX(), bounds.centerY(), matchInfo);
-                    } else {
-                        callback.onFailure("点击失败");
-                    }
+            public void run() {
+                // 排队期间已取消或超时的查找不再执行
+                if (future.isDone()) {
+                    return;
                 }
+                query.run(clickOnFound(new SmartClickCallback() {
+                    @Override
+                    public void onSuccess(float x, float y, String info) {
+                        future.complete(new ClickResult(x, y, info));
+                    }
+
+                    @Override
+                    public void onFailure(String reason) {
+                        future.fail(reason);
+                    }
+                }, future));
             }
+        });
+        // 超时在主线程上计时，查找线程被一次慢查询占住时也能按时结束
+        return future.withTimeout(timeoutMs, mainHandler);
+    }
 
+    private ElementFuture<SmartElementFinder.ElementInfo> findAsync(final FinderQuery query, long timeoutMs) {
+        final ElementFuture<SmartElementFinder.ElementInfo> future = new ElementFuture<>();
+        finderHandler.post(new Runnable() {
             @Override
-            public void onElementNotFound(String reason) {
-                if (callback != null) {
-                    callback.onFailure(reason);
+            public void run() {
+                if (future.isDone()) {
+                    return;
                 }
+                query.run(new SmartElementFinder.FindCallback() {
+                    @Override
+                    public void onElementFound(AccessibilityNodeInfo node, String matchInfo) {
+                        future.complete(elementFinder.getElementInfo(node));
+                    }
+
+                    @Override
+                    public void onElementNotFound(String reason) {
+                        future.fail(reason);
+                    }
+                });
             }
         });
+        return future.withTimeout(timeoutMs, mainHandler);
+    }
+
+    private interface FinderQuery {
+        void run(SmartElementFinder.FindCallback callback);
+    }
+
+    public enum ExecutionMode {
+        TIMED,
+        COMPLETION_DRIVEN
     }
 
     public interface SmartClickCallback {
@@ -475,4 +1007,19 @@ public class AutoClickService extends AccessibilityService {
             this.description = description;
         }
     }
+
+    /**
+     * 智能点击的结果：点击的位置和匹配信息
+     */
+    public static class ClickResult {
+        public final float x;
+        public final float y;
+        public final String info;
+
+        public ClickResult(float x, float y, String info) {
+            this.x = x;
+            this.y = y;
+            this.info = info;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,292 @@
+package com.example.autoclicker.service;
+
+import android.accessibilityservice.GestureDescription;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 连发模式
+ *
+ * 把一批点击点打包成一个多笔画手势，每个点击是一笔，按时间偏移依次落下，
+ * 一次分发完成多次点击。批大小受 GestureDescription.getMaxStrokeCount()
+ * 和 getMaxGestureDuration() 限制。下一批在上一批完成后分发，不会互相取消。
+ *
+ * 吞吐测试模式先用每次点击一次分发跑一段时间，再用连发跑同样时间，
+ * 比较两者实际达到的每秒点击数。
+ *
+ * 运行状态只在调度线程上修改，开始和停止都转发到调度线程执行。
+ */
+public class BurstClickRunner {
+    private static final String TAG = "BurstClickRunner";
+
+    private final ClickScheduler scheduler;
+    private final GestureDispatcher dispatcher;
+    private final GestureDispatcher.Tracker tracker;
+
+    private long tapDuration = 10;
+    private long tapSpacing = 20;
+    private long minGap = 0;
+
+    private volatile ClickScheduler.Run run;
+    /**
+     * 已经请求开始、调度线程还没有处理
+     */
+    private volatile boolean starting = false;
+    private List<AutoClickService.ClickPoint> points = new ArrayList<>();
+    private int pointIndex = 0;
+    private int currentRepeat = 0;
+    private int repeatCount = 1;
+    private int batchSize = 0;
+    private int pendingBatch = 0;
+    private GestureCache batches;
+    private long phaseEnd = 0;
+    private long phaseDuration = 0;
+    private boolean singlePhase = false;
+    private ThroughputMeter activeMeter;
+    private final ThroughputMeter singleMeter = new ThroughputMeter("单次分发");
+    private final ThroughputMeter burstMeter = new ThroughputMeter("连发");
+
+    public BurstClickRunner(ClickScheduler scheduler, GestureDispatcher dispatcher) {
+        this.scheduler = scheduler;
+        this.dispatcher = dispatcher;
+        this.tracker = dispatcher.createTracker(new GestureDispatcher.Listener() {
+            @Override
+            public void onGestureFinished(boolean completed) {
+                onBatchFinished(completed);
+            }
+        });
+    }
+
+    /**
+     * 设置每次点击（每一笔）的按下时长
+     */
+    public void setTapDuration(long tapDuration) {
+        this.tapDuration = Math.max(1, tapDuration);
+    }
+
+    /**
+     * 设置同一手势内相邻两次点击的起始时间间隔
+     */
+    public void setTapSpacing(long tapSpacing) {
+        this.tapSpacing = Math.max(1, tapSpacing);
+    }
+
+    /**
+     * 设置一批完成后到下一批开始的最小间隔
+     */
+    public void setMinGap(long minGap) {
+        this.minGap = Math.max(0, minGap);
+    }
+
+    /**
+     * 以连发模式点击所有点，循环repeatCount遍，0表示无限循环
+     */
+    public boolean start(List<AutoClickService.ClickPoint> clickPoints, int repeatCount) {
+        if (!canStart(clickPoints)) {
+            return false;
+        }
+        final List<AutoClickService.ClickPoint> copy = new ArrayList<>(clickPoints);
+        final int repeats = repeatCount > 0 ? repeatCount : Integer.MAX_VALUE;
+        starting = true;
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                load(copy);
+                BurstClickRunner.this.repeatCount = repeats;
+                phaseEnd = 0;
+                batchSize = getMaxBatchSize();
+                batches = GestureCache.forBurst(points, batchSize, tapSpacing, tapDuration);
+                activeMeter = burstMeter;
+                burstMeter.start();
+                Log.d(TAG, "开始连发，每批最多 " + batchSize + " 次点击");
+                schedule();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 吞吐测试：先每次点击单独分发，再连发，各运行phaseDuration毫秒
+     */
+    public boolean startThroughputTest(List<AutoClickService.ClickPoint> clickPoints, final long phaseDuration) {
+        if (!canStart(clickPoints)) {
+            return false;
+        }
+        final List<AutoClickService.ClickPoint> copy = new ArrayList<>(clickPoints);
+        starting = true;
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                load(copy);
+                repeatCount = Integer.MAX_VALUE;
+                BurstClickRunner.this.phaseDuration = phaseDuration;
+                singlePhase = true;
+                batchSize = 1;
+                batches = GestureCache.forBurst(points, batchSize, tapSpacing, tapDuration);
+                activeMeter = singleMeter;
+                phaseEnd = SystemClock.uptimeMillis() + phaseDuration;
+                singleMeter.start();
+                Log.d(TAG, "开始吞吐测试，每阶段 " + phaseDuration + "ms");
+                schedule();
+            }
+        });
+        return true;
+    }
+
+    public void stop() {
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                stopOnScheduler();
+            }
+        });
+    }
+
+    private void stopOnScheduler() {
+        ClickScheduler.Run current = run;
+        if (current != null) {
+            current.cancel();
+            run = null;
+        }
+        if (activeMeter != null) {
+            activeMeter.stop();
+        }
+    }
+
+    /**
+     * 已经请求开始、还没有结束或停止时返回true，可以在任意线程调用
+     */
+    public boolean isRunning() {
+        return starting || run != null;
+    }
+
+    public ThroughputMeter getSingleMeter() {
+        return singleMeter;
+    }
+
+    public ThroughputMeter getBurstMeter() {
+        return burstMeter;
+    }
+
+    public String getThroughputReport() {
+        String report = singleMeter + "\n" + burstMeter;
+        double single = singleMeter.getTapsPerSecond();
+        if (single > 0 && burstMeter.getTaps() > 0) {
+            report += String.format("\n连发提升: %.1f 倍", burstMeter.getTapsPerSecond() / single);
+        }
+        return report;
+    }
+
+    /**
+     * 当前设备一个手势最多能容纳的点击数
+     */
+    public int getMaxBatchSize() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return 1;
+        }
+        int byStrokes = GestureDescription.getMaxStrokeCount();
+        long byDuration = (GestureDescription.getMaxGestureDuration() - tapDuration) / tapSpacing + 1;
+        return (int) Math.max(1, Math.min(byStrokes, byDuration));
+    }
+
+    private boolean canStart(List<AutoClickService.ClickPoint> clickPoints) {
+        if (clickPoints == null || clickPoints.isEmpty()) {
+            Log.e(TAG, "没有设置点击点");
+            return false;
+        }
+        if (tracker == null) {
+            Log.e(TAG, "系统版本不支持手势分发");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 在调度线程上停止当前的连发并载入新的点击点
+     */
+    private void load(List<AutoClickService.ClickPoint> clickPoints) {
+        stopOnScheduler();
+        points = clickPoints;
+        pointIndex = 0;
+        currentRepeat = 0;
+        singlePhase = false;
+    }
+
+    private void schedule() {
+        run = scheduler.schedule(new ClickScheduler.Task() {
+            @Override
+            public long run() {
+                return dispatchNextBatch();
+            }
+        }, ClickScheduler.Mode.FIXED_DELAY, 0);
+        starting = false;
+    }
+
+    private long dispatchNextBatch() {
+        if (phaseEnd != 0 && SystemClock.uptimeMillis() >= phaseEnd) {
+            if (!advancePhase()) {
+                return ClickScheduler.STOP;
+            }
+        }
+        if (currentRepeat >= repeatCount) {
+            Log.d(TAG, "连发完成: " + activeMeter);
+            activeMeter.stop();
+            run = null;
+            return ClickScheduler.STOP;
+        }
+
+        // 整批使用预编译手势，只有最后不足一批时才临时构建
+        int size = points.size();
+        long remaining = (long) (repeatCount - currentRepeat) * size - pointIndex;
+        int count = (int) Math.min(batchSize, remaining);
+        GestureDescription gesture = count == batchSize
+            ? batches.get(pointIndex)
+            : GestureCache.burst(points, pointIndex, count, tapSpacing, tapDuration);
+
+        int next = pointIndex + count;
+        currentRepeat += next / size;
+        pointIndex = next % size;
+
+        pendingBatch = count;
+        if (dispatcher.dispatch(gesture, tracker)) {
+            return ClickScheduler.PARK;
+        }
+        Log.e(TAG, "连发手势分发失败");
+        return Math.max(minGap, tapSpacing);
+    }
+
+    private void onBatchFinished(boolean completed) {
+        if (completed && activeMeter != null) {
+            activeMeter.record(pendingBatch);
+        }
+        ClickScheduler.Run current = run;
+        if (current != null) {
+            current.resume(minGap);
+        }
+    }
+
+    /**
+     * 吞吐测试切换到下一阶段
+     *
+     * @return false表示测试结束
+     */
+    private boolean advancePhase() {
+        activeMeter.stop();
+        if (!singlePhase) {
+            Log.d(TAG, "吞吐测试完成\n" + getThroughputReport());
+            run = null;
+            return false;
+        }
+        singlePhase = false;
+        batchSize = getMaxBatchSize();
+        batches = GestureCache.forBurst(points, batchSize, tapSpacing, tapDuration);
+        activeMeter = burstMeter;
+        burstMeter.start();
+        phaseEnd = SystemClock.uptimeMillis() + phaseDuration;
+        return true;
+    }
+}
@@ -0,0 +1,263 @@
+package com.example.autoclicker.service;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.autoclicker.utils.LatencyHistogram;
+
+/**
+ * 点击调度器
+ *
+ * 在独立的高优先级线程上执行点击循环，不再与主线程的UI工作争抢。
+ * 每次执行都按绝对截止时间（SystemClock.uptimeMillis，单调时钟）排期：
+ * 固定频率模式下截止时间按周期累加，单次执行迟到不会累积成漂移；
+ * 固定延迟模式下下一次执行从本次执行结束时开始计时。
+ */
+public class ClickScheduler {
+    private static final String TAG = "ClickScheduler";
+
+    /**
+     * 固定频率模式下最多允许落后的时间，超过后放弃追赶，避免恢复时连续补发点击
+     */
+    private static final long MAX_CATCH_UP_MS = 1000;
+
+    /**
+     * Task返回此值表示任务结束
+     */
+    public static final long STOP = -1;
+
+    /**
+     * Task返回此值表示暂停调度，等待外部调用 {@link Run#resume(long)} 继续
+     */
+    public static final long PARK = -2;
+
+    public enum Mode {
+        FIXED_DELAY,
+        FIXED_RATE
+    }
+
+    public interface Task {
+        /**
+         * 执行一次任务
+         *
+         * @return 距下一次执行的间隔（毫秒），返回 {@link #STOP} 表示结束，
+         *         返回 {@link #PARK} 表示等待外部唤醒
+         */
+        long run();
+    }
+
+    /**
+     * 调度使用的时钟和消息队列，默认是调度线程的Handler和uptimeMillis，测试中替换为虚拟时钟
+     */
+    interface Timer {
+        long now();
+
+        void postAtTime(Runnable runnable, Object token, long uptimeMillis);
+
+        /**
+         * 移除token对应的所有消息，token为null时移除全部
+         */
+        void cancel(Object token);
+    }
+
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final Timer timer;
+    private volatile LatencyHistogram latenessHistogram;
+
+    public ClickScheduler(String name) {
+        thread = new HandlerThread(name, Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        timer = new HandlerTimer(handler);
+    }
+
+    /**
+     * 使用指定的时钟，没有调度线程，{@link #getHandler()} 返回null。只用于测试
+     */
+    ClickScheduler(Timer timer) {
+        this.thread = null;
+        this.handler = null;
+        this.timer = timer;
+    }
+
+    /**
+     * 开始调度任务
+     *
+     * @param initialDelay 首次执行前的延迟（毫秒）
+     */
+    public Run schedule(Task task, Mode mode, long initialDelay) {
+        Run run = new Run(task, mode);
+        run.deadline = timer.now() + Math.max(0, initialDelay);
+        timer.postAtTime(run, run, run.deadline);
+        return run;
+    }
+
+    /**
+     * 在调度线程上执行一次性操作
+     */
+    public void post(Runnable runnable) {
+        timer.postAtTime(runnable, null, timer.now());
+    }
+
+    public Handler getHandler() {
+        return handler;
+    }
+
+    /**
+     * 设置后每次执行都把实际执行时间相对截止时间的延迟记录到直方图（微秒）
+     */
+    public void setLatenessHistogram(LatencyHistogram histogram) {
+        this.latenessHistogram = histogram;
+    }
+
+    public void shutdown() {
+        timer.cancel(null);
+        if (thread != null) {
+            thread.quitSafely();
+        }
+    }
+
+    private static final class HandlerTimer implements Timer {
+        private final Handler handler;
+
+        HandlerTimer(Handler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public long now() {
+            return SystemClock.uptimeMillis();
+        }
+
+        @Override
+        public void postAtTime(Runnable runnable, Object token, long uptimeMillis) {
+            handler.postAtTime(runnable, token, uptimeMillis);
+        }
+
+        @Override
+        public void cancel(Object token) {
+            handler.removeCallbacksAndMessages(token);
+        }
+    }
+
+    /**
+     * 一次调度运行的句柄，每个运行使用自己作为消息token，取消时互不影响
+     */
+    public final class Run implements Runnable {
+        private final Task task;
+        private final Mode mode;
+        private long deadline;
+        private volatile boolean cancelled = false;
+        private boolean parked = false;
+        private volatile long lastLateness = 0;
+        private volatile long maxLateness = 0;
+        private volatile long executions = 0;
+
+        private Run(Task task, Mode mode) {
+            this.task = task;
+            this.mode = mode;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+
+            long now = timer.now();
+            long lateness = now - deadline;
+            lastLateness = lateness;
+            LatencyHistogram histogram = latenessHistogram;
+            if (histogram != null) {
+                histogram.record(lateness * 1000);
+            }
+            if (lateness > maxLateness) {
+                maxLateness = lateness;
+            }
+            executions++;
+
+            long next = task.run();
+            if (next == PARK && !cancelled) {
+                parked = true;
+                return;
+            }
+            if (next < 0 || cancelled) {
+                cancelled = true;
+                return;
+            }
+
+            if (mode == Mode.FIXED_RATE) {
+                deadline += next;
+                if (now - deadline > MAX_CATCH_UP_MS) {
+                    Log.w(TAG, "调度落后 " + (now - deadline) + "ms，重置截止时间");
+                    deadline = now;
+                }
+            } else {
+                deadline = timer.now() + next;
+            }
+            timer.postAtTime(this, this, deadline);
+        }
+
+        /**
+         * 唤醒已暂停的运行，必须在调度线程上调用
+         *
+         * @param delay 距下一次执行的延迟（毫秒）
+         */
+        public void resume(long delay) {
+            if (!parked || cancelled) {
+                return;
+            }
+            parked = false;
+            deadline = timer.now() + Math.max(0, delay);
+            timer.postAtTime(this, this, deadline);
+        }
+
+        /**
+         * 把已排期的下一次执行提前到现在，必须在调度线程上调用
+         */
+        public void expedite() {
+            if (parked || cancelled) {
+                return;
+            }
+            timer.cancel(this);
+            deadline = timer.now();
+            timer.postAtTime(this, this, deadline);
+        }
+
+        public boolean isParked() {
+            return parked;
+        }
+
+        public void cancel() {
+            cancelled = true;
+            timer.cancel(this);
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public Mode getMode() {
+            return mode;
+        }
+
+        /**
+         * 最近一次执行相对截止时间的延迟（毫秒）
+         */
+        public long getLastLateness() {
+            return lastLateness;
+        }
+
+        public long getMaxLateness() {
+            return maxLateness;
+        }
+
+        public long getExecutions() {
+            return executions;
+        }
+    }
+}
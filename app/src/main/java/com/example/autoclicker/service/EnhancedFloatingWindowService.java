@@ -23,6 +23,7 @@ import com.example.autoclicker.R;
 import com.example.autoclicker.model.ClickScript;
 import com.example.autoclicker.utils.ActionRecorder;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -199,6 +200,24 @@ public class EnhancedFloatingWindowService extends Service {
         });
         layout.addView(executeScriptBtn);
         
+        Button telemetryBtn = new Button(this);
+        telemetryBtn.setText("执行统计");
+        telemetryBtn.setOnClickListener(v -> {
+            showTelemetry();
+            windowManager.removeView(editView);
+            editView = null;
+        });
+        layout.addView(telemetryBtn);
+
+        Button exportTelemetryBtn = new Button(this);
+        exportTelemetryBtn.setText("导出统计");
+        exportTelemetryBtn.setOnClickListener(v -> {
+            exportTelemetry();
+            windowManager.removeView(editView);
+            editView = null;
+        });
+        layout.addView(exportTelemetryBtn);
+        
         Button closeMenuBtn = new Button(this);
         closeMenuBtn.setText("关闭");
         closeMenuBtn.setOnClickListener(v -> {
@@ -372,6 +391,27 @@ public class EnhancedFloatingWindowService extends Service {
         }
     }
 
+    private void showTelemetry() {
+        if (service != null && service.getTelemetry() != null) {
+            Toast.makeText(this, service.getTelemetry().getSummary(), Toast.LENGTH_LONG).show();
+        } else {
+            Toast.makeText(this, "服务未运行", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private void exportTelemetry() {
+        if (service == null || service.getTelemetry() == null) {
+            Toast.makeText(this, "服务未运行", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        File file = service.exportTelemetry();
+        if (file != null) {
+            Toast.makeText(this, "统计已导出: " + file.getAbsolutePath(), Toast.LENGTH_LONG).show();
+        } else {
+            Toast.makeText(this, "导出统计失败", Toast.LENGTH_SHORT).show();
+        }
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
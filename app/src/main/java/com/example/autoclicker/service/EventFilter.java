@@ -0,0 +1,90 @@
+package com.example.autoclicker.service;
+
+import android.os.Build;
+import android.view.accessibility.AccessibilityEvent;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 辅助功能事件过滤
+ *
+ * 系统按AccessibilityServiceInfo投递事件，但配置切换前后以及系统为维护节点缓存额外投递的事件
+ * 仍会到达服务。事件进入执行器前先在这里按类型和包名过滤，只比较整数掩码和少量包名，
+ * 并统计接收和丢弃的数量。只在主线程上调用 {@link #accept}。
+ */
+public class EventFilter {
+
+    /**
+     * 没有运行等待事件时订阅的类型。Android 9开始系统会为节点缓存单独投递关键事件，
+     * 之前的版本需要订阅窗口变化事件，否则查找元素可能读到过期的节点
+     */
+    public static final int IDLE_EVENT_TYPES = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P
+        ? 0 : AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED | AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED;
+
+    public static final long IDLE_NOTIFICATION_TIMEOUT = 100;
+
+    /**
+     * 有运行等待事件时缩短同类事件的合并间隔，界面变化后尽快执行下一步
+     */
+    public static final long GATED_NOTIFICATION_TIMEOUT = 20;
+
+    private volatile int eventTypes = 0;
+    private volatile String[] packageNames;
+    private final AtomicLong acceptedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * 更新需要的事件
+     *
+     * @param packageNames 只接受这些应用的事件，为null时接受任意应用
+     */
+    public void update(int eventTypes, String[] packageNames) {
+        this.packageNames = packageNames;
+        this.eventTypes = eventTypes;
+    }
+
+    public boolean accept(AccessibilityEvent event) {
+        if ((event.getEventType() & eventTypes) == 0 || !matchesPackage(event.getPackageName())) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        acceptedCount.incrementAndGet();
+        return true;
+    }
+
+    private boolean matchesPackage(CharSequence packageName) {
+        String[] packages = packageNames;
+        if (packages == null) {
+            return true;
+        }
+        if (packageName == null) {
+            return false;
+        }
+        for (String candidate : packages) {
+            if (candidate.contentEquals(packageName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getEventTypes() {
+        return eventTypes;
+    }
+
+    public String[] getPackageNames() {
+        return packageNames;
+    }
+
+    public long getAcceptedCount() {
+        return acceptedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public String getSummary() {
+        return String.format("事件: 接收 %d, 丢弃 %d", getAcceptedCount(), getDroppedCount());
+    }
+}
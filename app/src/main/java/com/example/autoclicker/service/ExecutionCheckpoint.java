@@ -0,0 +1,267 @@
+package com.example.autoclicker.service;
+
+import android.util.Log;
+
+import com.example.autoclicker.model.ClickScript;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 执行进度检查点
+ *
+ * 进度保存在一个内存映射的小文件中，每个运行占一个固定大小的槽位。更新进度只是向映射内存写几个long，
+ * 不经过系统调用，可以每遍都写；进程被杀后内核仍会把脏页写回文件。
+ * 脚本本身在运行开始时序列化到单独的文件，服务重启后据此重新编译并从保存的遍数继续执行。
+ */
+public class ExecutionCheckpoint {
+    private static final String TAG = "ExecutionCheckpoint";
+    private static final String STATE_FILE = "execution_checkpoint.dat";
+    private static final String SCRIPT_FILE_PREFIX = "checkpoint_script_";
+
+    private static final int SLOT_COUNT = 8;
+    private static final int SLOT_SIZE = 64;
+    private static final int STATE_ACTIVE = 0x41434B50;
+
+    private static final int OFFSET_STATE = 0;
+    private static final int OFFSET_PRIORITY = 4;
+    private static final int OFFSET_ITERATION = 8;
+    private static final int OFFSET_SEED = 16;
+    private static final int OFFSET_SHARE = 24;
+    private static final int OFFSET_UPDATED = 32;
+
+    private final File directory;
+    private final MappedByteBuffer buffer;
+    private final boolean[] used = new boolean[SLOT_COUNT];
+    private volatile int interval = 1;
+    private volatile boolean closed = false;
+
+    private ExecutionCheckpoint(File directory, MappedByteBuffer buffer) {
+        this.directory = directory;
+        this.buffer = buffer;
+    }
+
+    /**
+     * 打开目录下的检查点文件，不存在时创建
+     *
+     * @return 失败时返回null，执行不受影响，只是不保存进度
+     */
+    public static ExecutionCheckpoint open(File directory) {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(new File(directory, STATE_FILE), "rw");
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SLOT_COUNT * SLOT_SIZE);
+            return new ExecutionCheckpoint(directory, buffer);
+        } catch (IOException e) {
+            Log.e(TAG, "打开检查点文件失败", e);
+            return null;
+        } finally {
+            // 映射建立后关闭文件不影响映射
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "关闭检查点文件失败", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 设置每隔多少遍保存一次进度
+     */
+    public void setInterval(int iterations) {
+        this.interval = Math.max(1, iterations);
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * 为新运行分配槽位并保存脚本
+     *
+     * @return 没有空闲槽位或保存失败时返回null
+     */
+    public synchronized Slot acquire(ClickScript script, long seed, int priority, int share) {
+        if (closed) {
+            return null;
+        }
+        int index = -1;
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            if (!used[i]) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            Log.w(TAG, "检查点槽位已满，不保存进度: " + script.getName());
+            return null;
+        }
+        if (!writeScript(index, script)) {
+            return null;
+        }
+
+        used[index] = true;
+        int offset = index * SLOT_SIZE;
+        buffer.putInt(offset + OFFSET_PRIORITY, priority);
+        buffer.putLong(offset + OFFSET_ITERATION, 0);
+        buffer.putLong(offset + OFFSET_SEED, seed);
+        buffer.putInt(offset + OFFSET_SHARE, share);
+        buffer.putLong(offset + OFFSET_UPDATED, System.currentTimeMillis());
+        // 最后写状态，其余字段写完之前槽位不会被当作有效检查点
+        buffer.putInt(offset + OFFSET_STATE, STATE_ACTIVE);
+        return new Slot(index);
+    }
+
+    /**
+     * 读取上次被中断的运行，返回的槽位继续由恢复的运行使用
+     */
+    public synchronized List<Saved> loadInterrupted() {
+        List<Saved> result = new ArrayList<>();
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            int offset = i * SLOT_SIZE;
+            if (used[i] || buffer.getInt(offset + OFFSET_STATE) != STATE_ACTIVE) {
+                continue;
+            }
+            ClickScript script = readScript(i);
+            if (script == null) {
+                buffer.putInt(offset + OFFSET_STATE, 0);
+                continue;
+            }
+            used[i] = true;
+            Saved saved = new Saved(new Slot(i), script, buffer.getLong(offset + OFFSET_ITERATION),
+                buffer.getLong(offset + OFFSET_SEED), buffer.getInt(offset + OFFSET_PRIORITY),
+                buffer.getInt(offset + OFFSET_SHARE));
+            saved.slot.lastWritten = saved.iteration;
+            result.add(saved);
+        }
+        return result;
+    }
+
+    /**
+     * 停止写入，之后结束的运行不会清除检查点，服务下次启动时恢复
+     */
+    public void close() {
+        closed = true;
+        buffer.force();
+    }
+
+    private synchronized void release(int index) {
+        if (closed) {
+            return;
+        }
+        buffer.putInt(index * SLOT_SIZE + OFFSET_STATE, 0);
+        used[index] = false;
+        File file = scriptFile(index);
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "删除检查点脚本失败: " + file.getName());
+        }
+    }
+
+    private File scriptFile(int index) {
+        return new File(directory, SCRIPT_FILE_PREFIX + index);
+    }
+
+    private boolean writeScript(int index, ClickScript script) {
+        ObjectOutputStream out = null;
+        try {
+            out = new ObjectOutputStream(new FileOutputStream(scriptFile(index)));
+            out.writeObject(script);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "保存检查点脚本失败", e);
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "关闭文件失败", e);
+                }
+            }
+        }
+    }
+
+    private ClickScript readScript(int index) {
+        ObjectInputStream in = null;
+        try {
+            in = new ObjectInputStream(new FileInputStream(scriptFile(index)));
+            return (ClickScript) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            Log.e(TAG, "读取检查点脚本失败", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "关闭文件失败", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 一个运行的检查点槽位，只在调度线程上更新
+     */
+    public final class Slot {
+        private final int index;
+        private long lastWritten = 0;
+
+        private Slot(int index) {
+            this.index = index;
+        }
+
+        /**
+         * 记录已完成的遍数，按间隔写入
+         */
+        public void update(long iteration) {
+            if (iteration - lastWritten < interval || closed) {
+                return;
+            }
+            int offset = index * SLOT_SIZE;
+            buffer.putLong(offset + OFFSET_ITERATION, iteration);
+            buffer.putLong(offset + OFFSET_UPDATED, System.currentTimeMillis());
+            lastWritten = iteration;
+        }
+
+        /**
+         * 运行正常结束或被停止，清除检查点
+         */
+        public void clear() {
+            release(index);
+        }
+    }
+
+    /**
+     * 被中断的运行
+     */
+    public static class Saved {
+        public final Slot slot;
+        public final ClickScript script;
+        public final long iteration;
+        public final long seed;
+        public final int priority;
+        public final int share;
+
+        Saved(Slot slot, ClickScript script, long iteration, long seed, int priority, int share) {
+            this.slot = slot;
+            this.script = script;
+            this.iteration = iteration;
+            this.seed = seed;
+            this.priority = priority;
+            this.share = share;
+        }
+    }
+}
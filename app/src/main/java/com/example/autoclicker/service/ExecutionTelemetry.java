@@ -0,0 +1,139 @@
+package com.example.autoclicker.service;
+
+import android.util.Log;
+
+import com.example.autoclicker.utils.ElementLocationCache;
+import com.example.autoclicker.utils.LatencyHistogram;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * 执行统计
+ *
+ * 汇总调度延迟（实际执行时间晚于计划时间多少）、手势从分发到完成的耗时、元素查找耗时三个直方图，
+ * 以及分发器的手势计数、事件过滤计数和元素位置缓存的命中率。直方图由各模块在执行过程中直接记录，单位都是微秒；
+ * 调度基于Handler的毫秒时钟，所以调度延迟的精度是1毫秒。
+ */
+public class ExecutionTelemetry {
+    private static final String TAG = "ExecutionTelemetry";
+
+    private final GestureDispatcher dispatcher;
+    private final EventFilter eventFilter;
+    private final LatencyHistogram scheduleLateness = new LatencyHistogram("调度延迟(us)");
+    private final LatencyHistogram gestureLatency = new LatencyHistogram("分发到完成(us)");
+    private final LatencyHistogram finderLatency = new LatencyHistogram("元素查找(us)");
+    private final LatencyHistogram screenIdentify = new LatencyHistogram("界面识别(us)");
+    private volatile ElementLocationCache locationCache;
+
+    public ExecutionTelemetry(GestureDispatcher dispatcher, EventFilter eventFilter) {
+        this.dispatcher = dispatcher;
+        this.eventFilter = eventFilter;
+    }
+
+    public void setLocationCache(ElementLocationCache cache) {
+        this.locationCache = cache;
+    }
+
+    public LatencyHistogram getScheduleLateness() {
+        return scheduleLateness;
+    }
+
+    /**
+     * 包括手势本身的持续时间，例如点击的100毫秒
+     */
+    public LatencyHistogram getGestureLatency() {
+        return gestureLatency;
+    }
+
+    public LatencyHistogram getFinderLatency() {
+        return finderLatency;
+    }
+
+    /**
+     * 状态机模式下取界面指纹并查表的耗时
+     */
+    public LatencyHistogram getScreenIdentify() {
+        return screenIdentify;
+    }
+
+    public void reset() {
+        scheduleLateness.reset();
+        gestureLatency.reset();
+        finderLatency.reset();
+        screenIdentify.reset();
+        ElementLocationCache cache = locationCache;
+        if (cache != null) {
+            cache.resetStats();
+        }
+    }
+
+    /**
+     * 当前统计的简要文本，用于悬浮窗实时显示
+     */
+    public String getSummary() {
+        ElementLocationCache cache = locationCache;
+        return dispatcher.getSummary() + "\n"
+            + eventFilter.getSummary() + "\n"
+            + scheduleLateness + "\n"
+            + gestureLatency + "\n"
+            + finderLatency + "\n"
+            + screenIdentify
+            + (cache != null ? "\n" + cache.getSummary() : "");
+    }
+
+    /**
+     * 把统计和直方图明细导出到目录下的文本文件
+     *
+     * @return 导出的文件，失败时返回null
+     */
+    public File export(File directory) {
+        return export(directory, null);
+    }
+
+    /**
+     * @param snapshot 附加的诊断快照，例如看门狗最近一次记录的停滞，可以为null
+     */
+    public File export(File directory, String snapshot) {
+        String time = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
+        File file = new File(directory, "telemetry_" + time + ".txt");
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            writer.write(getSummary());
+            writer.write("\n");
+            writeBuckets(writer, scheduleLateness);
+            writeBuckets(writer, gestureLatency);
+            writeBuckets(writer, finderLatency);
+            writeBuckets(writer, screenIdentify);
+            if (snapshot != null) {
+                writer.write("\n[最近一次停滞]\n");
+                writer.write(snapshot);
+            }
+            Log.d(TAG, "统计已导出: " + file.getAbsolutePath());
+            return file;
+        } catch (IOException e) {
+            Log.e(TAG, "导出统计失败", e);
+            return null;
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "关闭文件失败", e);
+                }
+            }
+        }
+    }
+
+    private static void writeBuckets(Writer writer, LatencyHistogram histogram) throws IOException {
+        writer.write("\n[" + histogram.getName() + "]\n");
+        writer.write(histogram.dumpBuckets());
+    }
+}
@@ -0,0 +1,279 @@
+package com.example.autoclicker.service;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 执行看门狗
+ *
+ * 在独立的低优先级线程上定期检查：每个运行是否在预计的时间内有进展（执行指令或收到手势回调），
+ * 在途手势是否超时没有回调，调度线程和主线程是否还在处理消息。发现停滞时生成诊断快照，
+ * 并按策略重启或停止运行。调度线程阻塞时所有运行都停滞，对所有运行应用策略；
+ * 主线程阻塞不影响调度和手势分发，只报告。没有运行时不做任何检查。
+ */
+public class ExecutionWatchdog {
+    private static final String TAG = "ExecutionWatchdog";
+
+    private static final long CHECK_INTERVAL_MS = 1000;
+
+    /**
+     * 运行超过预计时间这么久仍没有进展才认为停滞
+     */
+    private static final long STALL_GRACE_MS = 3000;
+
+    /**
+     * 投递到线程的探测消息超过这么久没有执行，认为线程被阻塞
+     */
+    private static final long LOOPER_BLOCK_MS = 2000;
+
+    public enum Policy {
+        /**
+         * 只记录诊断快照
+         */
+        REPORT_ONLY,
+        /**
+         * 从停滞的位置重启运行，超过最大重启次数后停止
+         */
+        RESTART,
+        /**
+         * 停止停滞的运行
+         */
+        STOP
+    }
+
+    public interface Listener {
+        /**
+         * 发现停滞时回调，在看门狗线程上执行
+         */
+        void onStall(String snapshot);
+    }
+
+    private final ScriptExecutor executor;
+    private final ExecutionTelemetry telemetry;
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final LooperProbe schedulerProbe;
+    private final LooperProbe mainProbe;
+    private volatile Policy policy = Policy.RESTART;
+    private volatile int maxRestarts = 3;
+    private volatile Listener listener;
+    private volatile String lastSnapshot;
+    private volatile long stallCount = 0;
+    private boolean running = false;
+
+    /**
+     * 已经处理过的停滞：运行id到停滞时的进展时间，运行有新进展之前不重复处理
+     */
+    private final Map<Integer, Long> handledStalls = new HashMap<>();
+
+    private final Runnable checkTask = new Runnable() {
+        @Override
+        public void run() {
+            check();
+            handler.postDelayed(this, CHECK_INTERVAL_MS);
+        }
+    };
+
+    public ExecutionWatchdog(ScriptExecutor executor, ClickScheduler scheduler, ExecutionTelemetry telemetry) {
+        this.executor = executor;
+        this.telemetry = telemetry;
+        this.thread = new HandlerThread("AutoClickWatchdog", Process.THREAD_PRIORITY_BACKGROUND);
+        this.thread.start();
+        this.handler = new Handler(thread.getLooper());
+        this.schedulerProbe = new LooperProbe("调度线程", scheduler.getHandler(), true);
+        this.mainProbe = new LooperProbe("主线程", new Handler(Looper.getMainLooper()), false);
+    }
+
+    public void start() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!running) {
+                    running = true;
+                    handler.postDelayed(checkTask, CHECK_INTERVAL_MS);
+                }
+            }
+        });
+    }
+
+    public void shutdown() {
+        handler.removeCallbacksAndMessages(null);
+        thread.quitSafely();
+    }
+
+    public void setPolicy(Policy policy) {
+        this.policy = policy;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public void setMaxRestarts(int maxRestarts) {
+        this.maxRestarts = Math.max(0, maxRestarts);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 最近一次停滞时的诊断快照，没有发生过停滞时返回null
+     */
+    public String getLastSnapshot() {
+        return lastSnapshot;
+    }
+
+    public long getStallCount() {
+        return stallCount;
+    }
+
+    private void check() {
+        if (!executor.hasActiveRuns()) {
+            handledStalls.clear();
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        schedulerProbe.check(now);
+        mainProbe.check(now);
+
+        for (ScriptExecutor.ScriptRun run : executor.getRuns()) {
+            if (run.getState() != ScriptExecutor.State.RUNNING) {
+                continue;
+            }
+            String reason = null;
+            if (run.isGestureOverdue(now)) {
+                reason = "手势超时没有回调";
+            } else {
+                long expectedBy = run.getExpectedBy();
+                if (expectedBy != ScriptExecutor.NO_DEADLINE && now - expectedBy > STALL_GRACE_MS) {
+                    reason = "超过预计时间 " + (now - expectedBy) + "ms 没有进展";
+                }
+            }
+            if (reason != null) {
+                Long handled = handledStalls.get(run.getId());
+                if (handled == null || handled != run.getLastProgress()) {
+                    handledStalls.put(run.getId(), run.getLastProgress());
+                    onRunStalled(run, reason);
+                }
+            }
+        }
+    }
+
+    private void onRunStalled(ScriptExecutor.ScriptRun run, String reason) {
+        String snapshot = buildSnapshot("运行停滞: " + reason, run, null);
+        report(snapshot);
+        applyPolicy(run);
+    }
+
+    /**
+     * 调度线程阻塞：重启和停止都投递到调度线程，在线程恢复后的第一时间生效，
+     * 避免固定频率的运行在恢复后连续补发积压的手势
+     */
+    private void onSchedulerBlocked() {
+        for (ScriptExecutor.ScriptRun run : executor.getRuns()) {
+            if (run.getState() != ScriptExecutor.State.RUNNING) {
+                continue;
+            }
+            // 同一次停滞不再由逐个运行的检查重复处理
+            handledStalls.put(run.getId(), run.getLastProgress());
+            applyPolicy(run);
+        }
+    }
+
+    private void applyPolicy(ScriptExecutor.ScriptRun run) {
+        Policy current = policy;
+        if (current == Policy.RESTART && run.getRestartCount() < maxRestarts) {
+            executor.restart(run);
+        } else if (current != Policy.REPORT_ONLY) {
+            Log.w(TAG, "停止停滞的运行 #" + run.getId());
+            run.stop();
+        }
+    }
+
+    private void report(String snapshot) {
+        stallCount++;
+        lastSnapshot = snapshot;
+        Log.w(TAG, snapshot);
+        Listener current = listener;
+        if (current != null) {
+            current.onStall(snapshot);
+        }
+    }
+
+    private String buildSnapshot(String title, ScriptExecutor.ScriptRun stalled, Thread blockedThread) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(title).append('\n');
+        if (stalled != null) {
+            builder.append("停滞运行: ").append(stalled.getDiagnostics()).append('\n');
+        }
+        ScriptExecutor.ScriptRun owner = executor.getChannelOwner();
+        builder.append("通道持有: ").append(owner == null ? "无" : "#" + owner.getId())
+            .append(", 等待通道: ").append(executor.getWaitingCount()).append('\n');
+        for (ScriptExecutor.ScriptRun run : executor.getRuns()) {
+            if (run != stalled) {
+                builder.append("运行: ").append(run.getDiagnostics()).append('\n');
+            }
+        }
+        builder.append(telemetry.getSummary()).append('\n');
+        if (blockedThread != null) {
+            builder.append(blockedThread.getName()).append(" 调用栈:\n");
+            for (StackTraceElement element : blockedThread.getStackTrace()) {
+                builder.append("    at ").append(element).append('\n');
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 向线程投递探测消息，消息长时间没有执行说明线程被阻塞
+     */
+    private final class LooperProbe implements Runnable {
+        private final String name;
+        private final Handler target;
+        private final boolean appliesPolicy;
+        private volatile boolean pending = false;
+        private long postedAt = 0;
+        private boolean reported = false;
+
+        /**
+         * @param appliesPolicy 线程阻塞时是否对所有运行应用停滞策略
+         */
+        LooperProbe(String name, Handler target, boolean appliesPolicy) {
+            this.name = name;
+            this.target = target;
+            this.appliesPolicy = appliesPolicy;
+        }
+
+        void check(long now) {
+            if (!pending) {
+                pending = true;
+                postedAt = now;
+                reported = false;
+                target.post(this);
+                return;
+            }
+            long blocked = now - postedAt;
+            if (blocked > LOOPER_BLOCK_MS && !reported) {
+                // 每次阻塞只报告一次，线程恢复后重新开始探测
+                reported = true;
+                report(buildSnapshot(name + "阻塞 " + blocked + "ms", null, target.getLooper().getThread()));
+                if (appliesPolicy) {
+                    onSchedulerBlocked();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            pending = false;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.autoclicker.service;
+
+import android.accessibilityservice.GestureDescription;
+import android.graphics.Path;
+import android.os.Build;
+
+import java.util.List;
+
+/**
+ * 预编译手势缓存
+ *
+ * 开始执行前把手势一次性编译成不可变的GestureDescription，按下标取用。
+ * GestureDescription可以重复分发，循环过程中不再创建Path、Builder和StrokeDescription。
+ * 脚本和点击点的手势由 {@link ScriptCompiler} 编译进 {@link ScriptProgram}。
+ */
+public final class GestureCache {
+    public static final long TAP_DURATION = 100;
+    public static final long SWIPE_DISTANCE = 500;
+    public static final long SWIPE_DURATION = 500;
+
+    private final GestureDescription[] gestures;
+
+    private GestureCache(GestureDescription[] gestures) {
+        this.gestures = gestures;
+    }
+
+    /**
+     * 编译连发手势：下标为起始点击点，每个手势从该点开始依次包含batchSize次点击
+     */
+    public static GestureCache forBurst(List<AutoClickService.ClickPoint> points, int batchSize,
+            long tapSpacing, long tapDuration) {
+        GestureDescription[] gestures = new GestureDescription[points.size()];
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            for (int i = 0; i < gestures.length; i++) {
+                gestures[i] = burst(points, i, batchSize, tapSpacing, tapDuration);
+            }
+        }
+        return new GestureCache(gestures);
+    }
+
+    public GestureDescription get(int index) {
+        if (index < 0 || index >= gestures.length) {
+            return null;
+        }
+        return gestures[index];
+    }
+
+    public int size() {
+        return gestures.length;
+    }
+
+    public static GestureDescription tap(float x, float y, long duration) {
+        Path path = new Path();
+        path.moveTo(x, y);
+
+        GestureDescription.Builder builder = new GestureDescription.Builder();
+        builder.addStroke(new GestureDescription.StrokeDescription(path, 0, duration));
+        return builder.build();
+    }
+
+    public static GestureDescription swipe(float startX, float startY, float endX, float endY,
+            long duration) {
+        Path path = new Path();
+        path.moveTo(startX, startY);
+        path.lineTo(endX, endY);
+
+        GestureDescription.Builder builder = new GestureDescription.Builder();
+        builder.addStroke(new GestureDescription.StrokeDescription(path, 0, duration));
+        return builder.build();
+    }
+
+    /**
+     * 以(controlX, controlY)为控制点的二次曲线滑动
+     */
+    public static GestureDescription curvedSwipe(float startX, float startY, float endX, float endY,
+            float controlX, float controlY, long duration) {
+        Path path = new Path();
+        path.moveTo(startX, startY);
+        path.quadTo(controlX, controlY, endX, endY);
+
+        GestureDescription.Builder builder = new GestureDescription.Builder();
+        builder.addStroke(new GestureDescription.StrokeDescription(path, 0, duration));
+        return builder.build();
+    }
+
+    /**
+     * 从start开始循环取count个点击点，打包成一个多笔画手势
+     */
+    public static GestureDescription burst(List<AutoClickService.ClickPoint> points, int start,
+            int count, long tapSpacing, long tapDuration) {
+        GestureDescription.Builder builder = new GestureDescription.Builder();
+        int index = start;
+        for (int i = 0; i < count; i++) {
+            AutoClickService.ClickPoint point = points.get(index);
+            Path path = new Path();
+            path.moveTo(point.x, point.y);
+            builder.addStroke(new GestureDescription.StrokeDescription(path, i * tapSpacing, tapDuration));
+            index = (index + 1) % points.size();
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.autoclicker.service;
+
+import android.accessibilityservice.AccessibilityService;
+import android.accessibilityservice.GestureDescription;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.autoclicker.utils.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 手势分发器
+ *
+ * 所有手势都带结果回调分发，统计在途、完成、取消和分发失败的手势数量。
+ * 回调对象（Tracker）按调用方创建一次后重复使用，分发本身不产生额外分配。
+ * 注意服务同一时间只执行一个手势，新分发会取消其他调用方正在执行的手势，调用方之间需要自行仲裁。
+ */
+public class GestureDispatcher {
+    private static final String TAG = "GestureDispatcher";
+
+    public interface Listener {
+        /**
+         * 手势结束时回调，在分发器的Handler线程上执行
+         *
+         * @param completed true表示完成，false表示被取消
+         */
+        void onGestureFinished(boolean completed);
+    }
+
+    private final AccessibilityService service;
+    private final Handler handler;
+    private final Tracker defaultTracker;
+    private volatile LatencyHistogram latencyHistogram;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong dispatchedCount = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong cancelledCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /**
+     * @param handler 手势回调执行的线程，为null时在主线程回调
+     */
+    public GestureDispatcher(AccessibilityService service, Handler handler) {
+        this.service = service;
+        this.handler = handler;
+        this.defaultTracker = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ? new Tracker(null) : null;
+    }
+
+    /**
+     * 设置后记录每个完成手势从分发到完成回调的耗时（微秒）
+     */
+    public void setLatencyHistogram(LatencyHistogram histogram) {
+        this.latencyHistogram = histogram;
+    }
+
+    /**
+     * 为调用方创建可重复使用的回调对象
+     */
+    public Tracker createTracker(Listener listener) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return null;
+        }
+        return new Tracker(listener);
+    }
+
+    /**
+     * 分发手势，只统计结果不通知调用方
+     */
+    public boolean dispatch(GestureDescription gesture) {
+        return dispatch(gesture, defaultTracker);
+    }
+
+    /**
+     * 分发手势，结束时通过tracker通知调用方
+     */
+    public boolean dispatch(GestureDescription gesture, Tracker tracker) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N || tracker == null) {
+            return false;
+        }
+
+        inFlight.incrementAndGet();
+        tracker.dispatchTime = SystemClock.elapsedRealtimeNanos();
+        boolean result = service.dispatchGesture(gesture, tracker, handler);
+        if (result) {
+            dispatchedCount.incrementAndGet();
+        } else {
+            inFlight.decrementAndGet();
+            failedCount.incrementAndGet();
+        }
+        return result;
+    }
+
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    public long getDispatchedCount() {
+        return dispatchedCount.get();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    public long getCancelledCount() {
+        return cancelledCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public String getSummary() {
+        return String.format("已分发: %d, 完成: %d, 取消: %d, 失败: %d, 在途: %d",
+            getDispatchedCount(), getCompletedCount(), getCancelledCount(),
+            getFailedCount(), getInFlightCount());
+    }
+
+    /**
+     * 手势结果回调，统计后转发给调用方的Listener
+     */
+    public final class Tracker extends AccessibilityService.GestureResultCallback {
+        private final Listener listener;
+        /**
+         * 最近一次分发的时间。服务同一时间只执行一个手势，任何一次新分发（不论使用哪个Tracker）
+         * 都会取消正在执行的手势，所以完成回调总是对应这个Tracker最近一次分发；取消回调可能属于更早的分发。
+         * 运行之间的手势通道仲裁依赖这一点
+         */
+        private volatile long dispatchTime;
+
+        private Tracker(Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void onCompleted(GestureDescription gestureDescription) {
+            inFlight.decrementAndGet();
+            completedCount.incrementAndGet();
+            LatencyHistogram histogram = latencyHistogram;
+            if (histogram != null) {
+                histogram.record((SystemClock.elapsedRealtimeNanos() - dispatchTime) / 1000);
+            }
+            if (listener != null) {
+                listener.onGestureFinished(true);
+            }
+        }
+
+        @Override
+        public void onCancelled(GestureDescription gestureDescription) {
+            inFlight.decrementAndGet();
+            cancelledCount.incrementAndGet();
+            Log.w(TAG, "手势被取消");
+            if (listener != null) {
+                listener.onGestureFinished(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.autoclicker.service;
+
+import java.util.Random;
+
+/**
+ * 拟人化随机源
+ *
+ * 创建时用种子把随机数预先生成到固定大小的表中，运行时只移动游标查表，
+ * 不创建对象也不加锁。每个运行持有自己的实例，只在调度线程上使用。
+ * 相同的种子产生相同的序列，调用 {@link #reset} 后可以确定性地重放一次运行。
+ */
+public final class Humanizer {
+    private static final int TABLE_SIZE = 4096;
+    private static final int TABLE_MASK = TABLE_SIZE - 1;
+
+    /**
+     * 正态分布截断在3个标准差，归一化到[-1, 1]
+     */
+    private static final double NORMAL_CLAMP = 3.0;
+
+    private final long seed;
+    private final float[] uniform = new float[TABLE_SIZE];
+    private final float[] normal = new float[TABLE_SIZE];
+    private final int stride;
+    private int uniformCursor = 0;
+    private int normalCursor = 0;
+
+    public Humanizer(long seed) {
+        this.seed = seed;
+        Random random = new Random(seed);
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            uniform[i] = random.nextFloat();
+            double value = random.nextGaussian() / NORMAL_CLAMP;
+            normal[i] = (float) Math.max(-1.0, Math.min(1.0, value));
+        }
+        // 奇数步长与2的幂表长互质，游标走完整张表才会重复
+        this.stride = (random.nextInt(TABLE_SIZE / 2) << 1) | 1;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * [0, 1)均匀分布
+     */
+    public float nextUniform() {
+        float value = uniform[uniformCursor];
+        uniformCursor = (uniformCursor + stride) & TABLE_MASK;
+        return value;
+    }
+
+    /**
+     * 截断正态分布，范围[-1, 1]，集中在0附近
+     */
+    public float nextNormal() {
+        float value = normal[normalCursor];
+        normalCursor = (normalCursor + stride) & TABLE_MASK;
+        return value;
+    }
+
+    /**
+     * 在延迟上叠加[0, maxJitter)的随机延迟
+     */
+    public long jitterDelay(long delay, long maxJitter) {
+        if (maxJitter <= 0) {
+            return delay;
+        }
+        return delay + (long) (nextUniform() * maxJitter);
+    }
+
+    /**
+     * 从count个预编译手势变体中随机选一个
+     */
+    public int nextVariant(int count) {
+        if (count <= 1) {
+            return 0;
+        }
+        return Math.min(count - 1, (int) (nextUniform() * count));
+    }
+
+    /**
+     * 回到序列开头，重放时与上一次运行得到相同的随机序列
+     */
+    public void reset() {
+        uniformCursor = 0;
+        normalCursor = 0;
+    }
+
+    /**
+     * 生成新的随机种子，用于脚本没有指定种子的情况
+     */
+    public static long newSeed() {
+        return System.nanoTime() ^ Double.doubleToLongBits(Math.random());
+    }
+}
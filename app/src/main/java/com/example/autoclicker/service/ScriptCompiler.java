@@ -0,0 +1,359 @@
+package com.example.autoclicker.service;
+
+import android.accessibilityservice.GestureDescription;
+import android.os.Build;
+import android.util.Log;
+
+import com.example.autoclicker.model.ClickScript;
+import com.example.autoclicker.model.ScreenState;
+import com.example.autoclicker.utils.ElementSelector;
+
+import java.util.List;
+
+/**
+ * 脚本编译器
+ *
+ * 把ClickScript或点击点列表降级为 {@link ScriptProgram}。编译分三步：
+ * 把步骤翻译成指令、执行优化遍、生成预编译手势。新增步骤类型只需要在
+ * {@link #lower} 中翻译成指令，新增优化在 {@link #optimize} 中添加。
+ *
+ * 脚本开启位置偏移或曲线滑动时，每个手势指令生成 {@link #HUMANIZED_VARIANTS} 个变体，
+ * 偏移量取自以脚本种子初始化的 {@link Humanizer}，同一种子编译出相同的变体。
+ */
+public final class ScriptCompiler {
+    private static final String TAG = "ScriptCompiler";
+    private static final int HUMANIZED_VARIANTS = 8;
+
+    /**
+     * 曲线滑动控制点偏离直线的最大距离，占滑动长度的比例
+     */
+    private static final float CURVE_RATIO = 0.2f;
+
+    /**
+     * 等待界面稳定步骤的默认静默时长和最长等待时间
+     */
+    private static final long DEFAULT_QUIET_PERIOD_MS = 500;
+    private static final long DEFAULT_STABLE_TIMEOUT_MS = 10000;
+
+    /**
+     * 生成预编译手势。系统实现经过 {@link GestureCache}，单元测试中替换成不依赖系统的实现
+     */
+    interface GestureFactory {
+        GestureDescription tap(float x, float y, long duration);
+
+        GestureDescription swipe(float startX, float startY, float endX, float endY, long duration);
+
+        GestureDescription curvedSwipe(float startX, float startY, float endX, float endY,
+            float controlX, float controlY, long duration);
+    }
+
+    private static final GestureFactory PLATFORM_GESTURES = new GestureFactory() {
+        @Override
+        public GestureDescription tap(float x, float y, long duration) {
+            return GestureCache.tap(x, y, duration);
+        }
+
+        @Override
+        public GestureDescription swipe(float startX, float startY, float endX, float endY, long duration) {
+            return GestureCache.swipe(startX, startY, endX, endY, duration);
+        }
+
+        @Override
+        public GestureDescription curvedSwipe(float startX, float startY, float endX, float endY,
+                float controlX, float controlY, long duration) {
+            return GestureCache.curvedSwipe(startX, startY, endX, endY, controlX, controlY, duration);
+        }
+    };
+
+    private static volatile GestureFactory gestureFactory = PLATFORM_GESTURES;
+
+    private ScriptCompiler() {
+    }
+
+    /**
+     * 替换生成手势的实现，只用于测试，传入null恢复系统实现
+     */
+    static void setGestureFactory(GestureFactory factory) {
+        gestureFactory = factory != null ? factory : PLATFORM_GESTURES;
+    }
+
+    /**
+     * 当前生成手势的实现，系统不支持手势时返回null，手势指令按未分发处理
+     */
+    static GestureFactory gestures() {
+        GestureFactory factory = gestureFactory;
+        if (factory == PLATFORM_GESTURES && Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return null;
+        }
+        return factory;
+    }
+
+    public static ScriptProgram compile(ClickScript script) {
+        return compile(script, script.getRandomSeed() != 0 ? script.getRandomSeed() : Humanizer.newSeed());
+    }
+
+    /**
+     * 使用指定的随机种子编译，从检查点恢复时使用原来的种子
+     */
+    public static ScriptProgram compile(ClickScript script, long seed) {
+        // 只有勾选循环时无限循环；重复次数为0（旧脚本和录制生成的脚本的默认值）时与以前一样执行一遍
+        long repeatCount = script.isLoop() ? ScriptProgram.REPEAT_FOREVER : Math.max(1, script.getRepeatCount());
+        return compile(script, script.getSteps(), script.getName(), repeatCount, seed);
+    }
+
+    /**
+     * 编译状态机脚本中一个界面状态的步骤，使用脚本的点击设置，只执行一遍
+     */
+    public static ScriptProgram compileState(ClickScript script, ScreenState state, long seed) {
+        return compile(script, state.getSteps(), script.getName() + "/" + state.getName(), 1, seed);
+    }
+
+    private static ScriptProgram compile(ClickScript script, List<ClickScript.ClickStep> steps, String name,
+            long repeatCount, long seed) {
+        Buffer buffer = lower(script, steps);
+        buffer = optimize(buffer);
+
+        float positionJitter = Math.max(0, script.getPositionJitter());
+        boolean curvedSwipe = script.isCurvedSwipe();
+        int variants = positionJitter > 0 || curvedSwipe ? HUMANIZED_VARIANTS : 1;
+        ScriptProgram program = new ScriptProgram(name, buffer.count, repeatCount,
+            variants, script.getRandomDelay(), seed);
+        fill(program, buffer);
+        if (variants == 1) {
+            emitGestures(program);
+        } else {
+            emitHumanizedGestures(program, new Humanizer(seed), positionJitter, curvedSwipe);
+        }
+        return program;
+    }
+
+    /**
+     * 把点击点列表编译成程序，每个点一条点击指令，整体重复repeatCount遍，0表示无限循环
+     */
+    public static ScriptProgram compileClickPoints(List<AutoClickService.ClickPoint> points,
+            long interval, int repeatCount) {
+        Buffer buffer = new Buffer(points.size());
+        for (int i = 0; i < points.size(); i++) {
+            AutoClickService.ClickPoint point = points.get(i);
+            buffer.append(ScriptProgram.OP_TAP, 0, point.x, point.y, point.x, point.y,
+                GestureCache.TAP_DURATION, interval, i);
+        }
+        return emit(buffer, "点击点", repeatCount);
+    }
+
+    private static Buffer lower(ClickScript script, List<ClickScript.ClickStep> steps) {
+        Buffer buffer = new Buffer(steps.size());
+        for (int i = 0; i < steps.size(); i++) {
+            ClickScript.ClickStep step = steps.get(i);
+            int flags = step.getDelay() > 0 ? ScriptProgram.FLAG_EXPLICIT_DELAY : 0;
+            long delay = step.getDelay() > 0 ? step.getDelay() : script.getClickInterval();
+            float x = step.getX();
+            float y = step.getY();
+
+            switch (step.getType()) {
+                case CLICK:
+                    buffer.append(ScriptProgram.OP_TAP, flags, x, y, x, y,
+                        GestureCache.TAP_DURATION, delay, i);
+                    break;
+                case LONG_CLICK:
+                    buffer.append(ScriptProgram.OP_LONG_PRESS, flags, x, y, x, y,
+                        script.getClickDuration(), delay, i);
+                    break;
+                case SWIPE:
+                case SCROLL:
+                    buffer.append(ScriptProgram.OP_SWIPE, flags, x, y, x, y - GestureCache.SWIPE_DISTANCE,
+                        GestureCache.SWIPE_DURATION, delay, i);
+                    break;
+                case WAIT:
+                    buffer.append(ScriptProgram.OP_WAIT, flags, x, y, x, y, 0, delay, i);
+                    break;
+                case WAIT_STABLE:
+                    // 步骤的延迟作为最长等待时间，不使用脚本的点击间隔
+                    buffer.append(ScriptProgram.OP_WAIT_STABLE, flags, x, y, x, y,
+                        step.getQuietPeriod() > 0 ? step.getQuietPeriod() : DEFAULT_QUIET_PERIOD_MS,
+                        step.getDelay() > 0 ? step.getDelay() : DEFAULT_STABLE_TIMEOUT_MS, i);
+                    break;
+            }
+
+            boolean isWait = step.getType() == ClickScript.StepType.WAIT
+                || step.getType() == ClickScript.StepType.WAIT_STABLE;
+            if (step.getSelector() != null && !step.getSelector().isEmpty() && !isWait) {
+                try {
+                    buffer.selectors[buffer.count - 1] = ElementSelector.parse(step.getSelector());
+                } catch (IllegalArgumentException e) {
+                    // 选择器无效时退回到录制的坐标
+                    Log.w(TAG, "步骤 " + i + " 的选择器无效: " + e.getMessage());
+                }
+            }
+
+            // 步骤单独设置的事件优先，脚本的设置只用于手势步骤，等待步骤保持固定时长
+            if (step.getWaitEventTypes() != 0) {
+                buffer.setWait(buffer.count - 1, step.getWaitEventTypes(), step.getWaitPackage());
+            } else if (!isWait) {
+                buffer.setWait(buffer.count - 1, script.getWaitEventTypes(), script.getWaitPackage());
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * 优化遍：合并连续的等待指令，等待事件的指令不参与合并
+     */
+    private static Buffer optimize(Buffer in) {
+        Buffer out = new Buffer(in.count);
+        for (int i = 0; i < in.count; i++) {
+            int last = out.count - 1;
+            if (in.ops[i] == ScriptProgram.OP_WAIT && in.waitEvents[i] == 0
+                    && last >= 0 && out.ops[last] == ScriptProgram.OP_WAIT && out.waitEvents[last] == 0) {
+                out.delays[last] += in.delays[i];
+                out.flags[last] |= in.flags[i];
+                continue;
+            }
+            out.copyFrom(in, i);
+        }
+        return out;
+    }
+
+    private static ScriptProgram emit(Buffer buffer, String name, long repeatCount) {
+        ScriptProgram program = new ScriptProgram(name, buffer.count, repeatCount);
+        fill(program, buffer);
+        emitGestures(program);
+        return program;
+    }
+
+    private static void fill(ScriptProgram program, Buffer buffer) {
+        System.arraycopy(buffer.ops, 0, program.ops, 0, buffer.count);
+        System.arraycopy(buffer.flags, 0, program.flags, 0, buffer.count);
+        System.arraycopy(buffer.x, 0, program.x, 0, buffer.count);
+        System.arraycopy(buffer.y, 0, program.y, 0, buffer.count);
+        System.arraycopy(buffer.endX, 0, program.endX, 0, buffer.count);
+        System.arraycopy(buffer.endY, 0, program.endY, 0, buffer.count);
+        System.arraycopy(buffer.durations, 0, program.durations, 0, buffer.count);
+        System.arraycopy(buffer.delays, 0, program.delays, 0, buffer.count);
+        System.arraycopy(buffer.sourceSteps, 0, program.sourceSteps, 0, buffer.count);
+        System.arraycopy(buffer.waitEvents, 0, program.waitEvents, 0, buffer.count);
+        System.arraycopy(buffer.waitPackages, 0, program.waitPackages, 0, buffer.count);
+        System.arraycopy(buffer.selectors, 0, program.selectors, 0, buffer.count);
+    }
+
+    private static void emitGestures(ScriptProgram program) {
+        GestureFactory factory = gestures();
+        if (factory == null) {
+            return;
+        }
+        for (int i = 0; i < program.ops.length; i++) {
+            switch (program.ops[i]) {
+                case ScriptProgram.OP_TAP:
+                case ScriptProgram.OP_LONG_PRESS:
+                    program.gestures[i] = factory.tap(program.x[i], program.y[i], program.durations[i]);
+                    break;
+                case ScriptProgram.OP_SWIPE:
+                    program.gestures[i] = factory.swipe(program.x[i], program.y[i],
+                        program.endX[i], program.endY[i], program.durations[i]);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static void emitHumanizedGestures(ScriptProgram program, Humanizer humanizer,
+            float positionJitter, boolean curvedSwipe) {
+        GestureFactory factory = gestures();
+        if (factory == null) {
+            return;
+        }
+        int variants = program.variantCount;
+        for (int i = 0; i < program.ops.length; i++) {
+            int op = program.ops[i];
+            if (op != ScriptProgram.OP_TAP && op != ScriptProgram.OP_LONG_PRESS && op != ScriptProgram.OP_SWIPE) {
+                continue;
+            }
+            for (int v = 0; v < variants; v++) {
+                // 起点和终点各自偏移，手势坐标不能为负
+                float startX = Math.max(0, program.x[i] + humanizer.nextNormal() * positionJitter);
+                float startY = Math.max(0, program.y[i] + humanizer.nextNormal() * positionJitter);
+                GestureDescription gesture;
+                if (op == ScriptProgram.OP_SWIPE) {
+                    float endX = Math.max(0, program.endX[i] + humanizer.nextNormal() * positionJitter);
+                    float endY = Math.max(0, program.endY[i] + humanizer.nextNormal() * positionJitter);
+                    if (curvedSwipe) {
+                        // 控制点沿滑动方向的法线偏离中点
+                        float dx = endX - startX;
+                        float dy = endY - startY;
+                        float bend = humanizer.nextNormal() * CURVE_RATIO;
+                        float controlX = Math.max(0, (startX + endX) / 2 - dy * bend);
+                        float controlY = Math.max(0, (startY + endY) / 2 + dx * bend);
+                        gesture = factory.curvedSwipe(startX, startY, endX, endY,
+                            controlX, controlY, program.durations[i]);
+                    } else {
+                        gesture = factory.swipe(startX, startY, endX, endY, program.durations[i]);
+                    }
+                } else {
+                    gesture = factory.tap(startX, startY, program.durations[i]);
+                }
+                program.gestures[i * variants + v] = gesture;
+            }
+        }
+    }
+
+    /**
+     * 编译过程中的指令缓冲区
+     */
+    private static final class Buffer {
+        int count = 0;
+        final int[] ops;
+        final int[] flags;
+        final float[] x;
+        final float[] y;
+        final float[] endX;
+        final float[] endY;
+        final long[] durations;
+        final long[] delays;
+        final int[] sourceSteps;
+        final int[] waitEvents;
+        final String[] waitPackages;
+        final ElementSelector[] selectors;
+
+        Buffer(int capacity) {
+            ops = new int[capacity];
+            flags = new int[capacity];
+            x = new float[capacity];
+            y = new float[capacity];
+            endX = new float[capacity];
+            endY = new float[capacity];
+            durations = new long[capacity];
+            delays = new long[capacity];
+            sourceSteps = new int[capacity];
+            waitEvents = new int[capacity];
+            waitPackages = new String[capacity];
+            selectors = new ElementSelector[capacity];
+        }
+
+        void append(int op, int flag, float startX, float startY, float toX, float toY,
+                long duration, long delay, int sourceStep) {
+            ops[count] = op;
+            flags[count] = flag;
+            x[count] = startX;
+            y[count] = startY;
+            endX[count] = toX;
+            endY[count] = toY;
+            durations[count] = duration;
+            delays[count] = delay;
+            sourceSteps[count] = sourceStep;
+            count++;
+        }
+
+        void setWait(int i, int events, String packageName) {
+            waitEvents[i] = events;
+            waitPackages[i] = packageName == null || packageName.isEmpty() ? null : packageName;
+        }
+
+        void copyFrom(Buffer other, int i) {
+            append(other.ops[i], other.flags[i], other.x[i], other.y[i], other.endX[i], other.endY[i],
+                other.durations[i], other.delays[i], other.sourceSteps[i]);
+            setWait(count - 1, other.waitEvents[i], other.waitPackages[i]);
+            selectors[count - 1] = other.selectors[i];
+        }
+    }
+}
@@ -0,0 +1,976 @@
+package com.example.autoclicker.service;
+
+import android.accessibilityservice.GestureDescription;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.autoclicker.utils.ElementSelector;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多脚本执行器
+ *
+ * 同时运行多个脚本和点击循环，每个运行有自己的优先级和速率份额。
+ * 系统只有一个手势通道，新分发的手势会取消在途手势，因此执行器按运行仲裁通道：
+ * 同一时刻只有一个手势在途，其余要分发手势的运行排队等待；通道空闲时先选优先级最高的，
+ * 同优先级按步幅调度（stride scheduling）根据份额分配通道。
+ * 手动点击、智能点击、回放等一次性手势也经过执行器分发，通道被占用时排队，通道释放时先于排队的运行分发。
+ *
+ * 运行状态只在调度线程上修改，对外的句柄方法都会转发到调度线程执行。
+ *
+ * 指令设置了等待事件时，执行后运行进入等待：收到匹配的辅助功能事件立即执行下一步，
+ * 没有收到则按指令的延迟执行，延迟相当于超时。
+ */
+public class ScriptExecutor {
+    private static final String TAG = "ScriptExecutor";
+    private static final long STRIDE_BASE = 1L << 20;
+
+    /**
+     * 手势超过自身时长这么久仍没有回调，认为回调丢失
+     */
+    private static final long GESTURE_TIMEOUT_SLACK_MS = 3000;
+
+    /**
+     * 运行在等待其他运行释放通道，没有自己的截止时间
+     */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    /**
+     * 等待界面稳定时的采样间隔范围，取静默时长的四分之一
+     */
+    private static final long MIN_STABLE_POLL_MS = 20;
+    private static final long MAX_STABLE_POLL_MS = 200;
+
+    public enum State {
+        PENDING,
+        RUNNING,
+        PAUSED,
+        STOPPED,
+        FINISHED
+    }
+
+    public interface RunListener {
+        /**
+         * 运行结束（正常完成或被停止），在调度线程上回调
+         */
+        void onRunEnded(ScriptRun run);
+    }
+
+    public interface OneShotListener {
+        /**
+         * 一次性手势结束时在调度线程上回调
+         *
+         * @param dispatched 是否分发成功
+         * @param completed  是否执行完成，分发失败、被取消或超时没有回调时为false
+         */
+        void onOneShotFinished(boolean dispatched, boolean completed);
+    }
+
+    public interface StabilityProbe {
+        /**
+         * 当前界面的签名，界面不变时签名不变。在 {@link ScriptExecutor#setStabilityProbe} 指定的采样线程上调用
+         */
+        long currentSignature();
+    }
+
+    private final ClickScheduler scheduler;
+    private final GestureDispatcher dispatcher;
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final List<ScriptRun> runs = new CopyOnWriteArrayList<>();
+    private final List<ScriptRun> waiting = new ArrayList<>();
+    private final Handler eventHandler;
+    private ScriptRun channelOwner;
+    private RunListener runListener;
+    private volatile ScriptInterpreter.ElementLocator elementLocator;
+    private volatile Handler locatorHandler;
+    private volatile StabilityProbe stabilityProbe;
+    private volatile Handler probeHandler;
+
+    /**
+     * 排队和在途的一次性手势，只在调度线程上访问
+     */
+    private final ArrayDeque<OneShot> oneShots = new ArrayDeque<>();
+    private OneShot oneShotInFlight;
+    private GestureDispatcher.Tracker oneShotTracker;
+    private int oneShotGeneration = 0;
+    private final Runnable oneShotTimeout = new Runnable() {
+        @Override
+        public void run() {
+            onOneShotTimeout();
+        }
+    };
+
+    /**
+     * 所有等待中的运行关心的事件类型，事件线程用它快速过滤无关事件
+     */
+    private volatile int gatedEventTypes = 0;
+
+    public ScriptExecutor(ClickScheduler scheduler, GestureDispatcher dispatcher) {
+        this.scheduler = scheduler;
+        this.dispatcher = dispatcher;
+        this.oneShotTracker = newOneShotTracker();
+        this.eventHandler = new Handler(scheduler.getHandler().getLooper(), new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                onEvent(msg.what, (CharSequence) msg.obj);
+                return true;
+            }
+        });
+    }
+
+    public void setRunListener(RunListener listener) {
+        this.runListener = listener;
+    }
+
+    /**
+     * 设置了选择器的步骤用它定位元素。定位会访问节点树，在handler的线程上执行，
+     * 运行在定位期间挂起，边界投递回调度线程后再申请通道、分发手势
+     */
+    public void setElementLocator(ScriptInterpreter.ElementLocator locator, Handler handler) {
+        this.locatorHandler = handler;
+        this.elementLocator = locator;
+    }
+
+    /**
+     * 等待界面稳定的步骤用它判断界面是否变化；未设置时这类步骤只等待静默时长。
+     * 采样会访问节点树，在handler的线程上执行，签名再投递回调度线程，调度线程不会被采样阻塞
+     */
+    public void setStabilityProbe(StabilityProbe probe, Handler handler) {
+        this.probeHandler = handler;
+        this.stabilityProbe = probe;
+    }
+
+    /**
+     * 启动一个新的运行
+     *
+     * @param priority 优先级，数值越大越先获得手势通道
+     * @param share    同优先级下的速率份额，份额越大获得通道的机会越多
+     */
+    public ScriptRun start(ScriptProgram program, int priority, int share, RunOptions options) {
+        final ScriptRun run = new ScriptRun(nextId.getAndIncrement(), program, priority, share, options);
+        runs.add(run);
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (run.state == State.PENDING) {
+                    run.state = State.RUNNING;
+                    // 新运行从当前最小步幅开始，避免后加入的运行长期独占通道
+                    run.pass = minPass();
+                    if (run.options.startIteration > 0) {
+                        run.interpreter.seek(run.options.startIteration);
+                    }
+                    schedule(run, 0);
+                    Log.d(TAG, "开始运行 #" + run.id + ": " + run.getName());
+                    if (run.program.isHumanized()) {
+                        Log.d(TAG, "#" + run.id + " 随机种子: " + run.program.getSeed());
+                    }
+                }
+            }
+        });
+        return run;
+    }
+
+    /**
+     * 分发一次性手势，可以在任意线程调用。不会取消运行的在途手势：通道被占用时排队，
+     * 通道释放后先于排队的运行分发
+     *
+     * @param duration 手势时长，超过时长一段时间仍没有回调时放弃等待，释放通道
+     * @param listener 结束时在调度线程上回调，可以为null
+     * @return 系统版本不支持手势分发时返回false
+     */
+    public boolean dispatchOneShot(GestureDescription gesture, long duration, OneShotListener listener) {
+        if (gesture == null || oneShotTracker == null) {
+            return false;
+        }
+        final OneShot oneShot = new OneShot(gesture, duration, listener);
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                oneShots.add(oneShot);
+                if (channelOwner == null && oneShotInFlight == null) {
+                    dispatchNextOneShot();
+                }
+            }
+        });
+        return true;
+    }
+
+    public List<ScriptRun> getRuns() {
+        return new ArrayList<>(runs);
+    }
+
+    public boolean hasActiveRuns() {
+        return !runs.isEmpty();
+    }
+
+    public void stopAll() {
+        for (ScriptRun run : runs) {
+            run.stop();
+        }
+    }
+
+    /**
+     * 当前所有运行可能等待的事件类型
+     */
+    public int getRequiredEventTypes() {
+        int types = 0;
+        for (ScriptRun run : runs) {
+            types |= run.program.getEventTypes();
+        }
+        return types;
+    }
+
+    /**
+     * 当前所有运行等待事件的应用包名；有运行接受任意应用的事件时返回null
+     */
+    public String[] getRequiredPackages() {
+        LinkedHashSet<String> packages = new LinkedHashSet<>();
+        for (ScriptRun run : runs) {
+            ScriptProgram program = run.program;
+            if (!program.hasPackageRestrictedEvents()) {
+                return null;
+            }
+            for (int i = 0; i < program.waitPackages.length; i++) {
+                if (program.waitEvents[i] != 0) {
+                    packages.add(program.waitPackages[i]);
+                }
+            }
+        }
+        return packages.toArray(new String[0]);
+    }
+
+    /**
+     * 转发辅助功能事件，在服务的主线程上调用。没有运行等待该类型事件时直接返回
+     */
+    public void onAccessibilityEvent(int eventType, CharSequence packageName) {
+        if ((eventType & gatedEventTypes) == 0) {
+            return;
+        }
+        eventHandler.obtainMessage(eventType, packageName).sendToTarget();
+    }
+
+    private void schedule(final ScriptRun run, long delay) {
+        run.schedulerRun = scheduler.schedule(new ClickScheduler.Task() {
+            @Override
+            public long run() {
+                return step(run);
+            }
+        }, run.options.scheduleMode, delay);
+    }
+
+    /**
+     * 在调度线程上执行运行的下一条指令
+     */
+    private long step(ScriptRun run) {
+        if (run.state != State.RUNNING) {
+            return ClickScheduler.STOP;
+        }
+        long now = SystemClock.uptimeMillis();
+        run.lastProgress = now;
+
+        if (run.stableDeadline != 0) {
+            long poll = pollStability(run, now);
+            if (poll > 0) {
+                run.expectedBy = now + poll;
+                return poll;
+            }
+        }
+
+        // 上一步的等待已经结束（超时或收到事件）
+        disarmGate(run);
+
+        ScriptInterpreter interpreter = run.interpreter;
+        ElementSelector selector = interpreter.nextSelector();
+        if (selector != null && requestLocation(run, selector)) {
+            // 定位结果投递回来时唤醒，先定位再申请通道，定位期间不占用通道
+            run.expectedBy = now;
+            return ClickScheduler.PARK;
+        }
+        if (interpreter.nextDispatchesGesture() && !acquireChannel(run)) {
+            // 通道被占用，排队等待，通道释放时被唤醒重新执行同一条指令
+            if (!waiting.contains(run)) {
+                waiting.add(run);
+            }
+            run.expectedBy = NO_DEADLINE;
+            return ClickScheduler.PARK;
+        }
+
+        long delay = interpreter.step(run.sink);
+        if (delay == ScriptInterpreter.END) {
+            end(run, State.FINISHED);
+            return ClickScheduler.STOP;
+        }
+
+        if (run.options.checkpoint != null) {
+            run.options.checkpoint.update(interpreter.getIteration());
+        }
+
+        int pc = interpreter.getLastPc();
+        if (run.program.waitEvents[pc] != 0) {
+            armGate(run, run.program.waitEvents[pc], run.program.waitPackages[pc]);
+        }
+        if (run.program.getOp(pc) == ScriptProgram.OP_WAIT_STABLE) {
+            delay = beginStabilityWait(run, now, run.program.durations[pc], delay);
+        }
+
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "#" + run.id + " 执行步骤 " + run.program.getSourceStep(pc) + ": "
+                + ScriptProgram.opName(run.program.getOp(pc)));
+        }
+
+        if (interpreter.lastDispatched()) {
+            if (run.options.executionMode == AutoClickService.ExecutionMode.COMPLETION_DRIVEN) {
+                run.expectedBy = run.gestureDeadline;
+                return ClickScheduler.PARK;
+            }
+        } else if (channelOwner == run && !run.gestureInFlight) {
+            // 获得了通道但没有分发出手势（分发失败）
+            releaseChannel();
+        }
+        run.expectedBy = now + delay;
+        return delay;
+    }
+
+    /**
+     * 在定位线程上查找元素，边界投递回调度线程
+     *
+     * @return 已经请求定位、运行需要挂起等待时返回true；没有设置定位器时返回false，这一步按没有找到元素跳过
+     */
+    private boolean requestLocation(final ScriptRun run, final ElementSelector selector) {
+        final ScriptInterpreter.ElementLocator locator = elementLocator;
+        Handler handler = locatorHandler;
+        if (locator == null || handler == null) {
+            run.interpreter.setLocation(null);
+            return false;
+        }
+        final int request = ++run.locateRequest;
+        return handler.post(new Runnable() {
+            @Override
+            public void run() {
+                final Rect bounds = new Rect();
+                final boolean found = locator.locate(selector, bounds);
+                scheduler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onLocated(run, request, found ? bounds : null);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 在调度线程上交回定位结果并唤醒运行。运行在此期间暂停、停止或重启时丢弃结果
+     */
+    private void onLocated(ScriptRun run, int request, Rect bounds) {
+        if (request != run.locateRequest || run.state != State.RUNNING) {
+            return;
+        }
+        run.interpreter.setLocation(bounds);
+        ClickScheduler.Run schedulerRun = run.schedulerRun;
+        if (schedulerRun != null) {
+            run.expectedBy = SystemClock.uptimeMillis();
+            schedulerRun.resume(0);
+        }
+    }
+
+    /**
+     * 开始等待界面稳定，返回第一次采样前的等待时间
+     *
+     * @param timeout 最长等待时间，超时后不再等待稳定，继续执行
+     */
+    private long beginStabilityWait(ScriptRun run, long now, long quietPeriod, long timeout) {
+        if (stabilityProbe == null || probeHandler == null) {
+            return quietPeriod;
+        }
+        run.stableWait++;
+        run.stableDeadline = now + timeout;
+        run.stableQuiet = quietPeriod;
+        run.stableSince = 0;
+        run.stableSampledAt = 0;
+        run.stableSampling = false;
+        requestSignature(run);
+        return Math.min(stablePollInterval(quietPeriod), timeout);
+    }
+
+    /**
+     * 检查已经收到的签名，并请求下一次采样
+     *
+     * 只有采样结果能证明界面稳定：同一签名从第一次出现到最近一次采样之间的时长达到静默时长才算稳定，
+     * 采样线程繁忙、结果迟迟没有返回时只会等到超时
+     *
+     * @return 还需要继续等待时返回下次检查前的等待时间，已经稳定或超时时返回0
+     */
+    private long pollStability(ScriptRun run, long now) {
+        long stableFor = run.stableSince != 0 ? run.stableSampledAt - run.stableSince : 0;
+        if (stableFor >= run.stableQuiet || now >= run.stableDeadline) {
+            if (stableFor < run.stableQuiet) {
+                Log.w(TAG, "#" + run.id + " 等待界面稳定超时");
+            }
+            // 丢弃还在途中的采样结果
+            run.stableWait++;
+            run.stableDeadline = 0;
+            return 0;
+        }
+        requestSignature(run);
+        long poll = Math.min(stablePollInterval(run.stableQuiet), run.stableQuiet - stableFor);
+        return Math.max(1, Math.min(poll, run.stableDeadline - now));
+    }
+
+    /**
+     * 在采样线程上取一次签名，结果投递回调度线程。上一次采样还没返回时不重复请求
+     */
+    private void requestSignature(final ScriptRun run) {
+        final StabilityProbe probe = stabilityProbe;
+        Handler handler = probeHandler;
+        if (probe == null || handler == null || run.stableSampling) {
+            return;
+        }
+        final int wait = run.stableWait;
+        run.stableSampling = handler.post(new Runnable() {
+            @Override
+            public void run() {
+                final long signature = probe.currentSignature();
+                final long sampledAt = SystemClock.uptimeMillis();
+                scheduler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onSignature(run, wait, signature, sampledAt);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 在调度线程上记录采样结果
+     */
+    private void onSignature(ScriptRun run, int wait, long signature, long sampledAt) {
+        if (wait != run.stableWait || run.stableDeadline == 0) {
+            return;
+        }
+        run.stableSampling = false;
+        if (run.stableSince == 0 || signature != run.stableSignature) {
+            run.stableSignature = signature;
+            run.stableSince = sampledAt;
+        }
+        run.stableSampledAt = sampledAt;
+    }
+
+    private static long stablePollInterval(long quietPeriod) {
+        return Math.max(MIN_STABLE_POLL_MS, Math.min(MAX_STABLE_POLL_MS, quietPeriod / 4));
+    }
+
+    /**
+     * 重新启动停滞的运行：丢弃在途手势（换用新的回调对象，旧手势之后的回调被忽略），释放通道，从下一条指令继续执行
+     */
+    public void restart(final ScriptRun run) {
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (run.state != State.RUNNING) {
+                    return;
+                }
+                if (run.schedulerRun != null) {
+                    run.schedulerRun.cancel();
+                }
+                // 丢弃还在途中的定位结果，重新执行时重新定位
+                run.locateRequest++;
+                if (run.gestureInFlight) {
+                    // 卡住的手势之后被取消时，回调不能再影响新手势和通道
+                    run.tracker = run.newTracker();
+                    run.gestureInFlight = false;
+                }
+                waiting.remove(run);
+                if (channelOwner == run) {
+                    releaseChannel();
+                }
+                run.restartCount++;
+                run.expectedBy = SystemClock.uptimeMillis();
+                schedule(run, 0);
+                Log.w(TAG, "重新启动运行 #" + run.id + "，第 " + run.restartCount + " 次");
+            }
+        });
+    }
+
+    /**
+     * 当前持有手势通道的运行，用于诊断
+     */
+    public ScriptRun getChannelOwner() {
+        return channelOwner;
+    }
+
+    public int getWaitingCount() {
+        return waiting.size();
+    }
+
+    private void armGate(ScriptRun run, int eventTypes, String packageName) {
+        run.gateEvents = eventTypes;
+        run.gatePackage = packageName;
+        run.gateFired = false;
+        gatedEventTypes |= eventTypes;
+    }
+
+    private void disarmGate(ScriptRun run) {
+        run.gateFired = false;
+        if (run.gateEvents != 0) {
+            run.gateEvents = 0;
+            updateGatedEventTypes();
+        }
+    }
+
+    private void updateGatedEventTypes() {
+        int types = 0;
+        for (ScriptRun run : runs) {
+            types |= run.gateEvents;
+        }
+        gatedEventTypes = types;
+    }
+
+    /**
+     * 在调度线程上处理事件，唤醒等待该事件的运行
+     */
+    private void onEvent(int eventType, CharSequence packageName) {
+        boolean fired = false;
+        for (ScriptRun run : runs) {
+            if ((run.gateEvents & eventType) == 0 || run.state != State.RUNNING) {
+                continue;
+            }
+            if (run.gatePackage != null
+                    && (packageName == null || !run.gatePackage.contentEquals(packageName))) {
+                continue;
+            }
+            run.gateEvents = 0;
+            run.gateFired = true;
+            fired = true;
+            // 手势仍在途（完成驱动模式）时只做标记，手势结束后立即继续
+            ClickScheduler.Run schedulerRun = run.schedulerRun;
+            if (schedulerRun != null && !schedulerRun.isParked()) {
+                schedulerRun.expedite();
+            }
+        }
+        if (fired) {
+            updateGatedEventTypes();
+        }
+    }
+
+    private boolean acquireChannel(ScriptRun run) {
+        if (channelOwner == run && !run.gestureInFlight) {
+            return true;
+        }
+        if (channelOwner != null || oneShotInFlight != null || !oneShots.isEmpty()) {
+            // 包括自己的手势仍在途的情况，再分发会取消它
+            return false;
+        }
+        ScriptRun next = pickWaiting();
+        if (next != null && next != run && outranks(next, run)) {
+            return false;
+        }
+        grant(run);
+        return true;
+    }
+
+    private void grant(ScriptRun run) {
+        channelOwner = run;
+        waiting.remove(run);
+        run.pass += run.stride;
+    }
+
+    private void releaseChannel() {
+        channelOwner = null;
+        // 一次性手势优先，全部结束后再交给排队的运行
+        if (oneShotInFlight != null || dispatchNextOneShot()) {
+            return;
+        }
+        ScriptRun next = pickWaiting();
+        if (next != null) {
+            grant(next);
+            next.expectedBy = SystemClock.uptimeMillis();
+            ClickScheduler.Run schedulerRun = next.schedulerRun;
+            if (schedulerRun != null) {
+                schedulerRun.resume(0);
+            }
+        }
+    }
+
+    /**
+     * 分发队列中的下一个一次性手势，分发失败的直接回调并继续下一个
+     *
+     * @return 有手势在途时返回true
+     */
+    private boolean dispatchNextOneShot() {
+        while (!oneShots.isEmpty()) {
+            OneShot next = oneShots.poll();
+            if (dispatcher.dispatch(next.gesture, oneShotTracker)) {
+                oneShotInFlight = next;
+                scheduler.getHandler().postDelayed(oneShotTimeout, next.duration + GESTURE_TIMEOUT_SLACK_MS);
+                return true;
+            }
+            Log.e(TAG, "一次性手势分发失败");
+            next.finish(false, false);
+        }
+        return false;
+    }
+
+    private void onOneShotFinished(boolean completed) {
+        OneShot finished = oneShotInFlight;
+        if (finished == null) {
+            return;
+        }
+        scheduler.getHandler().removeCallbacks(oneShotTimeout);
+        oneShotInFlight = null;
+        finished.finish(true, completed);
+        releaseChannel();
+    }
+
+    private void onOneShotTimeout() {
+        if (oneShotInFlight == null) {
+            return;
+        }
+        Log.w(TAG, "一次性手势超时没有回调，释放通道");
+        // 丢弃卡住的手势，它之后的回调不能当作下一个一次性手势结束
+        oneShotTracker = newOneShotTracker();
+        onOneShotFinished(false);
+    }
+
+    private GestureDispatcher.Tracker newOneShotTracker() {
+        final int generation = ++oneShotGeneration;
+        return dispatcher.createTracker(new GestureDispatcher.Listener() {
+            @Override
+            public void onGestureFinished(boolean completed) {
+                if (generation == oneShotGeneration) {
+                    onOneShotFinished(completed);
+                }
+            }
+        });
+    }
+
+    private ScriptRun pickWaiting() {
+        ScriptRun best = null;
+        for (int i = 0; i < waiting.size(); i++) {
+            ScriptRun candidate = waiting.get(i);
+            if (best == null || outranks(candidate, best)) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private static boolean outranks(ScriptRun a, ScriptRun b) {
+        if (a.priority != b.priority) {
+            return a.priority > b.priority;
+        }
+        return a.pass < b.pass;
+    }
+
+    private long minPass() {
+        long min = 0;
+        boolean found = false;
+        for (ScriptRun run : runs) {
+            if (run.state == State.RUNNING && (!found || run.pass < min)) {
+                min = run.pass;
+                found = true;
+            }
+        }
+        return min;
+    }
+
+    private void onGestureFinished(ScriptRun run, boolean completed) {
+        run.gestureInFlight = false;
+        run.lastProgress = SystemClock.uptimeMillis();
+        if (channelOwner == run) {
+            releaseChannel();
+        }
+        if (run.state == State.RUNNING
+                && run.options.executionMode == AutoClickService.ExecutionMode.COMPLETION_DRIVEN) {
+            ClickScheduler.Run schedulerRun = run.schedulerRun;
+            if (schedulerRun != null) {
+                long delay = run.getResumeDelay();
+                run.expectedBy = run.lastProgress + delay;
+                schedulerRun.resume(delay);
+            }
+        }
+    }
+
+    private void end(ScriptRun run, State state) {
+        if (run.state == State.STOPPED || run.state == State.FINISHED) {
+            return;
+        }
+        run.state = state;
+        if (run.schedulerRun != null) {
+            run.schedulerRun.cancel();
+        }
+        waiting.remove(run);
+        if (channelOwner == run && !run.gestureInFlight) {
+            releaseChannel();
+        }
+        runs.remove(run);
+        disarmGate(run);
+        if (run.options.checkpoint != null) {
+            run.options.checkpoint.clear();
+        }
+        Log.d(TAG, (state == State.FINISHED ? "运行完成 #" : "停止运行 #") + run.id + ": " + run.getName());
+        if (runListener != null) {
+            runListener.onRunEnded(run);
+        }
+    }
+
+    private static final class OneShot {
+        final GestureDescription gesture;
+        final long duration;
+        final OneShotListener listener;
+
+        OneShot(GestureDescription gesture, long duration, OneShotListener listener) {
+            this.gesture = gesture;
+            this.duration = duration;
+            this.listener = listener;
+        }
+
+        void finish(boolean dispatched, boolean completed) {
+            if (listener != null) {
+                listener.onOneShotFinished(dispatched, completed);
+            }
+        }
+    }
+
+    /**
+     * 运行选项
+     */
+    public static class RunOptions {
+        public ClickScheduler.Mode scheduleMode = ClickScheduler.Mode.FIXED_RATE;
+        public AutoClickService.ExecutionMode executionMode = AutoClickService.ExecutionMode.TIMED;
+        public long minGestureGap = 0;
+        /**
+         * 从第几遍开始执行（已完成的遍数），用于从检查点恢复
+         */
+        public long startIteration = 0;
+        /**
+         * 保存进度的检查点槽位，为null时不保存
+         */
+        public ExecutionCheckpoint.Slot checkpoint;
+    }
+
+    /**
+     * 一次运行的句柄，可以暂停、继续和停止
+     */
+    public final class ScriptRun {
+        private final int id;
+        private final ScriptProgram program;
+        private final ScriptInterpreter interpreter;
+        private final int priority;
+        private final long stride;
+        private final RunOptions options;
+        private GestureDispatcher.Tracker tracker;
+        private int trackerGeneration = 0;
+        private final ScriptInterpreter.GestureSink sink;
+        private volatile State state = State.PENDING;
+        private ClickScheduler.Run schedulerRun;
+        private boolean gestureInFlight = false;
+        private long pass = 0;
+        private int gateEvents = 0;
+        private String gatePackage;
+        private boolean gateFired = false;
+        private volatile long lastProgress = 0;
+        private volatile long expectedBy = NO_DEADLINE;
+        private volatile long gestureDeadline = 0;
+        private volatile int restartCount = 0;
+        private long stableDeadline = 0;
+        private long stableQuiet = 0;
+        private long stableSignature = 0;
+        private long stableSince = 0;
+        private long stableSampledAt = 0;
+        private boolean stableSampling = false;
+        private int stableWait = 0;
+        private int locateRequest = 0;
+
+        private ScriptRun(int id, ScriptProgram program, int priority, int share, RunOptions options) {
+            this.id = id;
+            this.program = program;
+            this.interpreter = new ScriptInterpreter(program);
+            this.priority = priority;
+            this.stride = STRIDE_BASE / Math.max(1, share);
+            this.options = options;
+            this.tracker = newTracker();
+            this.sink = new ScriptInterpreter.GestureSink() {
+                @Override
+                public boolean dispatch(GestureDescription gesture) {
+                    boolean dispatched = dispatcher.dispatch(gesture, tracker);
+                    gestureInFlight = dispatched;
+                    if (dispatched) {
+                        gestureDeadline = SystemClock.uptimeMillis()
+                            + program.durations[interpreter.getLastPc()] + GESTURE_TIMEOUT_SLACK_MS;
+                    }
+                    return dispatched;
+                }
+            };
+        }
+
+        /**
+         * 创建新的手势回调，之前的回调随之失效。重启时丢弃卡住的手势用：它之后被取消时的回调不能当作新手势结束
+         */
+        private GestureDispatcher.Tracker newTracker() {
+            final int generation = ++trackerGeneration;
+            return dispatcher.createTracker(new GestureDispatcher.Listener() {
+                @Override
+                public void onGestureFinished(boolean completed) {
+                    if (generation != trackerGeneration) {
+                        Log.d(TAG, "#" + id + " 忽略重启前手势的回调");
+                        return;
+                    }
+                    ScriptExecutor.this.onGestureFinished(ScriptRun.this, completed);
+                }
+            });
+        }
+
+        /**
+         * 完成驱动模式下手势结束后的等待时间：步骤显式设置的延迟仍然生效，否则只保留最小间隔
+         */
+        private long getResumeDelay() {
+            int pc = interpreter.getLastPc();
+            if (pc < 0 || gateFired) {
+                return options.minGestureGap;
+            }
+            long delay = program.hasFlag(pc, ScriptProgram.FLAG_EXPLICIT_DELAY)
+                ? program.getDelay(pc) : options.minGestureGap;
+            return delay + interpreter.getLastJitter();
+        }
+
+        public void pause() {
+            scheduler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (state != State.RUNNING) {
+                        return;
+                    }
+                    state = State.PAUSED;
+                    if (schedulerRun != null) {
+                        schedulerRun.cancel();
+                        schedulerRun = null;
+                    }
+                    locateRequest++;
+                    waiting.remove(ScriptRun.this);
+                    if (channelOwner == ScriptRun.this && !gestureInFlight) {
+                        releaseChannel();
+                    }
+                    disarmGate(ScriptRun.this);
+                    Log.d(TAG, "暂停运行 #" + id);
+                }
+            });
+        }
+
+        public void resume() {
+            scheduler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (state != State.PAUSED) {
+                        return;
+                    }
+                    state = State.RUNNING;
+                    pass = Math.max(pass, minPass());
+                    expectedBy = SystemClock.uptimeMillis();
+                    schedule(ScriptRun.this, 0);
+                    Log.d(TAG, "继续运行 #" + id);
+                }
+            });
+        }
+
+        public void stop() {
+            scheduler.post(new Runnable() {
+                @Override
+                public void run() {
+                    end(ScriptRun.this, State.STOPPED);
+                }
+            });
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return program.getName();
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public boolean isActive() {
+            State current = state;
+            return current == State.PENDING || current == State.RUNNING || current == State.PAUSED;
+        }
+
+        public ScriptProgram getProgram() {
+            return program;
+        }
+
+        public ScriptInterpreter getInterpreter() {
+            return interpreter;
+        }
+
+        /**
+         * 最近一次执行指令或收到手势回调的时间（uptimeMillis）
+         */
+        public long getLastProgress() {
+            return lastProgress;
+        }
+
+        /**
+         * 预计下一次有进展的时间，等待通道时为 {@link #NO_DEADLINE}
+         */
+        public long getExpectedBy() {
+            return expectedBy;
+        }
+
+        /**
+         * 在途手势超过时限仍未回调
+         */
+        public boolean isGestureOverdue(long now) {
+            return gestureInFlight && now > gestureDeadline;
+        }
+
+        public int getRestartCount() {
+            return restartCount;
+        }
+
+        /**
+         * 运行状态的诊断文本，可以在任意线程调用，读到的是近似值
+         */
+        public String getDiagnostics() {
+            int pc = interpreter.getLastPc();
+            ClickScheduler.Run current = schedulerRun;
+            StringBuilder builder = new StringBuilder();
+            builder.append('#').append(id).append(' ').append(getName())
+                .append(" 状态: ").append(state)
+                .append(", 遍数: ").append(interpreter.getIteration());
+            if (pc >= 0) {
+                builder.append(", 步骤: ").append(program.getSourceStep(pc))
+                    .append(' ').append(ScriptProgram.opName(program.getOp(pc)));
+            }
+            builder.append(", 手势在途: ").append(gestureInFlight)
+                .append(", 等待通道: ").append(expectedBy == NO_DEADLINE)
+                .append(", 重启次数: ").append(restartCount)
+                .append(", 未找到元素: ").append(interpreter.getMissCount());
+            if (current != null) {
+                builder.append(", 已暂停调度: ").append(current.isParked())
+                    .append(", 执行次数: ").append(current.getExecutions())
+                    .append(", 最近延迟: ").append(current.getLastLateness()).append("ms")
+                    .append(", 最大延迟: ").append(current.getMaxLateness()).append("ms");
+            }
+            return builder.toString();
+        }
+    }
+}
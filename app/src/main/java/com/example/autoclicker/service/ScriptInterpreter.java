@@ -0,0 +1,261 @@
+package com.example.autoclicker.service;
+
+import android.accessibilityservice.GestureDescription;
+import android.graphics.Rect;
+
+import com.example.autoclicker.utils.ElementSelector;
+
+/**
+ * 脚本解释器
+ *
+ * 按程序计数器逐条执行 {@link ScriptProgram} 中的指令，手势交给 {@link GestureSink} 分发。
+ * 每次调用 {@link #step} 只执行一条指令并返回到下一条指令的延迟，循环中不分配对象。
+ * 每遍执行结束后只把程序计数器归零，重复和无限循环始终复用同一份编译结果，长时间运行内存不增长。
+ * 程序开启拟人化时，随机延迟和手势变体从 {@link Humanizer} 的预生成表中查取。
+ * 设置了选择器的指令由调用方在执行前定位：{@link #nextSelector} 返回要定位的选择器，
+ * 调用方在其他线程上用 {@link ElementLocator} 查找后通过 {@link #setLocation} 交回边界，手势在执行时构建；
+ * 找不到元素或没有交回结果时跳过这条指令。
+ */
+public final class ScriptInterpreter {
+    public static final long END = -1;
+
+    public interface GestureSink {
+        boolean dispatch(GestureDescription gesture);
+    }
+
+    public interface ElementLocator {
+        /**
+         * 会访问节点树，不在调度线程上调用
+         *
+         * @return 找到元素时把边界写入outBounds并返回true
+         */
+        boolean locate(ElementSelector selector, Rect outBounds);
+    }
+
+    /**
+     * 运行时随机流与编译时生成变体的随机流错开，避免选取变体与变体偏移相关
+     */
+    private static final long RUNTIME_SEED_SALT = 0x5DEECE66DL;
+
+    private final ScriptProgram program;
+    private final Humanizer humanizer;
+    private int pc = 0;
+    private long iteration = 0;
+    private int lastPc = -1;
+    private boolean lastDispatched = false;
+    private long lastJitter = 0;
+    private final Rect elementBounds = new Rect();
+    /**
+     * 已经交回定位结果的指令，结果在执行这条指令时用掉
+     */
+    private int locatedPc = -1;
+    private boolean locatedFound = false;
+    private long missCount = 0;
+
+    public ScriptInterpreter(ScriptProgram program) {
+        this.program = program;
+        this.humanizer = program.isHumanized() ? new Humanizer(program.seed ^ RUNTIME_SEED_SALT) : null;
+    }
+
+    /**
+     * 执行下一条指令
+     *
+     * @return 到下一条指令的延迟（毫秒），程序结束时返回 {@link #END}
+     */
+    public long step(GestureSink sink) {
+        int size = program.ops.length;
+        if (size == 0) {
+            return END;
+        }
+
+        if (pc >= size) {
+            iteration++;
+            if (!program.isLoop() && iteration >= program.repeatCount) {
+                return END;
+            }
+            pc = 0;
+        }
+
+        int current = pc++;
+        lastPc = current;
+        switch (program.ops[current]) {
+            case ScriptProgram.OP_TAP:
+            case ScriptProgram.OP_LONG_PRESS:
+            case ScriptProgram.OP_SWIPE:
+                ElementSelector selector = program.selectors[current];
+                if (selector != null) {
+                    lastDispatched = dispatchAtElement(current, selector, sink);
+                    break;
+                }
+                int variants = program.variantCount;
+                int index = variants == 1 ? current : current * variants + humanizer.nextVariant(variants);
+                GestureDescription gesture = program.gestures[index];
+                lastDispatched = gesture != null && sink.dispatch(gesture);
+                break;
+            case ScriptProgram.OP_WAIT:
+            case ScriptProgram.OP_WAIT_STABLE:
+            default:
+                lastDispatched = false;
+                break;
+        }
+        long delay = program.delays[current];
+        if (humanizer != null) {
+            long jittered = humanizer.jitterDelay(delay, program.delayJitter);
+            lastJitter = jittered - delay;
+            return jittered;
+        }
+        return delay;
+    }
+
+    /**
+     * 以选择器定位到的元素中心为起点构建手势，滑动保持录制时的方向和距离
+     */
+    private boolean dispatchAtElement(int pc, ElementSelector selector, GestureSink sink) {
+        // 系统不支持手势时预编译手势为空
+        if (program.gestures[pc * program.variantCount] == null) {
+            return false;
+        }
+        boolean found = locatedPc == pc && locatedFound;
+        locatedPc = -1;
+        if (!found) {
+            missCount++;
+            return false;
+        }
+        float startX = elementBounds.centerX();
+        float startY = elementBounds.centerY();
+        ScriptCompiler.GestureFactory factory = ScriptCompiler.gestures();
+        GestureDescription gesture;
+        if (program.ops[pc] == ScriptProgram.OP_SWIPE) {
+            gesture = factory.swipe(startX, startY,
+                Math.max(0, startX + program.endX[pc] - program.x[pc]),
+                Math.max(0, startY + program.endY[pc] - program.y[pc]), program.durations[pc]);
+        } else {
+            gesture = factory.tap(startX, startY, program.durations[pc]);
+        }
+        return sink.dispatch(gesture);
+    }
+
+    /**
+     * 下一条指令需要定位的选择器；不需要定位或已经交回结果时返回null
+     */
+    public ElementSelector nextSelector() {
+        int next = nextPc();
+        if (next < 0 || next == locatedPc || program.selectors[next] == null) {
+            return null;
+        }
+        return program.gestures[next * program.variantCount] != null ? program.selectors[next] : null;
+    }
+
+    /**
+     * 交回 {@link #nextSelector} 的定位结果
+     *
+     * @param bounds 元素的边界，没有找到时为null
+     */
+    public void setLocation(Rect bounds) {
+        locatedPc = nextPc();
+        locatedFound = bounds != null;
+        if (locatedFound) {
+            elementBounds.set(bounds);
+        }
+    }
+
+    /**
+     * 选择器没有找到元素而跳过的次数
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * 下一次调用 {@link #step} 是否会分发手势，用于执行前申请手势通道
+     */
+    public boolean nextDispatchesGesture() {
+        int next = nextPc();
+        if (next < 0) {
+            return false;
+        }
+        switch (program.ops[next]) {
+            case ScriptProgram.OP_TAP:
+            case ScriptProgram.OP_LONG_PRESS:
+            case ScriptProgram.OP_SWIPE:
+                return program.gestures[next * program.variantCount] != null;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 下一次调用 {@link #step} 执行的指令，程序将要结束时返回-1
+     */
+    private int nextPc() {
+        int size = program.ops.length;
+        if (size == 0) {
+            return -1;
+        }
+        if (pc < size) {
+            return pc;
+        }
+        return program.isLoop() || iteration + 1 < program.repeatCount ? 0 : -1;
+    }
+
+    /**
+     * 从指定遍的开头继续执行，用于从检查点恢复
+     */
+    public void seek(long completedIterations) {
+        reset();
+        if (program.isLoop() || completedIterations < program.repeatCount) {
+            iteration = Math.max(0, completedIterations);
+        }
+    }
+
+    public void reset() {
+        pc = 0;
+        iteration = 0;
+        lastPc = -1;
+        lastDispatched = false;
+        lastJitter = 0;
+        locatedPc = -1;
+        if (humanizer != null) {
+            humanizer.reset();
+        }
+    }
+
+    public ScriptProgram getProgram() {
+        return program;
+    }
+
+    /**
+     * 下一条要执行的指令
+     */
+    public int getPc() {
+        return pc;
+    }
+
+    /**
+     * 最近一次执行的指令
+     */
+    public int getLastPc() {
+        return lastPc;
+    }
+
+    /**
+     * 最近一次执行的指令叠加的随机延迟（毫秒）
+     */
+    public long getLastJitter() {
+        return lastJitter;
+    }
+
+    /**
+     * 已完成的遍数
+     */
+    public long getIteration() {
+        return iteration;
+    }
+
+    /**
+     * 最近一次执行的指令是否成功分发了手势
+     */
+    public boolean lastDispatched() {
+        return lastDispatched;
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.autoclicker.service;
+
+import android.accessibilityservice.GestureDescription;
+
+import com.example.autoclicker.utils.ElementSelector;
+
+/**
+ * 编译后的脚本程序
+ *
+ * 由 {@link ScriptCompiler} 生成，步骤被展开成并行的基本类型数组：操作码、坐标、
+ * 延迟和预编译手势，解释器按下标顺序读取，不再遍历ClickStep对象。
+ * 程序创建后不可修改，可以在多次运行之间共享。
+ *
+ * 开启拟人化时，每个手势指令预编译 {@link #variantCount} 个随机偏移的变体，
+ * 按 {@code pc * variantCount + variant} 存放，运行时由解释器随机选取，不再临时构建手势。
+ *
+ * 设置了选择器的手势指令在执行时按选择器定位元素，手势以元素中心为起点临时构建；
+ * 预编译的手势只用于判断指令是否会分发手势。
+ */
+public final class ScriptProgram {
+    public static final int OP_TAP = 0;
+    public static final int OP_LONG_PRESS = 1;
+    public static final int OP_SWIPE = 2;
+    public static final int OP_WAIT = 3;
+
+    /**
+     * 等待界面稳定：durations为要求界面保持不变的时长，delays为最长等待时间
+     */
+    public static final int OP_WAIT_STABLE = 4;
+
+    /**
+     * 步骤显式设置了延迟（而不是使用脚本的默认点击间隔）
+     */
+    public static final int FLAG_EXPLICIT_DELAY = 1;
+
+    /**
+     * 无限循环执行
+     */
+    public static final long REPEAT_FOREVER = 0;
+
+    final String name;
+    final int[] ops;
+    final int[] flags;
+    final float[] x;
+    final float[] y;
+    final float[] endX;
+    final float[] endY;
+    final long[] durations;
+    final long[] delays;
+    final int[] sourceSteps;
+    final GestureDescription[] gestures;
+    final int[] waitEvents;
+    final String[] waitPackages;
+    final ElementSelector[] selectors;
+    final long repeatCount;
+    final int variantCount;
+    final long delayJitter;
+    final long seed;
+
+    /**
+     * @param repeatCount 重复次数，小于等于0表示无限循环
+     */
+    ScriptProgram(String name, int size, long repeatCount) {
+        this(name, size, repeatCount, 1, 0, 0);
+    }
+
+    ScriptProgram(String name, int size, long repeatCount, int variantCount, long delayJitter, long seed) {
+        this.name = name;
+        this.ops = new int[size];
+        this.flags = new int[size];
+        this.x = new float[size];
+        this.y = new float[size];
+        this.endX = new float[size];
+        this.endY = new float[size];
+        this.durations = new long[size];
+        this.delays = new long[size];
+        this.sourceSteps = new int[size];
+        this.variantCount = Math.max(1, variantCount);
+        this.gestures = new GestureDescription[size * this.variantCount];
+        this.waitEvents = new int[size];
+        this.waitPackages = new String[size];
+        this.selectors = new ElementSelector[size];
+        this.repeatCount = repeatCount > 0 ? repeatCount : REPEAT_FOREVER;
+        this.delayJitter = Math.max(0, delayJitter);
+        this.seed = seed;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int size() {
+        return ops.length;
+    }
+
+    public int getOp(int pc) {
+        return ops[pc];
+    }
+
+    public long getDelay(int pc) {
+        return delays[pc];
+    }
+
+    public boolean hasFlag(int pc, int flag) {
+        return (flags[pc] & flag) != 0;
+    }
+
+    /**
+     * 指令对应的原始脚本步骤下标
+     */
+    public int getSourceStep(int pc) {
+        return sourceSteps[pc];
+    }
+
+    public GestureDescription getGesture(int pc) {
+        return gestures[pc * variantCount];
+    }
+
+    public GestureDescription getGesture(int pc, int variant) {
+        return gestures[pc * variantCount + variant];
+    }
+
+    /**
+     * 指令执行后等待的事件类型，0表示不等待
+     */
+    public int getWaitEvents(int pc) {
+        return waitEvents[pc];
+    }
+
+    public String getWaitPackage(int pc) {
+        return waitPackages[pc];
+    }
+
+    /**
+     * 指令的目标元素选择器，没有时返回null
+     */
+    public ElementSelector getSelector(int pc) {
+        return selectors[pc];
+    }
+
+    /**
+     * 程序中所有指令等待的事件类型
+     */
+    public int getEventTypes() {
+        int types = 0;
+        for (int events : waitEvents) {
+            types |= events;
+        }
+        return types;
+    }
+
+    /**
+     * 等待事件的指令是否都限定了应用包名；有任意一条接受所有应用时返回false
+     */
+    public boolean hasPackageRestrictedEvents() {
+        for (int i = 0; i < waitEvents.length; i++) {
+            if (waitEvents[i] != 0 && waitPackages[i] == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getVariantCount() {
+        return variantCount;
+    }
+
+    /**
+     * 每步叠加的最大随机延迟（毫秒）
+     */
+    public long getDelayJitter() {
+        return delayJitter;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * 是否开启了随机延迟或位置偏移
+     */
+    public boolean isHumanized() {
+        return delayJitter > 0 || variantCount > 1;
+    }
+
+    public long getRepeatCount() {
+        return repeatCount;
+    }
+
+    public boolean isLoop() {
+        return repeatCount == REPEAT_FOREVER;
+    }
+
+    public static String opName(int op) {
+        switch (op) {
+            case OP_TAP:
+                return "TAP";
+            case OP_LONG_PRESS:
+                return "LONG_PRESS";
+            case OP_SWIPE:
+                return "SWIPE";
+            case OP_WAIT:
+                return "WAIT";
+            case OP_WAIT_STABLE:
+                return "WAIT_STABLE";
+            default:
+                return "UNKNOWN(" + op + ")";
+        }
+    }
+}
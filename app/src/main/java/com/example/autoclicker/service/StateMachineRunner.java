@@ -0,0 +1,279 @@
+package com.example.autoclicker.service;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.example.autoclicker.model.ClickScript;
+import com.example.autoclicker.model.ScreenState;
+import com.example.autoclicker.utils.LatencyHistogram;
+import com.example.autoclicker.utils.ScreenClassifier;
+
+import java.util.List;
+
+/**
+ * 状态机模式
+ *
+ * 脚本由若干界面状态组成，每个状态有一组界面指纹和自己的步骤序列。运行时取当前界面的指纹，
+ * 查表得到状态，把该状态的步骤作为一次运行交给 {@link ScriptExecutor} 执行，执行完再识别下一个界面。
+ * 指纹由节点树快照增量计算，查表为O(1)，不需要为每个界面逐个查找元素。
+ * 计算指纹会访问节点树，在采样线程上进行，结果投递回调度线程，调度线程只查表和启动运行。
+ * 未识别的界面按识别间隔重试，步骤序列末尾通常应加一个等待界面稳定步骤，避免界面还没切换就再次识别到同一状态。
+ */
+public class StateMachineRunner {
+    private static final String TAG = "StateMachineRunner";
+
+    /**
+     * 没有运行在执行时，两次识别之间的间隔
+     */
+    private static final long IDENTIFY_INTERVAL_MS = 100;
+
+    public interface FingerprintSource {
+        /**
+         * 当前界面的结构指纹，无法获取界面时返回0，在采样线程上调用
+         */
+        long currentFingerprint();
+    }
+
+    private final ClickScheduler scheduler;
+    private final ScriptExecutor executor;
+    private final FingerprintSource source;
+    private final Handler sampleHandler;
+    private final ScreenClassifier classifier = new ScreenClassifier();
+    private volatile LatencyHistogram identifyHistogram;
+
+    private volatile ClickScheduler.Run run;
+    private ClickScript script;
+    private ScriptProgram[] programs;
+    private int priority;
+    private int share;
+    private ScriptExecutor.RunOptions options;
+    private ScriptExecutor.ScriptRun currentRun;
+    private long lastUnknown = 0;
+    private volatile int currentState = ScreenClassifier.UNKNOWN;
+    private volatile long dispatchCount = 0;
+    private volatile long unknownCount = 0;
+
+    /**
+     * 指纹采样的状态，只在调度线程上访问。每次加载或停止时增加代数，丢弃还在途中的旧结果
+     */
+    private int sampleGeneration = 0;
+    private boolean sampling = false;
+    private boolean sampleFresh = false;
+    private long sampledFingerprint = 0;
+
+    /**
+     * @param sampleHandler 计算指纹的线程
+     */
+    public StateMachineRunner(ClickScheduler scheduler, ScriptExecutor executor, FingerprintSource source,
+            Handler sampleHandler) {
+        this.scheduler = scheduler;
+        this.executor = executor;
+        this.source = source;
+        this.sampleHandler = sampleHandler;
+    }
+
+    /**
+     * 设置后记录每次在采样线程上计算界面指纹的耗时（微秒）
+     */
+    public void setIdentifyHistogram(LatencyHistogram histogram) {
+        this.identifyHistogram = histogram;
+    }
+
+    /**
+     * 开始运行状态机，已有的状态机先停止。
+     * 脚本的重复次数限制执行状态的总次数，勾选循环或为0时一直运行直到停止
+     *
+     * @return 脚本没有界面状态时返回false
+     */
+    public boolean start(final ClickScript script, final int priority, final int share,
+            final ScriptExecutor.RunOptions options) {
+        if (!script.isStateMachine()) {
+            Log.e(TAG, "脚本没有界面状态");
+            return false;
+        }
+        // 在调用线程上编译，调度线程只负责识别和启动
+        List<ScreenState> states = script.getScreenStates();
+        final ScriptProgram[] compiled = new ScriptProgram[states.size()];
+        long seed = script.getRandomSeed() != 0 ? script.getRandomSeed() : Humanizer.newSeed();
+        for (int i = 0; i < compiled.length; i++) {
+            if (states.get(i).getStepCount() > 0) {
+                compiled[i] = ScriptCompiler.compileState(script, states.get(i), seed + i);
+            }
+        }
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                stopOnScheduler();
+                load(script, compiled, priority, share, options);
+                run = scheduler.schedule(new ClickScheduler.Task() {
+                    @Override
+                    public long run() {
+                        return tick();
+                    }
+                }, ClickScheduler.Mode.FIXED_DELAY, 0);
+                Log.d(TAG, "开始状态机: " + script.getName() + ", " + compiled.length + " 个状态, "
+                    + classifier.size() + " 个指纹");
+            }
+        });
+        return true;
+    }
+
+    private void load(ClickScript script, ScriptProgram[] compiled, int priority, int share,
+            ScriptExecutor.RunOptions options) {
+        this.script = script;
+        this.programs = compiled;
+        this.priority = priority;
+        this.share = share;
+        this.options = options;
+        classifier.clear();
+        List<ScreenState> states = script.getScreenStates();
+        for (int i = 0; i < states.size(); i++) {
+            for (Long fingerprint : states.get(i).getFingerprints()) {
+                if (fingerprint != null && fingerprint != 0) {
+                    classifier.put(fingerprint, i);
+                }
+            }
+        }
+        currentRun = null;
+        sampleGeneration++;
+        sampling = false;
+        sampleFresh = false;
+        lastUnknown = 0;
+        currentState = ScreenClassifier.UNKNOWN;
+        dispatchCount = 0;
+        unknownCount = 0;
+    }
+
+    /**
+     * 在调度线程上执行：当前状态的步骤执行完后识别界面并启动下一个状态。
+     * 只使用上一个状态结束后采样到的指纹，还没有时请求采样，结果返回后立即再次执行
+     */
+    private long tick() {
+        if (currentRun != null) {
+            if (currentRun.isActive()) {
+                return IDENTIFY_INTERVAL_MS;
+            }
+            currentRun = null;
+        }
+        long limit = script.isLoop() ? ScriptProgram.REPEAT_FOREVER : script.getRepeatCount();
+        if (limit != ScriptProgram.REPEAT_FOREVER && dispatchCount >= limit) {
+            Log.d(TAG, "状态机完成: 共执行 " + dispatchCount + " 个状态");
+            run = null;
+            return ClickScheduler.STOP;
+        }
+
+        if (!sampleFresh) {
+            requestFingerprint();
+            return IDENTIFY_INTERVAL_MS;
+        }
+        sampleFresh = false;
+        long fingerprint = sampledFingerprint;
+        int state = classifier.get(fingerprint);
+
+        if (state == ScreenClassifier.UNKNOWN) {
+            unknownCount++;
+            if (fingerprint != lastUnknown) {
+                // 同一个未知界面只记录一次，日志中的指纹可以直接加入状态
+                lastUnknown = fingerprint;
+                Log.d(TAG, "未识别的界面, 指纹: " + fingerprint);
+            }
+            return IDENTIFY_INTERVAL_MS;
+        }
+        lastUnknown = 0;
+        currentState = state;
+        ScriptProgram program = programs[state];
+        if (program == null) {
+            // 没有步骤的状态只用于识别，例如加载中的界面
+            return IDENTIFY_INTERVAL_MS;
+        }
+        dispatchCount++;
+        currentRun = executor.start(program, priority, share, options);
+        Log.d(TAG, "识别到界面: " + script.getScreenStates().get(state).getName());
+        return IDENTIFY_INTERVAL_MS;
+    }
+
+    /**
+     * 在采样线程上计算指纹，结果投递回调度线程。上一次采样还没返回时不重复请求
+     */
+    private void requestFingerprint() {
+        if (sampling) {
+            return;
+        }
+        final int generation = sampleGeneration;
+        sampling = sampleHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                long startTime = System.nanoTime();
+                final long fingerprint = source.currentFingerprint();
+                LatencyHistogram histogram = identifyHistogram;
+                if (histogram != null) {
+                    histogram.record((System.nanoTime() - startTime) / 1000);
+                }
+                scheduler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onFingerprint(generation, fingerprint);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onFingerprint(int generation, long fingerprint) {
+        if (generation != sampleGeneration) {
+            return;
+        }
+        sampling = false;
+        sampledFingerprint = fingerprint;
+        sampleFresh = true;
+        ClickScheduler.Run current = run;
+        if (current != null && currentRun == null) {
+            current.expedite();
+        }
+    }
+
+    public void stop() {
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                stopOnScheduler();
+            }
+        });
+    }
+
+    private void stopOnScheduler() {
+        ClickScheduler.Run current = run;
+        if (current == null) {
+            return;
+        }
+        current.cancel();
+        run = null;
+        sampleGeneration++;
+        sampling = false;
+        sampleFresh = false;
+        if (currentRun != null) {
+            currentRun.stop();
+            currentRun = null;
+        }
+        Log.d(TAG, "停止状态机: " + script.getName());
+    }
+
+    public boolean isRunning() {
+        return run != null;
+    }
+
+    /**
+     * 最近一次识别到的状态编号，还没有识别到时为 {@link ScreenClassifier#UNKNOWN}
+     */
+    public int getCurrentState() {
+        return currentState;
+    }
+
+    public long getDispatchCount() {
+        return dispatchCount;
+    }
+
+    public long getUnknownCount() {
+        return unknownCount;
+    }
+}
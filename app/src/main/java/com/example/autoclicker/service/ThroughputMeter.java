@@ -0,0 +1,68 @@
+package com.example.autoclicker.service;
+
+import android.os.SystemClock;
+
+/**
+ * 点击吞吐量统计：记录实际完成的点击数和耗时，计算每秒点击数
+ */
+public class ThroughputMeter {
+    private final String label;
+    private long startTime = 0;
+    private long endTime = 0;
+    private long taps = 0;
+    private long gestures = 0;
+
+    public ThroughputMeter(String label) {
+        this.label = label;
+    }
+
+    public void start() {
+        startTime = SystemClock.elapsedRealtime();
+        endTime = 0;
+        taps = 0;
+        gestures = 0;
+    }
+
+    public void stop() {
+        if (endTime == 0) {
+            endTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * 记录一个完成的手势
+     *
+     * @param tapCount 该手势包含的点击数
+     */
+    public void record(int tapCount) {
+        taps += tapCount;
+        gestures++;
+    }
+
+    public long getTaps() {
+        return taps;
+    }
+
+    public long getGestures() {
+        return gestures;
+    }
+
+    public long getElapsedMillis() {
+        if (startTime == 0) {
+            return 0;
+        }
+        long end = endTime != 0 ? endTime : SystemClock.elapsedRealtime();
+        return end - startTime;
+    }
+
+    public double getTapsPerSecond() {
+        long elapsed = getElapsedMillis();
+        return elapsed > 0 ? taps * 1000.0 / elapsed : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %.1f 次/秒 (%d 次点击, %d 个手势, %d ms)",
+            label, getTapsPerSecond(), taps, gestures, getElapsedMillis());
+    }
+}
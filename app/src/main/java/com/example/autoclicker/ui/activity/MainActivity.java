@@ -26,6 +26,8 @@ import androidx.core.content.ContextCompat;
 import com.example.autoclicker.R;
 import com.example.autoclicker.service.AutoClickService;
 import com.example.autoclicker.service.EnhancedFloatingWindowService;
+import com.example.autoclicker.utils.ElementFuture;
+import com.example.autoclicker.utils.SmartElementFinder;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -469,12 +471,36 @@ public class MainActivity extends AppCompatActivity {
                 addClickPointWithCoordinate(lastX, lastY);
                 
                 Toast.makeText(this, "已获取坐标: X=" + (int)lastX + ", Y=" + (int)lastY, Toast.LENGTH_SHORT).show();
+                showElementAt(lastX, lastY);
                 return true;
             }
             return false;
         });
     }
     
+    /**
+     * 提示坐标处的控件，方便确认点击点落在了想要的按钮上
+     */
+    private void showElementAt(float x, float y) {
+        AutoClickService service = AutoClickService.getInstance();
+        if (service == null) {
+            return;
+        }
+        service.findElementAtAsync(x, y).addCallback(new ElementFuture.Callback<SmartElementFinder.ElementInfo>() {
+            @Override
+            public void onSuccess(SmartElementFinder.ElementInfo info) {
+                String name = !info.getText().isEmpty() ? info.getText()
+                    : !info.getContentDescription().isEmpty() ? info.getContentDescription() : info.getClassName();
+                Toast.makeText(MainActivity.this, "坐标处的元素: " + name, Toast.LENGTH_SHORT).show();
+            }
+
+            @Override
+            public void onFailure(String reason) {
+                // 坐标处没有控件时只保留坐标
+            }
+        }, this::runOnUiThread);
+    }
+
     private void addClickPointWithCoordinate(float x, float y) {
         pointCounter++;
         
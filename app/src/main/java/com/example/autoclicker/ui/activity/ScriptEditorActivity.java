@@ -5,9 +5,11 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.provider.Settings;
 import android.view.View;
+import android.view.accessibility.AccessibilityEvent;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.widget.ListView;
@@ -22,6 +24,7 @@ import com.example.autoclicker.R;
 import com.example.autoclicker.adapter.StepAdapter;
 import com.example.autoclicker.model.ClickScript;
 import com.example.autoclicker.service.AutoClickService;
+import com.example.autoclicker.utils.ElementFuture;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -43,6 +46,12 @@ public class ScriptEditorActivity extends AppCompatActivity {
     private EditText etClickInterval;
     private EditText etRandomDelay;
     private EditText etClickDuration;
+    private EditText etPositionJitter;
+    private EditText etRandomSeed;
+    private CheckBox cbCurvedSwipe;
+    private CheckBox cbLoop;
+    private CheckBox cbEventPacing;
+    private EditText etWaitPackage;
 
     public static Intent createIntent(Activity activity, String scriptName) {
         Intent intent = new Intent(activity, ScriptEditorActivity.class);
@@ -71,6 +80,12 @@ public class ScriptEditorActivity extends AppCompatActivity {
         etClickInterval = findViewById(R.id.et_click_interval);
         etRandomDelay = findViewById(R.id.et_random_delay);
         etClickDuration = findViewById(R.id.et_click_duration);
+        etPositionJitter = findViewById(R.id.et_position_jitter);
+        etRandomSeed = findViewById(R.id.et_random_seed);
+        cbCurvedSwipe = findViewById(R.id.cb_curved_swipe);
+        cbLoop = findViewById(R.id.cb_loop);
+        cbEventPacing = findViewById(R.id.cb_event_pacing);
+        etWaitPackage = findViewById(R.id.et_wait_package);
         
         stepListView = findViewById(R.id.lv_steps);
         stepList = new ArrayList<>();
@@ -103,6 +118,12 @@ public class ScriptEditorActivity extends AppCompatActivity {
         etClickInterval.setText(String.valueOf(currentScript.getClickInterval()));
         etRandomDelay.setText(String.valueOf(currentScript.getRandomDelay()));
         etClickDuration.setText(String.valueOf(currentScript.getClickDuration()));
+        etPositionJitter.setText(String.valueOf((int) currentScript.getPositionJitter()));
+        etRandomSeed.setText(String.valueOf(currentScript.getRandomSeed()));
+        cbCurvedSwipe.setChecked(currentScript.isCurvedSwipe());
+        cbLoop.setChecked(currentScript.isLoop());
+        cbEventPacing.setChecked(currentScript.getWaitEventTypes() != 0);
+        etWaitPackage.setText(currentScript.getWaitPackage());
     }
 
     private void loadScriptSteps() {
@@ -312,12 +333,26 @@ public class ScriptEditorActivity extends AppCompatActivity {
             long clickInterval = Long.parseLong(etClickInterval.getText().toString());
             long randomDelay = Long.parseLong(etRandomDelay.getText().toString());
             long clickDuration = Long.parseLong(etClickDuration.getText().toString());
+            int positionJitter = Integer.parseInt(etPositionJitter.getText().toString());
+            long randomSeed = Long.parseLong(etRandomSeed.getText().toString());
             
             currentScript.setName(name);
             currentScript.setRepeatCount(repeatCount);
             currentScript.setClickInterval(clickInterval);
             currentScript.setRandomDelay(randomDelay);
             currentScript.setClickDuration(clickDuration);
+            currentScript.setPositionJitter(positionJitter);
+            currentScript.setRandomSeed(randomSeed);
+            currentScript.setCurvedSwipe(cbCurvedSwipe.isChecked());
+            currentScript.setLoop(cbLoop.isChecked());
+            // 勾选后默认等待窗口切换或内容变化事件，超时按点击间隔执行
+            if (!cbEventPacing.isChecked()) {
+                currentScript.setWaitEventTypes(0);
+            } else if (currentScript.getWaitEventTypes() == 0) {
+                currentScript.setWaitEventTypes(AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED
+                    | AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED);
+            }
+            currentScript.setWaitPackage(etWaitPackage.getText().toString().trim());
             
             // 这里应该保存到存储中，简化处理
             Toast.makeText(this, "脚本已保存: " + name, Toast.LENGTH_SHORT).show();
@@ -372,7 +407,7 @@ public class ScriptEditorActivity extends AppCompatActivity {
         layout.addView(titleText);
         
         Spinner spSearchType = new Spinner(this);
-        String[] searchTypes = {"按文本查找", "按ID查找", "按内容描述查找"};
+        String[] searchTypes = {"按文本查找", "按ID查找", "按内容描述查找", "按选择器查找"};
         ArrayAdapter<String> adapter = new ArrayAdapter<>(
             this, android.R.layout.simple_spinner_item, searchTypes);
         adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
@@ -414,61 +449,48 @@ public class ScriptEditorActivity extends AppCompatActivity {
             return;
         }
         
+        final ElementFuture<AutoClickService.ClickResult> future;
+        final String label;
         switch (searchType) {
             case 0:
-                service.smartClickByText(searchText, new AutoClickService.SmartClickCallback() {
-                    @Override
-                    public void onSuccess(float x, float y, String info) {
-                        ClickScript.ClickStep step = new ClickScript.ClickStep(
-                            x, y, ClickScript.StepType.CLICK, 0, "智能点击: " + searchText);
-                        addStep(step);
-                        runOnUiThread(() -> Toast.makeText(ScriptEditorActivity.this, 
-                            "找到元素: " + info, Toast.LENGTH_SHORT).show());
-                    }
-
-                    @Override
-                    public void onFailure(String reason) {
-                        runOnUiThread(() -> Toast.makeText(ScriptEditorActivity.this, 
-                            "未找到元素: " + reason, Toast.LENGTH_SHORT).show());
-                    }
-                });
+                future = service.smartClickByTextAsync(searchText);
+                label = "智能点击: ";
                 break;
             case 1:
-                service.smartClickById(searchText, new AutoClickService.SmartClickCallback() {
-                    @Override
-                    public void onSuccess(float x, float y, String info) {
-                        ClickScript.ClickStep step = new ClickScript.ClickStep(
-                            x, y, ClickScript.StepType.CLICK, 0, "智能点击(ID): " + searchText);
-                        addStep(step);
-                        runOnUiThread(() -> Toast.makeText(ScriptEditorActivity.this, 
-                            "找到元素: " + info, Toast.LENGTH_SHORT).show());
-                    }
-
-                    @Override
-                    public void onFailure(String reason) {
-                        runOnUiThread(() -> Toast.makeText(ScriptEditorActivity.this, 
-                            "未找到元素: " + reason, Toast.LENGTH_SHORT).show());
-                    }
-                });
+                future = service.smartClickByIdAsync(searchText);
+                label = "智能点击(ID): ";
                 break;
             case 2:
-                service.smartClickByContentDescription(searchText, new AutoClickService.SmartClickCallback() {
-                    @Override
-                    public void onSuccess(float x, float y, String info) {
-                        ClickScript.ClickStep step = new ClickScript.ClickStep(
-                            x, y, ClickScript.StepType.CLICK, 0, "智能点击(描述): " + searchText);
-                        addStep(step);
-                        runOnUiThread(() -> Toast.makeText(ScriptEditorActivity.this, 
-                            "找到元素: " + info, Toast.LENGTH_SHORT).show());
-                    }
-
-                    @Override
-                    public void onFailure(String reason) {
-                        runOnUiThread(() -> Toast.makeText(ScriptEditorActivity.this, 
-                            "未找到元素: " + reason, Toast.LENGTH_SHORT).show());
-                    }
-                });
+                future = service.smartClickByContentDescriptionAsync(searchText);
+                label = "智能点击(描述): ";
+                break;
+            case 3:
+                future = service.smartClickBySelectorAsync(searchText);
+                label = "智能点击(选择器): ";
                 break;
+            default:
+                return;
         }
+
+        future.addCallback(new ElementFuture.Callback<AutoClickService.ClickResult>() {
+            @Override
+            public void onSuccess(AutoClickService.ClickResult result) {
+                ClickScript.ClickStep step = new ClickScript.ClickStep(
+                    result.x, result.y, ClickScript.StepType.CLICK, 0, label + searchText);
+                if (searchType == 3) {
+                    // 选择器步骤执行时重新定位元素，界面布局变化后仍能点中
+                    step.setSelector(searchText);
+                }
+                addStep(step);
+                Toast.makeText(ScriptEditorActivity.this,
+                    "找到元素: " + result.info, Toast.LENGTH_SHORT).show();
+            }
+
+            @Override
+            public void onFailure(String reason) {
+                Toast.makeText(ScriptEditorActivity.this,
+                    "未找到元素: " + reason, Toast.LENGTH_SHORT).show();
+            }
+        }, this::runOnUiThread);
     }
 }
\ No newline at end of file
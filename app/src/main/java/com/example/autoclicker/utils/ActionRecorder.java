@@ -11,6 +11,8 @@ import android.util.Log;
 import android.view.accessibility.AccessibilityEvent;
 
 import com.example.autoclicker.model.ClickScript;
+import com.example.autoclicker.service.GestureDispatcher;
+import com.example.autoclicker.service.ScriptExecutor;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -24,12 +26,28 @@ public class ActionRecorder {
     private long lastActionTime = 0;
     private AccessibilityService service;
     private Handler handler = new Handler(Looper.getMainLooper());
+    private final GestureDispatcher gestureDispatcher;
+    private final ScriptExecutor executor;
     
     private static final long MIN_ACTION_INTERVAL = 100;
     private static final float MOVE_THRESHOLD = 10.0f;
 
     public ActionRecorder(AccessibilityService service) {
+        this(service, new GestureDispatcher(service, null), null);
+    }
+
+    /**
+     * 回放的手势经执行器分发，与运行中的脚本仲裁手势通道，不会取消脚本的在途手势
+     */
+    public ActionRecorder(AccessibilityService service, ScriptExecutor executor) {
+        this(service, null, executor);
+    }
+
+    private ActionRecorder(AccessibilityService service, GestureDispatcher gestureDispatcher,
+            ScriptExecutor executor) {
         this.service = service;
+        this.gestureDispatcher = gestureDispatcher;
+        this.executor = executor;
     }
 
     public void startRecording() {
@@ -250,6 +268,8 @@ public class ActionRecorder {
 
     public ClickScript convertToScript(String scriptName) {
         ClickScript script = new ClickScript(scriptName);
+        // 录制的操作回放一遍，需要循环时在编辑器中设置
+        script.setRepeatCount(1);
         
         for (RecordedAction action : recordedActions) {
             ClickScript.ClickStep step = convertActionToStep(action);
@@ -361,7 +381,7 @@ public class ActionRecorder {
             builder.addStroke(new GestureDescription.StrokeDescription(path, 0, 100));
             
             GestureDescription gesture = builder.build();
-            service.dispatchGesture(gesture, null, null);
+            dispatch(gesture, 100);
         }
     }
 
@@ -374,7 +394,7 @@ public class ActionRecorder {
             builder.addStroke(new GestureDescription.StrokeDescription(path, 0, duration));
             
             GestureDescription gesture = builder.build();
-            service.dispatchGesture(gesture, null, null);
+            dispatch(gesture, duration);
         }
     }
 
@@ -388,7 +408,15 @@ public class ActionRecorder {
             builder.addStroke(new GestureDescription.StrokeDescription(path, 0, duration));
             
             GestureDescription gesture = builder.build();
-            service.dispatchGesture(gesture, null, null);
+            dispatch(gesture, duration);
+        }
+    }
+
+    private void dispatch(GestureDescription gesture, long duration) {
+        if (executor != null) {
+            executor.dispatchOneShot(gesture, duration, null);
+        } else {
+            gestureDispatcher.dispatch(gesture);
         }
     }
 
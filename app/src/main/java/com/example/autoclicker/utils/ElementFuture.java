@@ -0,0 +1,385 @@
+package com.example.autoclicker.utils;
+
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 元素查找和智能点击的异步结果
+ *
+ * 最低支持的系统版本没有CompletableFuture，这里实现项目需要的部分：
+ * 完成/失败/取消、超时、回调（可以指定执行线程）、阻塞等待，以及then、allOf、anyOf组合。
+ * 失败原因使用字符串，与原有回调接口的onFailure/onElementNotFound保持一致。
+ */
+public final class ElementFuture<T> {
+    public static final String REASON_CANCELLED = "已取消";
+    public static final String REASON_TIMEOUT = "超时";
+
+    private static final int PENDING = 0;
+    private static final int SUCCEEDED = 1;
+    private static final int FAILED = 2;
+    private static final int CANCELLED = 3;
+
+    public interface Callback<T> {
+        void onSuccess(T value);
+        void onFailure(String reason);
+    }
+
+    /**
+     * 上一步成功后启动的下一步
+     */
+    public interface Step<T, R> {
+        ElementFuture<R> apply(T value);
+    }
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final Object lock = new Object();
+    private int state = PENDING;
+    private T value;
+    private String failure;
+    private List<Runnable> listeners = new ArrayList<>();
+    private List<Runnable> cancelHooks = new ArrayList<>();
+
+    public static <T> ElementFuture<T> succeeded(T value) {
+        ElementFuture<T> future = new ElementFuture<>();
+        future.complete(value);
+        return future;
+    }
+
+    public static <T> ElementFuture<T> failed(String reason) {
+        ElementFuture<T> future = new ElementFuture<>();
+        future.fail(reason);
+        return future;
+    }
+
+    public boolean complete(T result) {
+        return finish(SUCCEEDED, result, null);
+    }
+
+    public boolean fail(String reason) {
+        return finish(FAILED, null, reason);
+    }
+
+    /**
+     * 取消，尚未开始的查找不再执行，组合出的结果会把取消传递给上游
+     */
+    public boolean cancel() {
+        List<Runnable> hooks;
+        synchronized (lock) {
+            if (state != PENDING) {
+                return false;
+            }
+            hooks = cancelHooks;
+        }
+        if (!finish(CANCELLED, null, REASON_CANCELLED)) {
+            return false;
+        }
+        for (Runnable hook : hooks) {
+            hook.run();
+        }
+        return true;
+    }
+
+    public boolean isDone() {
+        synchronized (lock) {
+            return state != PENDING;
+        }
+    }
+
+    public boolean isCancelled() {
+        synchronized (lock) {
+            return state == CANCELLED;
+        }
+    }
+
+    /**
+     * 取消时执行的操作，已经结束时不执行
+     */
+    public void onCancel(Runnable hook) {
+        synchronized (lock) {
+            if (state == PENDING) {
+                cancelHooks.add(hook);
+            }
+        }
+    }
+
+    /**
+     * 在完成的线程上回调，已经结束时立即回调
+     */
+    public ElementFuture<T> addCallback(Callback<? super T> callback) {
+        return addCallback(callback, DIRECT);
+    }
+
+    /**
+     * 在指定的Executor上回调，例如Activity的runOnUiThread
+     */
+    public ElementFuture<T> addCallback(final Callback<? super T> callback, final Executor executor) {
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(callback);
+                    }
+                });
+            }
+        };
+        synchronized (lock) {
+            if (state == PENDING) {
+                listeners.add(listener);
+                return this;
+            }
+        }
+        listener.run();
+        return this;
+    }
+
+    /**
+     * 阻塞等待结果，不能在主线程调用
+     *
+     * @throws TimeoutException 超时
+     * @throws IllegalStateException 失败或被取消，消息为失败原因
+     */
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            while (state == PENDING) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TimeoutException(REASON_TIMEOUT);
+                }
+                TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+            }
+            if (state != SUCCEEDED) {
+                throw new IllegalStateException(failure);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * 超过时间没有结束时以超时失败，并取消上游
+     */
+    public ElementFuture<T> withTimeout(long timeoutMs, Handler handler) {
+        final Runnable timeout = new Runnable() {
+            @Override
+            public void run() {
+                if (finish(FAILED, null, REASON_TIMEOUT)) {
+                    runCancelHooks();
+                }
+            }
+        };
+        handler.postDelayed(timeout, timeoutMs);
+        final Handler timeoutHandler = handler;
+        synchronized (lock) {
+            if (state == PENDING) {
+                listeners.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        timeoutHandler.removeCallbacks(timeout);
+                    }
+                });
+                return this;
+            }
+        }
+        handler.removeCallbacks(timeout);
+        return this;
+    }
+
+    /**
+     * 成功后启动下一步，任一步失败或取消时结果失败
+     */
+    public <R> ElementFuture<R> then(final Step<? super T, R> step) {
+        final ElementFuture<R> result = new ElementFuture<>();
+        result.onCancel(new Runnable() {
+            @Override
+            public void run() {
+                cancel();
+            }
+        });
+        addCallback(new Callback<T>() {
+            @Override
+            public void onSuccess(T value) {
+                if (result.isDone()) {
+                    return;
+                }
+                final ElementFuture<R> next = step.apply(value);
+                result.onCancel(new Runnable() {
+                    @Override
+                    public void run() {
+                        next.cancel();
+                    }
+                });
+                // 在apply期间被取消或超时时钩子已经不会执行，由这里取消下一步
+                if (result.isDone()) {
+                    next.cancel();
+                    return;
+                }
+                next.addCallback(new Callback<R>() {
+                    @Override
+                    public void onSuccess(R nextValue) {
+                        result.complete(nextValue);
+                    }
+
+                    @Override
+                    public void onFailure(String reason) {
+                        result.fail(reason);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(String reason) {
+                result.fail(reason);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 全部成功时按顺序返回所有结果，任一个失败时结果失败并取消其余的
+     */
+    public static <T> ElementFuture<List<T>> allOf(final List<ElementFuture<T>> futures) {
+        final ElementFuture<List<T>> result = new ElementFuture<>();
+        final List<T> values = new ArrayList<>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            values.add(null);
+        }
+        if (futures.isEmpty()) {
+            result.complete(values);
+            return result;
+        }
+        final int[] remaining = {futures.size()};
+        cancelAllOnCancel(result, futures);
+        for (int i = 0; i < futures.size(); i++) {
+            final int index = i;
+            futures.get(i).addCallback(new Callback<T>() {
+                @Override
+                public void onSuccess(T value) {
+                    boolean done;
+                    synchronized (values) {
+                        values.set(index, value);
+                        done = --remaining[0] == 0;
+                    }
+                    if (done) {
+                        result.complete(values);
+                    }
+                }
+
+                @Override
+                public void onFailure(String reason) {
+                    if (result.fail(reason)) {
+                        cancelAll(futures);
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * 返回第一个成功的结果并取消其余的，全部失败时以最后一个失败原因失败
+     */
+    public static <T> ElementFuture<T> anyOf(final List<ElementFuture<T>> futures) {
+        final ElementFuture<T> result = new ElementFuture<>();
+        if (futures.isEmpty()) {
+            result.fail("没有可执行的查找");
+            return result;
+        }
+        final int[] remaining = {futures.size()};
+        cancelAllOnCancel(result, futures);
+        for (ElementFuture<T> future : futures) {
+            future.addCallback(new Callback<T>() {
+                @Override
+                public void onSuccess(T value) {
+                    if (result.complete(value)) {
+                        cancelAll(futures);
+                    }
+                }
+
+                @Override
+                public void onFailure(String reason) {
+                    boolean last;
+                    synchronized (remaining) {
+                        last = --remaining[0] == 0;
+                    }
+                    if (last) {
+                        result.fail(reason);
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    private static <T> void cancelAllOnCancel(ElementFuture<?> result, final List<ElementFuture<T>> futures) {
+        result.onCancel(new Runnable() {
+            @Override
+            public void run() {
+                cancelAll(futures);
+            }
+        });
+    }
+
+    private static <T> void cancelAll(List<ElementFuture<T>> futures) {
+        for (ElementFuture<T> future : futures) {
+            future.cancel();
+        }
+    }
+
+    private void runCancelHooks() {
+        List<Runnable> hooks;
+        synchronized (lock) {
+            hooks = cancelHooks;
+        }
+        for (Runnable hook : hooks) {
+            hook.run();
+        }
+    }
+
+    private boolean finish(int newState, T result, String reason) {
+        List<Runnable> pending;
+        synchronized (lock) {
+            if (state != PENDING) {
+                return false;
+            }
+            state = newState;
+            value = result;
+            failure = reason;
+            pending = listeners;
+            listeners = null;
+            lock.notifyAll();
+        }
+        for (Runnable listener : pending) {
+            listener.run();
+        }
+        return true;
+    }
+
+    private void deliver(Callback<? super T> callback) {
+        int current;
+        T result;
+        String reason;
+        synchronized (lock) {
+            current = state;
+            result = value;
+            reason = failure;
+        }
+        if (current == SUCCEEDED) {
+            callback.onSuccess(result);
+        } else {
+            callback.onFailure(reason);
+        }
+    }
+}
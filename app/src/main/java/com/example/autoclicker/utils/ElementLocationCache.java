@@ -0,0 +1,127 @@
+package com.example.autoclicker.utils;
+
+import android.graphics.Rect;
+import android.util.Log;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * 元素位置缓存
+ *
+ * 按查找条件缓存上次找到的节点。再次查找同一条件时先校验缓存：刷新节点（一次跨进程调用），
+ * 确认节点仍然存在、对用户可见、边界不为空、仍然满足条件（例如文本仍包含查找内容），通过后直接使用，
+ * 只有校验失败时才完整查找并打分。循环中反复点击同一个按钮时，稳定状态下每次查找只有一次刷新的开销。
+ * 校验只确认缓存的节点仍然有效，不保证界面上没有出现得分更高的新节点。
+ *
+ * 缓存持有节点的副本，按最近使用淘汰，淘汰和清空时回收。
+ */
+public class ElementLocationCache {
+    private static final String TAG = "ElementLocationCache";
+
+    public static final int DEFAULT_CAPACITY = 32;
+
+    private final int capacity;
+    private final LinkedHashMap<SmartElementFinder.Selector, AccessibilityNodeInfo> entries;
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long staleCount = 0;
+
+    public ElementLocationCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ElementLocationCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * 取缓存的节点并校验
+     *
+     * @param outBounds 命中时写入节点当前的边界
+     * @return 命中时返回节点的副本，在锁内复制，归调用方所有，之后其他线程的put不影响它；
+     *         未缓存或校验失败时返回null
+     */
+    public synchronized AccessibilityNodeInfo get(SmartElementFinder.Selector selector, Rect outBounds) {
+        AccessibilityNodeInfo node = entries.get(selector);
+        if (node == null) {
+            missCount++;
+            return null;
+        }
+        if (!isValid(selector, node, outBounds)) {
+            entries.remove(selector);
+            node.recycle();
+            staleCount++;
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return AccessibilityNodeInfo.obtain(node);
+    }
+
+    private static boolean isValid(SmartElementFinder.Selector selector, AccessibilityNodeInfo node, Rect outBounds) {
+        // 视图已经移除时refresh返回false
+        if (!node.refresh() || !node.isVisibleToUser()) {
+            return false;
+        }
+        node.getBoundsInScreen(outBounds);
+        if (outBounds.width() <= 0 || outBounds.height() <= 0) {
+            return false;
+        }
+        return selector.matches(node, node.getText(), node.getContentDescription(),
+            node.getClassName(), node.getViewIdResourceName());
+    }
+
+    /**
+     * 记录完整查找的结果，保存节点的副本，调用方仍然持有原节点
+     */
+    public synchronized void put(SmartElementFinder.Selector selector, AccessibilityNodeInfo node) {
+        AccessibilityNodeInfo copy = AccessibilityNodeInfo.obtain(node);
+        AccessibilityNodeInfo previous = entries.put(selector, copy);
+        if (previous != null) {
+            previous.recycle();
+        }
+        if (entries.size() > capacity) {
+            Iterator<AccessibilityNodeInfo> eldest = entries.values().iterator();
+            eldest.next().recycle();
+            eldest.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        for (AccessibilityNodeInfo node : entries.values()) {
+            node.recycle();
+        }
+        entries.clear();
+        Log.d(TAG, "清空位置缓存");
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * 命中率，还没有查找时为0
+     */
+    public synchronized double getHitRate() {
+        long total = hitCount + missCount;
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    public synchronized void resetStats() {
+        hitCount = 0;
+        missCount = 0;
+        staleCount = 0;
+    }
+
+    public synchronized String getSummary() {
+        return String.format("位置缓存: 命中 %d, 未命中 %d (失效 %d), 命中率 %.1f%%",
+            hitCount, missCount, staleCount, getHitRate() * 100);
+    }
+}
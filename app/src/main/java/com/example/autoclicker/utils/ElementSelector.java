@@ -0,0 +1,548 @@
+package com.example.autoclicker.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * 元素选择器
+ *
+ * 语法接近CSS，由若干层组成，层之间用空格表示后代、用 {@code >} 表示直接子元素：
+ * <pre>
+ *   ListView > LinearLayout:index(0) [text~="^第\d+项$"]
+ *   Button[text="确定" i][clickable]:in(0,1200,1080,2400)
+ *   [id="com.example:id/more"]
+ * </pre>
+ * 每层可以有类名（完整类名或最后一段，{@code *} 表示任意）、属性条件和位置条件：
+ * <ul>
+ *   <li>属性：text、desc、id、class 支持 {@code = *= ^= $= ~=}（正则，部分匹配即可）和 {@code !=}，
+ *       值后加 {@code i} 不区分大小写；只写属性名表示不为空。
+ *       clickable、enabled、focusable、visible 写成 {@code [clickable]} 或 {@code [clickable=false]}</li>
+ *   <li>{@code :index(n)} 在父元素中的位置（从0开始）</li>
+ *   <li>{@code :in(l,t,r,b)} 边界完全在矩形内，{@code :at(x,y)} 边界包含该点</li>
+ * </ul>
+ * 解析一次后可以反复使用。匹配直接读取 {@link TreeSnapshot} 的槽位数组，从最右一层开始向上检查祖先，
+ * 正则复用预先创建的Matcher，匹配过程不分配对象；同一个选择器不能在多个线程上同时匹配，
+ * 快照查询时会对选择器加锁。
+ */
+public final class ElementSelector {
+    private static final int ATTR_TEXT = 0;
+    private static final int ATTR_DESC = 1;
+    private static final int ATTR_ID = 2;
+    private static final int ATTR_CLASS = 3;
+    private static final int ATTR_CLICKABLE = 4;
+    private static final int ATTR_ENABLED = 5;
+    private static final int ATTR_FOCUSABLE = 6;
+    private static final int ATTR_VISIBLE = 7;
+    private static final String[] ATTR_NAMES = {
+        "text", "desc", "id", "class", "clickable", "enabled", "focusable", "visible"
+    };
+
+    private static final int OP_PRESENT = 0;
+    private static final int OP_EQUALS = 1;
+    private static final int OP_CONTAINS = 2;
+    private static final int OP_PREFIX = 3;
+    private static final int OP_SUFFIX = 4;
+    private static final int OP_REGEX = 5;
+    private static final int OP_NOT_EQUALS = 6;
+
+    private static final int COMBINATOR_DESCENDANT = 0;
+    private static final int COMBINATOR_CHILD = 1;
+
+    private final String source;
+    private final Compound[] compounds;
+
+    private ElementSelector(String source, Compound[] compounds) {
+        this.source = source;
+        this.compounds = compounds;
+    }
+
+    /**
+     * @throws IllegalArgumentException 语法错误，消息中包含出错的位置
+     */
+    public static ElementSelector parse(String source) {
+        if (source == null || source.trim().isEmpty()) {
+            throw new IllegalArgumentException("选择器为空");
+        }
+        return new Parser(source).parse();
+    }
+
+    /**
+     * 按文本值生成带引号和转义的属性值，用于拼接选择器
+     */
+    public static String quote(String value) {
+        StringBuilder builder = new StringBuilder(value.length() + 2);
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\');
+            }
+            builder.append(c);
+        }
+        return builder.append('"').toString();
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    /**
+     * 快照槽位上的节点是否匹配，调用方持有快照的锁
+     */
+    boolean matches(TreeSnapshot snapshot, int slot) {
+        return matchFrom(snapshot, compounds.length - 1, slot);
+    }
+
+    private boolean matchFrom(TreeSnapshot snapshot, int level, int slot) {
+        if (!compounds[level].matches(snapshot, slot)) {
+            return false;
+        }
+        if (level == 0) {
+            return true;
+        }
+        int ancestor = snapshot.parentOf(slot);
+        if (compounds[level].combinator == COMBINATOR_CHILD) {
+            return ancestor != TreeSnapshot.NONE && matchFrom(snapshot, level - 1, ancestor);
+        }
+        for (; ancestor != TreeSnapshot.NONE; ancestor = snapshot.parentOf(ancestor)) {
+            if (matchFrom(snapshot, level - 1, ancestor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 最右一层中可以用索引缩小范围的条件，没有时返回null，需要遍历整个快照
+     */
+    Predicate getIndexablePredicate() {
+        for (Predicate predicate : compounds[compounds.length - 1].predicates) {
+            if (predicate.isIndexable()) {
+                return predicate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 选择器中的一层
+     */
+    private static final class Compound {
+        String typeName;
+        String typeSuffix;
+        Predicate[] predicates;
+        int index = -1;
+        int[] within;
+        int[] point;
+        int combinator = COMBINATOR_DESCENDANT;
+
+        boolean matches(TreeSnapshot snapshot, int slot) {
+            if (typeName != null) {
+                String className = snapshot.classNameOf(slot);
+                if (className == null || !(className.equals(typeName) || className.endsWith(typeSuffix))) {
+                    return false;
+                }
+            }
+            for (Predicate predicate : predicates) {
+                if (!predicate.matches(snapshot, slot)) {
+                    return false;
+                }
+            }
+            if (index >= 0 && snapshot.indexInParent(slot) != index) {
+                return false;
+            }
+            if (within != null && (snapshot.leftOf(slot) < within[0] || snapshot.topOf(slot) < within[1]
+                    || snapshot.rightOf(slot) > within[2] || snapshot.bottomOf(slot) > within[3])) {
+                return false;
+            }
+            if (point != null && (point[0] < snapshot.leftOf(slot) || point[0] >= snapshot.rightOf(slot)
+                    || point[1] < snapshot.topOf(slot) || point[1] >= snapshot.bottomOf(slot))) {
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 一个属性条件
+     */
+    static final class Predicate {
+        final int attribute;
+        final int op;
+        final String value;
+        final boolean ignoreCase;
+        final boolean flagValue;
+        private final Matcher matcher;
+
+        Predicate(int attribute, int op, String value, boolean ignoreCase, boolean flagValue, Matcher matcher) {
+            this.attribute = attribute;
+            this.op = op;
+            this.value = value;
+            this.ignoreCase = ignoreCase;
+            this.flagValue = flagValue;
+            this.matcher = matcher;
+        }
+
+        boolean isIndexable() {
+            return attribute <= ATTR_CLASS
+                && (op == OP_EQUALS || op == OP_CONTAINS || op == OP_PREFIX || op == OP_SUFFIX);
+        }
+
+        /**
+         * 索引字段，与 {@link TreeIndex} 的FIELD_*对应
+         */
+        int indexField() {
+            switch (attribute) {
+                case ATTR_TEXT:
+                    return TreeIndex.FIELD_TEXT;
+                case ATTR_DESC:
+                    return TreeIndex.FIELD_DESCRIPTION;
+                case ATTR_ID:
+                    return TreeIndex.FIELD_VIEW_ID;
+                default:
+                    return TreeIndex.FIELD_CLASS_NAME;
+            }
+        }
+
+        /**
+         * 索引查询方式，索引只给出候选，结果仍由 {@link #matches} 校验
+         */
+        int indexKind() {
+            if (op == OP_EQUALS) {
+                return TreeSnapshot.QUERY_EXACT;
+            }
+            // 前缀索引的键从词首开始，以符号开头的值只能按子串查候选
+            if (op == OP_PREFIX && (attribute == ATTR_TEXT || attribute == ATTR_DESC)
+                    && !value.isEmpty() && Character.isLetterOrDigit(value.charAt(0))) {
+                return TreeSnapshot.QUERY_PREFIX;
+            }
+            return TreeSnapshot.QUERY_CONTAINS;
+        }
+
+        boolean matches(TreeSnapshot snapshot, int slot) {
+            switch (attribute) {
+                case ATTR_TEXT:
+                    return matchString(snapshot.textOf(slot));
+                case ATTR_DESC:
+                    return matchString(snapshot.descriptionOf(slot));
+                case ATTR_ID:
+                    return matchString(snapshot.viewIdOf(slot));
+                case ATTR_CLASS:
+                    return matchString(snapshot.classNameOf(slot));
+                case ATTR_CLICKABLE:
+                    return snapshot.hasFlag(slot, TreeSnapshot.FLAG_CLICKABLE) == flagValue;
+                case ATTR_ENABLED:
+                    return snapshot.hasFlag(slot, TreeSnapshot.FLAG_ENABLED) == flagValue;
+                case ATTR_FOCUSABLE:
+                    return snapshot.hasFlag(slot, TreeSnapshot.FLAG_FOCUSABLE) == flagValue;
+                default:
+                    return snapshot.hasFlag(slot, TreeSnapshot.FLAG_VISIBLE) == flagValue;
+            }
+        }
+
+        private boolean matchString(String actual) {
+            if (op == OP_PRESENT) {
+                return actual != null && !actual.isEmpty();
+            }
+            if (actual == null) {
+                return op == OP_NOT_EQUALS;
+            }
+            int length = value.length();
+            switch (op) {
+                case OP_EQUALS:
+                    return ignoreCase ? actual.equalsIgnoreCase(value) : actual.equals(value);
+                case OP_NOT_EQUALS:
+                    return !(ignoreCase ? actual.equalsIgnoreCase(value) : actual.equals(value));
+                case OP_PREFIX:
+                    return actual.regionMatches(ignoreCase, 0, value, 0, length);
+                case OP_SUFFIX:
+                    return actual.regionMatches(ignoreCase, actual.length() - length, value, 0, length);
+                case OP_CONTAINS:
+                    for (int i = 0; i <= actual.length() - length; i++) {
+                        if (actual.regionMatches(ignoreCase, i, value, 0, length)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                case OP_REGEX:
+                    return matcher.reset(actual).find();
+                default:
+                    return false;
+            }
+        }
+    }
+
+    private static final class Parser {
+        private final String source;
+        private int pos = 0;
+
+        Parser(String source) {
+            this.source = source;
+        }
+
+        ElementSelector parse() {
+            List<Compound> compounds = new ArrayList<>();
+            skipSpaces();
+            compounds.add(parseCompound());
+            while (true) {
+                boolean spaced = skipSpaces();
+                if (pos >= source.length()) {
+                    break;
+                }
+                int combinator = COMBINATOR_DESCENDANT;
+                if (peek() == '>') {
+                    pos++;
+                    skipSpaces();
+                    combinator = COMBINATOR_CHILD;
+                } else if (!spaced) {
+                    throw error("缺少空格或 >");
+                }
+                Compound compound = parseCompound();
+                compound.combinator = combinator;
+                compounds.add(compound);
+            }
+            return new ElementSelector(source, compounds.toArray(new Compound[0]));
+        }
+
+        private Compound parseCompound() {
+            Compound compound = new Compound();
+            List<Predicate> predicates = new ArrayList<>();
+            int start = pos;
+            if (pos < source.length() && peek() == '*') {
+                pos++;
+            } else {
+                String name = readName(true);
+                if (!name.isEmpty()) {
+                    compound.typeName = name;
+                    compound.typeSuffix = "." + name;
+                }
+            }
+            while (pos < source.length()) {
+                char c = peek();
+                if (c == '[') {
+                    predicates.add(parsePredicate());
+                } else if (c == ':') {
+                    parsePseudo(compound);
+                } else {
+                    break;
+                }
+            }
+            if (pos == start) {
+                throw error("缺少选择条件");
+            }
+            compound.predicates = predicates.toArray(new Predicate[0]);
+            return compound;
+        }
+
+        private Predicate parsePredicate() {
+            expect('[');
+            skipSpaces();
+            String name = readName(false);
+            int attribute = -1;
+            for (int i = 0; i < ATTR_NAMES.length; i++) {
+                if (ATTR_NAMES[i].equals(name)) {
+                    attribute = i;
+                }
+            }
+            if (attribute < 0) {
+                throw error("未知属性 \"" + name + "\"");
+            }
+            skipSpaces();
+            int op = readOperator();
+            boolean flag = attribute >= ATTR_CLICKABLE;
+            if (op == OP_PRESENT) {
+                expect(']');
+                return new Predicate(attribute, op, null, false, true, null);
+            }
+            skipSpaces();
+            String value = readValue();
+            skipSpaces();
+            boolean ignoreCase = false;
+            if (pos < source.length() && (peek() == 'i' || peek() == 'I')) {
+                pos++;
+                ignoreCase = true;
+                skipSpaces();
+            }
+            expect(']');
+
+            if (flag) {
+                if (op != OP_EQUALS || !("true".equals(value) || "false".equals(value))) {
+                    throw error("属性 " + name + " 只能写成 [" + name + "] 或 [" + name + "=true/false]");
+                }
+                return new Predicate(attribute, OP_PRESENT, null, false, "true".equals(value), null);
+            }
+            Matcher matcher = null;
+            if (op == OP_REGEX) {
+                try {
+                    matcher = Pattern.compile(value, ignoreCase
+                        ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0).matcher("");
+                } catch (PatternSyntaxException e) {
+                    throw error("正则表达式错误: " + e.getDescription());
+                }
+            }
+            return new Predicate(attribute, op, value, ignoreCase, true, matcher);
+        }
+
+        private void parsePseudo(Compound compound) {
+            expect(':');
+            String name = readName(false);
+            expect('(');
+            int[] args = readIntegers();
+            expect(')');
+            if ("index".equals(name) && args.length == 1 && args[0] >= 0) {
+                compound.index = args[0];
+            } else if ("in".equals(name) && args.length == 4) {
+                compound.within = args;
+            } else if ("at".equals(name) && args.length == 2) {
+                compound.point = args;
+            } else {
+                throw error("无效的位置条件 :" + name);
+            }
+        }
+
+        private int readOperator() {
+            if (pos >= source.length()) {
+                throw error("选择器不完整");
+            }
+            char c = peek();
+            if (c == ']') {
+                return OP_PRESENT;
+            }
+            if (c == '=') {
+                pos++;
+                return OP_EQUALS;
+            }
+            if (pos + 1 < source.length() && source.charAt(pos + 1) == '=') {
+                pos += 2;
+                switch (c) {
+                    case '*':
+                        return OP_CONTAINS;
+                    case '^':
+                        return OP_PREFIX;
+                    case '$':
+                        return OP_SUFFIX;
+                    case '~':
+                        return OP_REGEX;
+                    case '!':
+                        return OP_NOT_EQUALS;
+                    default:
+                        pos -= 2;
+                        break;
+                }
+            }
+            throw error("未知的运算符");
+        }
+
+        private String readValue() {
+            if (pos >= source.length()) {
+                throw error("缺少属性值");
+            }
+            char quote = peek();
+            if (quote != '"' && quote != '\'') {
+                int start = pos;
+                while (pos < source.length() && peek() != ']' && !Character.isWhitespace(peek())) {
+                    pos++;
+                }
+                if (pos == start) {
+                    throw error("缺少属性值");
+                }
+                return source.substring(start, pos);
+            }
+            pos++;
+            StringBuilder builder = new StringBuilder();
+            while (pos < source.length()) {
+                char c = source.charAt(pos++);
+                if (c == quote) {
+                    return builder.toString();
+                }
+                // 只转义引号和反斜杠本身，正则中的 \d 等保持原样
+                if (c == '\\' && pos < source.length()
+                        && (source.charAt(pos) == quote || source.charAt(pos) == '\\')) {
+                    c = source.charAt(pos++);
+                }
+                builder.append(c);
+            }
+            throw error("引号没有闭合");
+        }
+
+        private int[] readIntegers() {
+            List<Integer> values = new ArrayList<>();
+            while (true) {
+                skipSpaces();
+                int start = pos;
+                if (pos < source.length() && peek() == '-') {
+                    pos++;
+                }
+                while (pos < source.length() && Character.isDigit(peek())) {
+                    pos++;
+                }
+                if (start == pos) {
+                    throw error("缺少数字");
+                }
+                try {
+                    values.add(Integer.parseInt(source.substring(start, pos)));
+                } catch (NumberFormatException e) {
+                    throw error("数字无效");
+                }
+                skipSpaces();
+                if (pos < source.length() && peek() == ',') {
+                    pos++;
+                    continue;
+                }
+                break;
+            }
+            int[] result = new int[values.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = values.get(i);
+            }
+            return result;
+        }
+
+        /**
+         * @param className 类名中还可以有 . 和 $
+         */
+        private String readName(boolean className) {
+            int start = pos;
+            while (pos < source.length()) {
+                char c = peek();
+                if (Character.isLetterOrDigit(c) || c == '_' || (className && (c == '.' || c == '$'))) {
+                    pos++;
+                } else {
+                    break;
+                }
+            }
+            return source.substring(start, pos);
+        }
+
+        private boolean skipSpaces() {
+            int start = pos;
+            while (pos < source.length() && Character.isWhitespace(peek())) {
+                pos++;
+            }
+            return pos > start;
+        }
+
+        private char peek() {
+            return source.charAt(pos);
+        }
+
+        private void expect(char c) {
+            if (pos >= source.length() || peek() != c) {
+                throw error("缺少 " + c);
+            }
+            pos++;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("选择器第 " + (pos + 1) + " 个字符处" + message + ": " + source);
+        }
+    }
+}
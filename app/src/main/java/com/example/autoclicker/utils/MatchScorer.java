@@ -0,0 +1,123 @@
+package com.example.autoclicker.utils;
+
+import android.graphics.Rect;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+/**
+ * 查找结果的打分规则
+ *
+ * 文本完全相等（不区分大小写）得100分、包含得50分，内容描述分别得80分和40分，
+ * 再加上可点击20分、可用10分、有可见区域5分。实时节点直接在CharSequence上逐字符比较，
+ * 不转字符串也不转小写；快照节点使用读取时缓存的小写形式。边界写入调用方的临时Rect，打分过程不分配对象。
+ */
+final class MatchScorer {
+    static final int TEXT_EXACT = 100;
+    static final int TEXT_PARTIAL = 50;
+    static final int DESCRIPTION_EXACT = 80;
+    static final int DESCRIPTION_PARTIAL = 40;
+    private static final int CLICKABLE = 20;
+    private static final int ENABLED = 10;
+    private static final int HAS_AREA = 5;
+    static final int MAX_BASE_SCORE = CLICKABLE + ENABLED + HAS_AREA;
+
+    private MatchScorer() {
+    }
+
+    /**
+     * 为实时节点打分
+     *
+     * @param scratch 临时边界，返回后存放节点的边界
+     */
+    static int score(AccessibilityNodeInfo node, String target, Rect scratch) {
+        return contentScore(node.getText(), node.getContentDescription(), target) + baseScore(node, scratch);
+    }
+
+    /**
+     * 文本和内容描述部分的得分
+     */
+    static int contentScore(CharSequence text, CharSequence description, String target) {
+        return valueScore(text, target, TEXT_EXACT, TEXT_PARTIAL)
+            + valueScore(description, target, DESCRIPTION_EXACT, DESCRIPTION_PARTIAL);
+    }
+
+    /**
+     * 与查找内容无关的部分：可点击、可用、有可见区域的元素优先
+     */
+    static int baseScore(AccessibilityNodeInfo node, Rect scratch) {
+        node.getBoundsInScreen(scratch);
+        return baseScore(node.isClickable(), node.isEnabled(), scratch);
+    }
+
+    static int baseScore(boolean clickable, boolean enabled, Rect bounds) {
+        int score = 0;
+        if (clickable) {
+            score += CLICKABLE;
+        }
+        if (enabled) {
+            score += ENABLED;
+        }
+        if (bounds.width() > 0 && bounds.height() > 0) {
+            score += HAS_AREA;
+        }
+        return score;
+    }
+
+    private static int valueScore(CharSequence value, String target, int exact, int partial) {
+        if (value == null) {
+            return 0;
+        }
+        if (value.length() == target.length() && regionMatches(value, 0, target, true)) {
+            return exact;
+        }
+        return indexOf(value, target, true) >= 0 ? partial : 0;
+    }
+
+    /**
+     * 两边都已经转为小写时的打分
+     */
+    static int keyScore(String key, String targetKey, int exact, int partial) {
+        if (key == null) {
+            return 0;
+        }
+        if (key.equals(targetKey)) {
+            return exact;
+        }
+        return key.contains(targetKey) ? partial : 0;
+    }
+
+    static boolean contains(CharSequence value, String query, boolean ignoreCase) {
+        return value != null && indexOf(value, query, ignoreCase) >= 0;
+    }
+
+    private static int indexOf(CharSequence value, String query, boolean ignoreCase) {
+        int last = value.length() - query.length();
+        for (int i = 0; i <= last; i++) {
+            if (regionMatches(value, i, query, ignoreCase)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 与String.regionMatches的大小写规则一致
+     */
+    private static boolean regionMatches(CharSequence value, int offset, String query, boolean ignoreCase) {
+        for (int i = 0; i < query.length(); i++) {
+            char a = value.charAt(offset + i);
+            char b = query.charAt(i);
+            if (a == b) {
+                continue;
+            }
+            if (!ignoreCase) {
+                return false;
+            }
+            char upperA = Character.toUpperCase(a);
+            char upperB = Character.toUpperCase(b);
+            if (upperA != upperB && Character.toLowerCase(upperA) != Character.toLowerCase(upperB)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
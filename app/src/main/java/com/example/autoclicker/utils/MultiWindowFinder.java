@@ -0,0 +1,276 @@
+package com.example.autoclicker.utils;
+
+import android.accessibilityservice.AccessibilityService;
+import android.graphics.Rect;
+import android.os.Process;
+import android.text.TextUtils;
+import android.util.Log;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.view.accessibility.AccessibilityWindowInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多窗口查找
+ *
+ * 通过getWindows()列出屏幕上的所有窗口（应用、对话框、输入法、分屏、系统浮层），
+ * 在有界的线程池上并行遍历各窗口的节点树，每个窗口取得分最高的元素。
+ * 某个窗口找到足够好的元素时，层级比它低的窗口立即停止遍历；比它高的窗口继续，
+ * 因为它们可能遮住这个元素。结果先按窗口层级从上到下、再按得分排列，
+ * 上层窗口会遮住下层，点击落在最上层的元素上，结果与各窗口完成的先后无关。
+ * 需要服务配置flagRetrieveInteractiveWindows，本应用自己的窗口（悬浮控制面板）不参与查找。
+ */
+public class MultiWindowFinder {
+    private static final String TAG = "MultiWindowFinder";
+
+    private static final int MAX_THREADS = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final AccessibilityService service;
+    private final ThreadPoolExecutor pool;
+
+    public MultiWindowFinder(AccessibilityService service) {
+        this.service = service;
+        int threads = Math.max(2, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+        final AtomicInteger threadCount = new AtomicInteger();
+        pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "WindowSearch-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        // 空闲时不保留线程
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 按条件的类型取默认的“足够好”得分：文本和内容描述完全相等，其他条件为可点击、可用、有可见区域
+     */
+    public static int sufficientScore(SmartElementFinder.Selector selector) {
+        switch (selector.getType()) {
+            case SmartElementFinder.Selector.TYPE_TEXT:
+                return MatchScorer.TEXT_EXACT;
+            case SmartElementFinder.Selector.TYPE_CONTENT_DESCRIPTION:
+                return MatchScorer.DESCRIPTION_EXACT;
+            default:
+                return MatchScorer.MAX_BASE_SCORE;
+        }
+    }
+
+    public List<WindowMatch> find(SmartElementFinder.Selector selector, AtomicBoolean cancelled) {
+        return find(selector, sufficientScore(selector), cancelled);
+    }
+
+    /**
+     * 在所有窗口中查找，阻塞到所有窗口结束，不能在主线程调用
+     *
+     * @param sufficientScore 达到这个得分时停止层级更低的窗口的查找
+     * @param cancelled 外部取消标志，置位后各窗口在下一个节点处停止
+     * @return 每个找到元素的窗口一项，已排序，节点归调用方所有；无法列出窗口时返回null
+     */
+    public List<WindowMatch> find(final SmartElementFinder.Selector selector, final int sufficientScore,
+            final AtomicBoolean cancelled) {
+        List<AccessibilityWindowInfo> windows = service.getWindows();
+        if (windows == null || windows.isEmpty()) {
+            return null;
+        }
+
+        // 已经找到足够好元素的最高窗口层级，低于它的窗口不再需要查找
+        final AtomicInteger satisfiedLayer = new AtomicInteger(Integer.MIN_VALUE);
+        List<Future<WindowMatch>> futures = new ArrayList<>(windows.size());
+        for (final AccessibilityWindowInfo window : windows) {
+            futures.add(pool.submit(new Callable<WindowMatch>() {
+                @Override
+                public WindowMatch call() {
+                    return searchWindow(window, selector, sufficientScore, cancelled, satisfiedLayer);
+                }
+            }));
+        }
+
+        List<WindowMatch> results = new ArrayList<>();
+        boolean interrupted = false;
+        for (Future<WindowMatch> future : futures) {
+            while (true) {
+                try {
+                    WindowMatch match = future.get();
+                    if (match != null) {
+                        results.add(match);
+                    }
+                    break;
+                } catch (InterruptedException e) {
+                    // 取消后各窗口在下一个节点处结束，继续等它们交回保留的节点，避免泄漏
+                    cancelled.set(true);
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "窗口查找失败", e.getCause());
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        Collections.sort(results, new Comparator<WindowMatch>() {
+            @Override
+            public int compare(WindowMatch a, WindowMatch b) {
+                if (a.layer != b.layer) {
+                    return a.layer > b.layer ? -1 : 1;
+                }
+                return Integer.compare(b.score, a.score);
+            }
+        });
+        return results;
+    }
+
+    /**
+     * 在工作线程上遍历一个窗口，窗口信息和根节点都在这里回收
+     */
+    private WindowMatch searchWindow(AccessibilityWindowInfo window, final SmartElementFinder.Selector selector,
+            final int sufficientScore, final AtomicBoolean cancelled, final AtomicInteger satisfiedLayer) {
+        final int windowId = window.getId();
+        final int layer = window.getLayer();
+        final int type = window.getType();
+        AccessibilityNodeInfo root = cancelled.get() || layer < satisfiedLayer.get() ? null : window.getRoot();
+        window.recycle();
+        if (root == null) {
+            return null;
+        }
+        if (TextUtils.equals(root.getPackageName(), service.getPackageName())) {
+            root.recycle();
+            return null;
+        }
+
+        final Rect scratch = new Rect();
+        final WindowMatch best = new WindowMatch(windowId, layer, type);
+        NodeTraversal.traverse(root, new NodeTraversal.Visitor() {
+            @Override
+            public int visit(AccessibilityNodeInfo node, int depth) {
+                if (cancelled.get() || layer < satisfiedLayer.get()) {
+                    return NodeTraversal.STOP;
+                }
+                if (!selector.matches(node, node.getText(), node.getContentDescription(),
+                        node.getClassName(), node.getViewIdResourceName())) {
+                    return NodeTraversal.CONTINUE;
+                }
+                int score = selector.getType() == SmartElementFinder.Selector.TYPE_TEXT
+                        || selector.getType() == SmartElementFinder.Selector.TYPE_CONTENT_DESCRIPTION
+                    ? MatchScorer.score(node, selector.getValue(), scratch)
+                    : MatchScorer.baseScore(node, scratch);
+                if (score <= best.score) {
+                    return NodeTraversal.CONTINUE;
+                }
+                if (best.node != null) {
+                    best.node.recycle();
+                }
+                best.node = node;
+                best.score = score;
+                best.bounds.set(scratch);
+                if (score >= sufficientScore) {
+                    raise(satisfiedLayer, layer);
+                    return NodeTraversal.KEEP | NodeTraversal.STOP;
+                }
+                return NodeTraversal.KEEP;
+            }
+        });
+        return best.node != null ? best : null;
+    }
+
+    private static void raise(AtomicInteger value, int candidate) {
+        int current;
+        do {
+            current = value.get();
+        } while (candidate > current && !value.compareAndSet(current, candidate));
+    }
+
+    /**
+     * 回收查找结果中的节点
+     */
+    public static void recycle(List<WindowMatch> matches) {
+        if (matches == null) {
+            return;
+        }
+        for (WindowMatch match : matches) {
+            match.node.recycle();
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * 一个窗口中得分最高的元素
+     */
+    public static class WindowMatch {
+        private final int windowId;
+        private final int layer;
+        private final int windowType;
+        private final Rect bounds = new Rect();
+        private AccessibilityNodeInfo node;
+        private int score = -1;
+
+        WindowMatch(int windowId, int layer, int windowType) {
+            this.windowId = windowId;
+            this.layer = layer;
+            this.windowType = windowType;
+        }
+
+        public int getWindowId() {
+            return windowId;
+        }
+
+        /**
+         * 窗口的Z序，越大越靠上
+         */
+        public int getLayer() {
+            return layer;
+        }
+
+        /**
+         * AccessibilityWindowInfo.TYPE_*
+         */
+        public int getWindowType() {
+            return windowType;
+        }
+
+        public AccessibilityNodeInfo getNode() {
+            return node;
+        }
+
+        public int getScore() {
+            return score;
+        }
+
+        public Rect getBounds() {
+            return bounds;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("窗口 %d (层级 %d, 类型 %d), 得分 %d, 位置: (%d, %d)",
+                windowId, layer, windowType, score, bounds.centerX(), bounds.centerY());
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.autoclicker.utils;
+
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * 按对象身份核对节点的去向，开启 {@link NodeTraversal#setLeakCheckEnabled} 时由遍历和快照使用
+ *
+ * 取得的每个节点必须恰好回收一次或交给调用方一次。结束时仍未处理的节点记为泄漏；
+ * 同一个节点对象被重复取得、重复回收，或者回收了没有登记的节点，说明节点池会被同一对象占用两次，同样记录。
+ * 只在检查开启时创建，关闭时遍历和快照没有额外开销。
+ */
+final class NodeLeakTracker {
+    private final String owner;
+    private final Map<AccessibilityNodeInfo, Boolean> outstanding = new IdentityHashMap<>();
+
+    NodeLeakTracker(String owner) {
+        this.owner = owner;
+    }
+
+    void acquired(AccessibilityNodeInfo node) {
+        if (outstanding.put(node, Boolean.TRUE) != null) {
+            NodeTraversal.recordLeak(owner, 1, "重复取得同一个节点对象");
+        }
+    }
+
+    void released(AccessibilityNodeInfo node) {
+        if (outstanding.remove(node) == null) {
+            NodeTraversal.recordLeak(owner, 1, "回收了没有登记或已经处理过的节点");
+        }
+    }
+
+    /**
+     * 节点交给调用方，由调用方负责回收
+     */
+    void handedOut(AccessibilityNodeInfo node) {
+        if (outstanding.remove(node) == null) {
+            NodeTraversal.recordLeak(owner, 1, "交出了没有登记或已经处理过的节点");
+        }
+    }
+
+    /**
+     * 结束核对，仍未处理的节点记为泄漏
+     */
+    void finish() {
+        if (!outstanding.isEmpty()) {
+            NodeTraversal.recordLeak(owner, outstanding.size(), "节点既没有回收也没有交给调用方");
+            outstanding.clear();
+        }
+    }
+}
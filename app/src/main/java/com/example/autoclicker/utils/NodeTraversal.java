@@ -0,0 +1,157 @@
+package com.example.autoclicker.utils;
+
+import android.util.Log;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 实时节点树的先序遍历
+ *
+ * 用显式栈代替递归，深度超过上限的子树不再展开。遍历接管传入的根节点和过程中取得的所有子节点，
+ * 访问者没有保留（{@link #KEEP}）的节点在访问后立即回收，提前结束（{@link #STOP}）时栈中剩余的节点也会回收，
+ * 低版本系统上节点池不会因为丢弃的节点而泄漏。保留的节点由调用方负责。
+ */
+public final class NodeTraversal {
+    private static final String TAG = "NodeTraversal";
+
+    /**
+     * 默认的最大深度，正常界面的层级远小于这个值
+     */
+    public static final int DEFAULT_MAX_DEPTH = 100;
+
+    /**
+     * 访问结果，可以组合
+     */
+    public static final int CONTINUE = 0;
+    public static final int KEEP = 1;
+    public static final int STOP = 1 << 1;
+    public static final int SKIP_CHILDREN = 1 << 2;
+
+    public interface Visitor {
+        /**
+         * @param depth 根节点为0
+         * @return {@link #CONTINUE}、{@link #KEEP}、{@link #STOP}、{@link #SKIP_CHILDREN} 的组合
+         */
+        int visit(AccessibilityNodeInfo node, int depth);
+    }
+
+    private static volatile boolean leakCheckEnabled = false;
+    private static final AtomicLong leakedCount = new AtomicLong();
+
+    private NodeTraversal() {
+    }
+
+    /**
+     * 开启后按对象身份跟踪每次遍历取得的节点，核对每个节点都被回收或交给了调用方，
+     * 节点快照清空时同样核对，用于测试
+     */
+    public static void setLeakCheckEnabled(boolean enabled) {
+        leakCheckEnabled = enabled;
+    }
+
+    static boolean isLeakCheckEnabled() {
+        return leakCheckEnabled;
+    }
+
+    /**
+     * 开启检查以来核对出问题的节点数：既没有回收也没有交给调用方的，以及重复取得、重复回收的，正常应为0
+     */
+    public static long getLeakedCount() {
+        return leakedCount.get();
+    }
+
+    public static void resetLeakCount() {
+        leakedCount.set(0);
+    }
+
+    public static int traverse(AccessibilityNodeInfo root, Visitor visitor) {
+        return traverse(root, DEFAULT_MAX_DEPTH, visitor);
+    }
+
+    /**
+     * @return 访问的节点数
+     */
+    public static int traverse(AccessibilityNodeInfo root, int maxDepth, Visitor visitor) {
+        if (root == null) {
+            return 0;
+        }
+        NodeLeakTracker tracker = leakCheckEnabled ? new NodeLeakTracker(TAG) : null;
+        if (tracker != null) {
+            tracker.acquired(root);
+        }
+        int visited = 0;
+
+        AccessibilityNodeInfo[] nodes = new AccessibilityNodeInfo[32];
+        int[] depths = new int[32];
+        int top = 0;
+        nodes[top] = root;
+        depths[top++] = 0;
+
+        while (top > 0) {
+            AccessibilityNodeInfo node = nodes[--top];
+            nodes[top] = null;
+            int depth = depths[top];
+            int result = visitor.visit(node, depth);
+            visited++;
+
+            if ((result & (STOP | SKIP_CHILDREN)) == 0 && depth < maxDepth) {
+                // 子节点倒序入栈，出栈顺序与先序一致
+                int count = node.getChildCount();
+                if (top + count > nodes.length) {
+                    int capacity = Math.max(nodes.length * 2, top + count);
+                    AccessibilityNodeInfo[] grownNodes = new AccessibilityNodeInfo[capacity];
+                    System.arraycopy(nodes, 0, grownNodes, 0, top);
+                    nodes = grownNodes;
+                    int[] grownDepths = new int[capacity];
+                    System.arraycopy(depths, 0, grownDepths, 0, top);
+                    depths = grownDepths;
+                }
+                for (int i = count - 1; i >= 0; i--) {
+                    AccessibilityNodeInfo child = node.getChild(i);
+                    if (child != null) {
+                        if (tracker != null) {
+                            tracker.acquired(child);
+                        }
+                        nodes[top] = child;
+                        depths[top++] = depth + 1;
+                    }
+                }
+            }
+
+            if ((result & KEEP) != 0) {
+                if (tracker != null) {
+                    tracker.handedOut(node);
+                }
+            } else {
+                if (tracker != null) {
+                    tracker.released(node);
+                }
+                node.recycle();
+            }
+            if ((result & STOP) != 0) {
+                while (top > 0) {
+                    AccessibilityNodeInfo pending = nodes[--top];
+                    nodes[top] = null;
+                    if (tracker != null) {
+                        tracker.released(pending);
+                    }
+                    pending.recycle();
+                }
+            }
+        }
+
+        if (tracker != null) {
+            tracker.finish();
+        }
+        return visited;
+    }
+
+    /**
+     * 记录 {@link NodeLeakTracker} 核对出的问题
+     */
+    static void recordLeak(String owner, int count, String message) {
+        leakedCount.addAndGet(count);
+        Log.e(TAG, owner + " " + message + ": " + count + " 个");
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.autoclicker.utils;
+
+import java.util.Arrays;
+
+/**
+ * 界面指纹到状态编号的映射
+ *
+ * 开放寻址的long到int哈希表，查找不装箱也不分配对象。指纹0表示无法获取界面，不能注册。
+ */
+public class ScreenClassifier {
+    public static final int UNKNOWN = -1;
+
+    private long[] keys = new long[16];
+    private int[] values = new int[16];
+    private int size = 0;
+
+    /**
+     * 注册指纹，同一指纹重复注册时以最后一次为准
+     */
+    public void put(long fingerprint, int state) {
+        if (fingerprint == 0) {
+            throw new IllegalArgumentException("指纹不能为0");
+        }
+        if ((size + 1) * 2 > keys.length) {
+            grow();
+        }
+        int index = indexOf(keys, fingerprint);
+        if (keys[index] == 0) {
+            keys[index] = fingerprint;
+            size++;
+        }
+        values[index] = state;
+    }
+
+    /**
+     * @return 指纹对应的状态编号，未注册时返回 {@link #UNKNOWN}
+     */
+    public int get(long fingerprint) {
+        if (fingerprint == 0) {
+            return UNKNOWN;
+        }
+        int index = indexOf(keys, fingerprint);
+        return keys[index] == fingerprint ? values[index] : UNKNOWN;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        size = 0;
+    }
+
+    /**
+     * 指纹所在的位置，不存在时为应插入的空位；表至少一半为空，探测一定会结束
+     */
+    private static int indexOf(long[] keys, long fingerprint) {
+        int mask = keys.length - 1;
+        int index = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+        while (keys[index] != 0 && keys[index] != fingerprint) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int index = indexOf(keys, oldKeys[i]);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+}
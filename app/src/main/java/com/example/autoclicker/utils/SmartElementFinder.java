@@ -7,38 +7,69 @@ import android.util.Log;
 import android.view.accessibility.AccessibilityNodeInfo;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class SmartElementFinder {
     private static final String TAG = "SmartElementFinder";
     private AccessibilityService service;
+    private volatile LatencyHistogram queryHistogram;
+    private volatile TreeSnapshot treeSnapshot;
+    private volatile ElementLocationCache locationCache;
 
     public SmartElementFinder(AccessibilityService service) {
         this.service = service;
     }
 
+    /**
+     * 设置后记录每次查找从开始到回调的耗时（微秒），不包括回调本身的执行时间
+     */
+    public void setQueryHistogram(LatencyHistogram histogram) {
+        this.queryHistogram = histogram;
+    }
+
+    /**
+     * 设置后查找在节点树快照上进行，界面没有变化时不再跨进程读取节点
+     */
+    public void setTreeSnapshot(TreeSnapshot snapshot) {
+        this.treeSnapshot = snapshot;
+    }
+
+    /**
+     * 设置后按文本、ID、内容描述查找时先校验上次找到的节点，仍然有效时不再查找
+     */
+    public void setLocationCache(ElementLocationCache cache) {
+        this.locationCache = cache;
+    }
+
     public interface FindCallback {
         void onElementFound(AccessibilityNodeInfo node, String matchInfo);
         void onElementNotFound(String reason);
     }
 
     public void findElementByText(String text, FindCallback callback) {
-        AccessibilityNodeInfo rootNode = service.getRootInActiveWindow();
-        if (rootNode == null) {
+        callback = timed(callback);
+        Selector key = Selector.byText(text);
+        if (foundInCache(key, "文本", callback)) {
+            return;
+        }
+        TreeSnapshot snapshot = usableSnapshot();
+        List<AccessibilityNodeInfo> nodes = queryByText(snapshot, text);
+        if (nodes == null) {
             callback.onElementNotFound("无法获取根节点");
             return;
         }
 
-        List<AccessibilityNodeInfo> nodes = rootNode.findAccessibilityNodeInfosByText(text);
         if (nodes.isEmpty()) {
             callback.onElementNotFound("未找到包含文本 \"" + text + "\" 的元素");
             return;
         }
 
-        AccessibilityNodeInfo bestMatch = findBestMatch(nodes, text);
+        Rect bounds = new Rect();
+        AccessibilityNodeInfo bestMatch = findBestMatch(snapshot, nodes, text, bounds);
+        releaseUnused(nodes, bestMatch);
         if (bestMatch != null) {
-            Rect bounds = new Rect();
-            bestMatch.getBoundsInScreen(bounds);
+            remember(key, bestMatch);
             String info = String.format("文本: %s, 位置: (%d, %d)", 
                 text, bounds.centerX(), bounds.centerY());
             callback.onElementFound(bestMatch, info);
@@ -48,19 +79,26 @@ public class SmartElementFinder {
     }
 
     public void findElementById(String viewId, FindCallback callback) {
-        AccessibilityNodeInfo rootNode = service.getRootInActiveWindow();
-        if (rootNode == null) {
+        callback = timed(callback);
+        Selector key = Selector.byId(viewId);
+        if (foundInCache(key, "ID", callback)) {
+            return;
+        }
+        TreeSnapshot snapshot = usableSnapshot();
+        List<AccessibilityNodeInfo> nodes = queryById(snapshot, viewId);
+        if (nodes == null) {
             callback.onElementNotFound("无法获取根节点");
             return;
         }
 
-        List<AccessibilityNodeInfo> nodes = rootNode.findAccessibilityNodeInfosByViewId(viewId);
         if (nodes.isEmpty()) {
             callback.onElementNotFound("未找到ID为 \"" + viewId + "\" 的元素");
             return;
         }
 
         AccessibilityNodeInfo node = nodes.get(0);
+        releaseUnused(nodes, node);
+        remember(key, node);
         Rect bounds = new Rect();
         node.getBoundsInScreen(bounds);
         String info = String.format("ID: %s, 位置: (%d, %d)", 
@@ -69,24 +107,28 @@ public class SmartElementFinder {
     }
 
     public void findElementByContentDescription(String description, FindCallback callback) {
-        AccessibilityNodeInfo rootNode = service.getRootInActiveWindow();
-        if (rootNode == null) {
+        callback = timed(callback);
+        Selector key = Selector.byContentDescription(description);
+        if (foundInCache(key, "内容描述", callback)) {
+            return;
+        }
+        TreeSnapshot snapshot = usableSnapshot();
+        List<AccessibilityNodeInfo> matches = queryByContentDescription(snapshot, description);
+        if (matches == null) {
             callback.onElementNotFound("无法获取根节点");
             return;
         }
 
-        List<AccessibilityNodeInfo> matches = new ArrayList<>();
-        findNodesByContentDescription(rootNode, description, matches);
-
         if (matches.isEmpty()) {
             callback.onElementNotFound("未找到内容描述为 \"" + description + "\" 的元素");
             return;
         }
 
-        AccessibilityNodeInfo bestMatch = findBestMatch(matches, description);
+        Rect bounds = new Rect();
+        AccessibilityNodeInfo bestMatch = findBestMatch(snapshot, matches, description, bounds);
+        releaseUnused(matches, bestMatch);
         if (bestMatch != null) {
-            Rect bounds = new Rect();
-            bestMatch.getBoundsInScreen(bounds);
+            remember(key, bestMatch);
             String info = String.format("内容描述: %s, 位置: (%d, %d)", 
                 description, bounds.centerX(), bounds.centerY());
             callback.onElementFound(bestMatch, info);
@@ -96,21 +138,20 @@ public class SmartElementFinder {
     }
 
     public void findElementByClassName(String className, FindCallback callback) {
-        AccessibilityNodeInfo rootNode = service.getRootInActiveWindow();
-        if (rootNode == null) {
+        callback = timed(callback);
+        List<AccessibilityNodeInfo> matches = queryByClassName(usableSnapshot(), className);
+        if (matches == null) {
             callback.onElementNotFound("无法获取根节点");
             return;
         }
 
-        List<AccessibilityNodeInfo> matches = new ArrayList<>();
-        findNodesByClassName(rootNode, className, matches);
-
         if (matches.isEmpty()) {
             callback.onElementNotFound("未找到类名为 \"" + className + "\" 的元素");
             return;
         }
 
         AccessibilityNodeInfo node = matches.get(0);
+        releaseUnused(matches, node);
         Rect bounds = new Rect();
         node.getBoundsInScreen(bounds);
         String info = String.format("类名: %s, 位置: (%d, %d)", 
@@ -118,16 +159,17 @@ public class SmartElementFinder {
         callback.onElementFound(node, info);
     }
 
+    /**
+     * 返回先序遍历中的第一个可点击元素，找到后即停止遍历
+     */
     public void findClickableElements(FindCallback callback) {
-        AccessibilityNodeInfo rootNode = service.getRootInActiveWindow();
-        if (rootNode == null) {
+        callback = timed(callback);
+        List<AccessibilityNodeInfo> matches = queryClickable(usableSnapshot());
+        if (matches == null) {
             callback.onElementNotFound("无法获取根节点");
             return;
         }
 
-        List<AccessibilityNodeInfo> matches = new ArrayList<>();
-        findClickableNodes(rootNode, matches);
-
         if (matches.isEmpty()) {
             callback.onElementNotFound("未找到可点击的元素");
             return;
@@ -136,119 +178,396 @@ public class SmartElementFinder {
         AccessibilityNodeInfo node = matches.get(0);
         Rect bounds = new Rect();
         node.getBoundsInScreen(bounds);
-        String info = String.format("可点击元素, 位置: (%d, %d), 共找到 %d 个", 
-            bounds.centerX(), bounds.centerY(), matches.size());
+        String info = String.format("可点击元素, 位置: (%d, %d)", 
+            bounds.centerX(), bounds.centerY());
         callback.onElementFound(node, info);
     }
 
-    private void findNodesByContentDescription(AccessibilityNodeInfo node, 
-            String description, List<AccessibilityNodeInfo> matches) {
-        if (node == null) {
+    /**
+     * 按选择器查找，返回先序遍历中第一个匹配的元素
+     */
+    public void findElementBySelector(ElementSelector selector, FindCallback callback) {
+        callback = timed(callback);
+        List<AccessibilityNodeInfo> matches = selectorSnapshot().select(selector);
+        if (matches == null) {
+            callback.onElementNotFound("无法获取根节点");
             return;
         }
 
-        CharSequence contentDesc = node.getContentDescription();
-        if (contentDesc != null && contentDesc.toString().contains(description)) {
-            matches.add(node);
+        if (matches.isEmpty()) {
+            callback.onElementNotFound("未找到匹配选择器 " + selector + " 的元素");
+            return;
         }
 
-        for (int i = 0; i < node.getChildCount(); i++) {
-            findNodesByContentDescription(node.getChild(i), description, matches);
-        }
+        AccessibilityNodeInfo node = matches.get(0);
+        releaseUnused(matches, node);
+        Rect bounds = new Rect();
+        node.getBoundsInScreen(bounds);
+        String info = String.format("选择器: %s, 位置: (%d, %d)", 
+            selector, bounds.centerX(), bounds.centerY());
+        callback.onElementFound(node, info);
     }
 
-    private void findNodesByClassName(AccessibilityNodeInfo node, 
-            String className, List<AccessibilityNodeInfo> matches) {
+    /**
+     * 查找坐标处最上层的元素，优先取可点击的，点击坐标时实际响应的就是它；没有可点击的元素时取最上层的元素
+     */
+    public void findElementAt(int x, int y, FindCallback callback) {
+        callback = timed(callback);
+        TreeSnapshot snapshot = selectorSnapshot();
+        AccessibilityNodeInfo node = snapshot.findElementAt(x, y, TreeSnapshot.FLAG_CLICKABLE);
         if (node == null) {
+            node = snapshot.findElementAt(x, y);
+        }
+        if (node == null) {
+            callback.onElementNotFound("坐标 (" + x + ", " + y + ") 处没有元素");
             return;
         }
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-            String nodeClassName = node.getClassName() != null ? 
-                node.getClassName().toString() : "";
-            if (nodeClassName.contains(className)) {
-                matches.add(node);
-            }
+        CharSequence className = node.getClassName();
+        CharSequence text = node.getText();
+        String info = String.format("坐标 (%d, %d) 处: %s%s", x, y,
+            className != null ? className : "", text != null ? " \"" + text + "\"" : "");
+        callback.onElementFound(node, info);
+    }
+
+    /**
+     * 查找选择器匹配的第一个元素并取其边界，供脚本执行时定位步骤的目标。
+     * 订阅生效前每次都要重新读取整棵树，在查找线程上调用，不能放在调度线程
+     *
+     * @return 没有找到时返回false
+     */
+    public boolean locate(ElementSelector selector, Rect outBounds) {
+        long startTime = System.nanoTime();
+        boolean found = selectorSnapshot().locate(selector, outBounds);
+        LatencyHistogram histogram = queryHistogram;
+        if (histogram != null) {
+            histogram.record((System.nanoTime() - startTime) / 1000);
+        }
+        return found;
+    }
+
+    /**
+     * 快照的订阅已经生效时返回快照，否则返回null，由调用方改用框架的查找方法；
+     * 订阅生效前快照每次查询都要重新读取整棵树，比框架查找一次的开销大
+     */
+    private TreeSnapshot usableSnapshot() {
+        TreeSnapshot snapshot = treeSnapshot;
+        return snapshot != null && snapshot.isUsable() ? snapshot : null;
+    }
+
+    /**
+     * 选择器只在快照上匹配，没有设置快照时临时建立一份，用完即丢弃
+     */
+    private TreeSnapshot selectorSnapshot() {
+        TreeSnapshot snapshot = treeSnapshot;
+        return snapshot != null ? snapshot : new TreeSnapshot(service);
+    }
+
+    /**
+     * 缓存中的节点校验通过时直接回调，交给回调的是缓存返回的副本，边界在缓存的锁内取得
+     */
+    private boolean foundInCache(Selector key, String label, FindCallback callback) {
+        ElementLocationCache cache = locationCache;
+        if (cache == null) {
+            return false;
+        }
+        Rect bounds = new Rect();
+        AccessibilityNodeInfo node = cache.get(key, bounds);
+        if (node == null) {
+            return false;
         }
+        String info = String.format("%s: %s, 位置: (%d, %d)", 
+            label, key.value, bounds.centerX(), bounds.centerY());
+        callback.onElementFound(node, info);
+        return true;
+    }
 
-        for (int i = 0; i < node.getChildCount(); i++) {
-            findNodesByClassName(node.getChild(i), className, matches);
+    private void remember(Selector key, AccessibilityNodeInfo node) {
+        ElementLocationCache cache = locationCache;
+        if (cache != null) {
+            cache.put(key, node);
         }
     }
 
-    private void findClickableNodes(AccessibilityNodeInfo node, 
-            List<AccessibilityNodeInfo> matches) {
-        if (node == null) {
-            return;
+    // 以下查询在快照可用时使用快照，否则查询实时节点树；无法获取根节点时返回null。
+    // 快照返回的是副本，与实时查询一样归调用方所有，没有交给回调的要用releaseUnused回收
+
+    private List<AccessibilityNodeInfo> queryByText(TreeSnapshot snapshot, String text) {
+        if (snapshot != null) {
+            return snapshot.findByText(text);
         }
+        AccessibilityNodeInfo rootNode = service.getRootInActiveWindow();
+        if (rootNode == null) {
+            return null;
+        }
+        List<AccessibilityNodeInfo> nodes = rootNode.findAccessibilityNodeInfosByText(text);
+        rootNode.recycle();
+        return nodes;
+    }
 
-        if (node.isClickable()) {
-            matches.add(node);
+    private List<AccessibilityNodeInfo> queryById(TreeSnapshot snapshot, String viewId) {
+        if (snapshot != null) {
+            return snapshot.findByViewId(viewId);
         }
+        AccessibilityNodeInfo rootNode = service.getRootInActiveWindow();
+        if (rootNode == null) {
+            return null;
+        }
+        List<AccessibilityNodeInfo> nodes = rootNode.findAccessibilityNodeInfosByViewId(viewId);
+        rootNode.recycle();
+        return nodes;
+    }
 
-        for (int i = 0; i < node.getChildCount(); i++) {
-            findClickableNodes(node.getChild(i), matches);
+    private List<AccessibilityNodeInfo> queryByContentDescription(TreeSnapshot snapshot, final String description) {
+        if (snapshot != null) {
+            return snapshot.findByContentDescription(description);
         }
+        AccessibilityNodeInfo rootNode = service.getRootInActiveWindow();
+        if (rootNode == null) {
+            return null;
+        }
+        final List<AccessibilityNodeInfo> matches = new ArrayList<>();
+        NodeTraversal.traverse(rootNode, new NodeTraversal.Visitor() {
+            @Override
+            public int visit(AccessibilityNodeInfo node, int depth) {
+                if (MatchScorer.contains(node.getContentDescription(), description, false)) {
+                    matches.add(node);
+                    return NodeTraversal.KEEP;
+                }
+                return NodeTraversal.CONTINUE;
+            }
+        });
+        return matches;
     }
 
-    private AccessibilityNodeInfo findBestMatch(List<AccessibilityNodeInfo> nodes, String target) {
-        if (nodes.isEmpty()) {
+    private List<AccessibilityNodeInfo> queryByClassName(TreeSnapshot snapshot, final String className) {
+        if (snapshot != null) {
+            return snapshot.findByClassName(className);
+        }
+        AccessibilityNodeInfo rootNode = service.getRootInActiveWindow();
+        if (rootNode == null) {
             return null;
         }
+        final List<AccessibilityNodeInfo> matches = new ArrayList<>(1);
+        NodeTraversal.traverse(rootNode, new NodeTraversal.Visitor() {
+            @Override
+            public int visit(AccessibilityNodeInfo node, int depth) {
+                if (MatchScorer.contains(node.getClassName(), className, false)) {
+                    matches.add(node);
+                    return NodeTraversal.KEEP | NodeTraversal.STOP;
+                }
+                return NodeTraversal.CONTINUE;
+            }
+        });
+        return matches;
+    }
 
+    private List<AccessibilityNodeInfo> queryClickable(TreeSnapshot snapshot) {
+        if (snapshot != null) {
+            AccessibilityNodeInfo node = snapshot.findFirstClickable();
+            return node != null ? Collections.singletonList(node) : Collections.<AccessibilityNodeInfo>emptyList();
+        }
+        AccessibilityNodeInfo rootNode = service.getRootInActiveWindow();
+        if (rootNode == null) {
+            return null;
+        }
+        final List<AccessibilityNodeInfo> matches = new ArrayList<>(1);
+        NodeTraversal.traverse(rootNode, new NodeTraversal.Visitor() {
+            @Override
+            public int visit(AccessibilityNodeInfo node, int depth) {
+                if (node.isClickable()) {
+                    matches.add(node);
+                    return NodeTraversal.KEEP | NodeTraversal.STOP;
+                }
+                return NodeTraversal.CONTINUE;
+            }
+        });
+        return matches;
+    }
+
+    /**
+     * 回收查询得到但没有交给回调的节点
+     */
+    private static void releaseUnused(List<AccessibilityNodeInfo> nodes, AccessibilityNodeInfo used) {
+        for (AccessibilityNodeInfo node : nodes) {
+            if (node != used) {
+                node.recycle();
+            }
+        }
+    }
+
+    /**
+     * 取得分最高的节点，同分时取在前的。快照中的节点用缓存的小写形式和边界打分，
+     * 实时节点逐字符比较，所有候选共用一个临时边界
+     *
+     * @param outBounds 写入最佳节点的边界
+     */
+    private AccessibilityNodeInfo findBestMatch(TreeSnapshot snapshot, List<AccessibilityNodeInfo> nodes,
+            String target, Rect outBounds) {
+        if (nodes.isEmpty()) {
+            return null;
+        }
+        String targetKey = snapshot != null ? TreeIndex.normalize(target) : null;
+        Rect scratch = new Rect();
         AccessibilityNodeInfo bestMatch = null;
         int bestScore = 0;
 
-        for (AccessibilityNodeInfo node : nodes) {
-            int score = calculateMatchScore(node, target);
+        for (int i = 0; i < nodes.size(); i++) {
+            AccessibilityNodeInfo node = nodes.get(i);
+            int score = scoreFor(snapshot, node, target, targetKey, scratch);
             if (score > bestScore) {
                 bestScore = score;
                 bestMatch = node;
+                outBounds.set(scratch);
             }
         }
 
         return bestMatch;
     }
 
-    private int calculateMatchScore(AccessibilityNodeInfo node, String target) {
-        int score = 0;
-        String targetLower = target.toLowerCase();
-
-        CharSequence text = node.getText();
-        if (text != null) {
-            String nodeText = text.toString().toLowerCase();
-            if (nodeText.equals(targetLower)) {
-                score += 100;
-            } else if (nodeText.contains(targetLower)) {
-                score += 50;
+    private static int scoreFor(TreeSnapshot snapshot, AccessibilityNodeInfo node, String target,
+            String targetKey, Rect scratch) {
+        if (snapshot != null) {
+            int score = snapshot.scoreOf(node, targetKey, scratch);
+            if (score != TreeSnapshot.NONE) {
+                return score;
             }
         }
+        // 查找之后其他线程刷新了快照，节点已经移出快照；副本归调用方所有，仍然可以读取
+        return MatchScorer.score(node, target, scratch);
+    }
 
-        CharSequence contentDesc = node.getContentDescription();
-        if (contentDesc != null) {
-            String desc = contentDesc.toString().toLowerCase();
-            if (desc.equals(targetLower)) {
-                score += 80;
-            } else if (desc.contains(targetLower)) {
-                score += 40;
+    private static int scoreFor(TreeSnapshot snapshot, Selector selector, String targetKey,
+            AccessibilityNodeInfo node, Rect scratch) {
+        if (selector.type == Selector.TYPE_TEXT || selector.type == Selector.TYPE_CONTENT_DESCRIPTION) {
+            return scoreFor(snapshot, node, selector.value, targetKey, scratch);
+        }
+        return MatchScorer.baseScore(node, scratch);
+    }
+
+    /**
+     * 批量查找：一次遍历解析多个条件，每个条件各自取得分最高的元素，同分时取先序在前的。
+     * 使用快照时各条件直接查索引，不需要遍历。用完后用 {@link #recycle(List)} 回收结果中的节点
+     *
+     * @return 结果顺序与条件一致，没有找到的条件节点为null；无法获取根节点时返回null
+     */
+    public List<BatchMatch> findElements(List<Selector> selectors) {
+        long startTime = System.nanoTime();
+        final List<BatchMatch> results = new ArrayList<>(selectors.size());
+        for (Selector selector : selectors) {
+            results.add(new BatchMatch(selector));
+        }
+        final Rect scratch = new Rect();
+
+        TreeSnapshot snapshot = usableSnapshot();
+        if (snapshot != null) {
+            for (BatchMatch result : results) {
+                List<AccessibilityNodeInfo> candidates = queryBySelector(snapshot, result.selector);
+                if (candidates == null) {
+                    return null;
+                }
+                String targetKey = TreeIndex.normalize(result.selector.value);
+                for (int i = 0; i < candidates.size(); i++) {
+                    AccessibilityNodeInfo node = candidates.get(i);
+                    AccessibilityNodeInfo previous = result.node;
+                    if (result.offer(node, scoreFor(snapshot, result.selector, targetKey, node, scratch))) {
+                        if (previous != null) {
+                            previous.recycle();
+                        }
+                    } else {
+                        node.recycle();
+                    }
+                }
+            }
+        } else {
+            AccessibilityNodeInfo rootNode = service.getRootInActiveWindow();
+            if (rootNode == null) {
+                return null;
             }
+            final List<AccessibilityNodeInfo> kept = new ArrayList<>();
+            NodeTraversal.traverse(rootNode, new NodeTraversal.Visitor() {
+                @Override
+                public int visit(AccessibilityNodeInfo node, int depth) {
+                    // 每个节点的属性只读取一次，再与所有条件比较
+                    CharSequence text = node.getText();
+                    CharSequence description = node.getContentDescription();
+                    CharSequence className = node.getClassName();
+                    String viewId = node.getViewIdResourceName();
+                    boolean keep = false;
+                    for (int i = 0; i < results.size(); i++) {
+                        BatchMatch result = results.get(i);
+                        if (result.selector.matches(node, text, description, className, viewId)
+                                && result.offer(node, scoreFor(null, result.selector, null, node, scratch))) {
+                            keep = true;
+                        }
+                    }
+                    if (!keep) {
+                        return NodeTraversal.CONTINUE;
+                    }
+                    kept.add(node);
+                    return NodeTraversal.KEEP;
+                }
+            });
+            // 曾经是最佳、后来被替换的节点
+            for (AccessibilityNodeInfo node : kept) {
+                if (!isUsed(results, node)) {
+                    node.recycle();
+                }
+            }
+        }
+
+        LatencyHistogram histogram = queryHistogram;
+        if (histogram != null) {
+            histogram.record((System.nanoTime() - startTime) / 1000);
         }
+        return results;
+    }
 
-        if (node.isClickable()) {
-            score += 20;
+    private List<AccessibilityNodeInfo> queryBySelector(TreeSnapshot snapshot, Selector selector) {
+        switch (selector.type) {
+            case Selector.TYPE_TEXT:
+                return snapshot.findByText(selector.value);
+            case Selector.TYPE_ID:
+                return snapshot.findByViewId(selector.value);
+            case Selector.TYPE_CONTENT_DESCRIPTION:
+                return snapshot.findByContentDescription(selector.value);
+            case Selector.TYPE_CLASS_NAME:
+                return snapshot.findByClassName(selector.value);
+            default:
+                return snapshot.findClickable();
         }
+    }
 
-        if (node.isEnabled()) {
-            score += 10;
+    /**
+     * 回收批量查找结果中的节点，多个条件命中同一节点时只回收一次
+     */
+    public static void recycle(List<BatchMatch> results) {
+        if (results == null) {
+            return;
+        }
+        for (int i = 0; i < results.size(); i++) {
+            BatchMatch result = results.get(i);
+            if (result.node != null && !isUsed(results.subList(0, i), result.node)) {
+                result.node.recycle();
+            }
         }
+    }
 
-        Rect bounds = new Rect();
-        node.getBoundsInScreen(bounds);
-        if (bounds.width() > 0 && bounds.height() > 0) {
-            score += 5;
+    private static boolean isUsed(List<BatchMatch> results, AccessibilityNodeInfo node) {
+        for (BatchMatch result : results) {
+            if (result.node == node) {
+                return true;
+            }
         }
+        return false;
+    }
 
-        return score;
+    private FindCallback timed(FindCallback callback) {
+        LatencyHistogram histogram = queryHistogram;
+        if (histogram == null) {
+            return callback;
+        }
+        return new TimedCallback(callback, histogram);
     }
 
     public ElementInfo getElementInfo(AccessibilityNodeInfo node) {
@@ -278,6 +597,161 @@ public class SmartElementFinder {
         return info;
     }
 
+    /**
+     * 在回调前记录查找耗时
+     */
+    private static class TimedCallback implements FindCallback {
+        private final FindCallback callback;
+        private final LatencyHistogram histogram;
+        private final long startTime = System.nanoTime();
+
+        TimedCallback(FindCallback callback, LatencyHistogram histogram) {
+            this.callback = callback;
+            this.histogram = histogram;
+        }
+
+        @Override
+        public void onElementFound(AccessibilityNodeInfo node, String matchInfo) {
+            histogram.record((System.nanoTime() - startTime) / 1000);
+            callback.onElementFound(node, matchInfo);
+        }
+
+        @Override
+        public void onElementNotFound(String reason) {
+            histogram.record((System.nanoTime() - startTime) / 1000);
+            callback.onElementNotFound(reason);
+        }
+    }
+
+    /**
+     * 批量查找的一个条件
+     */
+    public static class Selector {
+        public static final int TYPE_TEXT = 0;
+        public static final int TYPE_ID = 1;
+        public static final int TYPE_CONTENT_DESCRIPTION = 2;
+        public static final int TYPE_CLASS_NAME = 3;
+        public static final int TYPE_CLICKABLE = 4;
+
+        private final int type;
+        private final String value;
+
+        public Selector(int type, String value) {
+            this.type = type;
+            this.value = value;
+        }
+
+        public static Selector byText(String text) {
+            return new Selector(TYPE_TEXT, text);
+        }
+
+        public static Selector byId(String viewId) {
+            return new Selector(TYPE_ID, viewId);
+        }
+
+        public static Selector byContentDescription(String description) {
+            return new Selector(TYPE_CONTENT_DESCRIPTION, description);
+        }
+
+        public static Selector byClassName(String className) {
+            return new Selector(TYPE_CLASS_NAME, className);
+        }
+
+        public static Selector clickable() {
+            return new Selector(TYPE_CLICKABLE, null);
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Selector)) {
+                return false;
+            }
+            Selector other = (Selector) o;
+            return type == other.type && (value == null ? other.value == null : value.equals(other.value));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * type + (value != null ? value.hashCode() : 0);
+        }
+
+        /**
+         * 与单个查找方法的匹配规则一致：文本不区分大小写并同时匹配内容描述，内容描述和类名包含即可，ID完全相等
+         */
+        boolean matches(AccessibilityNodeInfo node, CharSequence text, CharSequence description,
+                CharSequence className, String viewId) {
+            switch (type) {
+                case TYPE_TEXT:
+                    return MatchScorer.contains(text, value, true) || MatchScorer.contains(description, value, true);
+                case TYPE_ID:
+                    return value.equals(viewId);
+                case TYPE_CONTENT_DESCRIPTION:
+                    return MatchScorer.contains(description, value, false);
+                case TYPE_CLASS_NAME:
+                    return MatchScorer.contains(className, value, false);
+                case TYPE_CLICKABLE:
+                    return node.isClickable();
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * 批量查找中一个条件的结果
+     */
+    public static class BatchMatch {
+        private final Selector selector;
+        private AccessibilityNodeInfo node;
+        private int score = -1;
+
+        BatchMatch(Selector selector) {
+            this.selector = selector;
+        }
+
+        /**
+         * @return 是否成为新的最佳匹配
+         */
+        boolean offer(AccessibilityNodeInfo candidate, int candidateScore) {
+            if (candidateScore <= score) {
+                return false;
+            }
+            node = candidate;
+            score = candidateScore;
+            return true;
+        }
+
+        public Selector getSelector() {
+            return selector;
+        }
+
+        /**
+         * 没有找到时返回null
+         */
+        public AccessibilityNodeInfo getNode() {
+            return node;
+        }
+
+        public int getScore() {
+            return score;
+        }
+
+        public boolean isFound() {
+            return node != null;
+        }
+    }
+
     public static class ElementInfo {
         private Rect bounds;
         private String text;
@@ -0,0 +1,111 @@
+package com.example.autoclicker.utils;
+
+/**
+ * 节点树快照的空间索引
+ *
+ * 把屏幕划分成固定大小的网格，每个格子记录边界与它相交的槽位，点查询只看一个格子，
+ * 矩形查询只看覆盖到的格子，耗时与格子中的节点数有关而与整棵树无关。
+ * 覆盖格子太多的大节点（根节点、整屏容器）单独放在一个列表里，查询时逐个检查，避免每个格子都存一份。
+ * 索引只负责缩小候选范围，是否真正包含或相交由快照按槽位边界再判断一次。
+ */
+class SpatialIndex {
+    private static final int CELL_SIZE = 128;
+
+    /**
+     * 固定的行列数，覆盖8192像素见方，超出的坐标归入最后一行或一列
+     */
+    private static final int COLUMNS = 64;
+    private static final int ROWS = 64;
+
+    /**
+     * 覆盖超过这么多格子的节点放入大节点列表
+     */
+    private static final int MAX_CELLS_PER_NODE = 24;
+
+    private final TreeIndex.Postings[] cells = new TreeIndex.Postings[COLUMNS * ROWS];
+    private final TreeIndex.Postings large = new TreeIndex.Postings();
+
+    void add(int slot, int left, int top, int right, int bottom) {
+        update(slot, left, top, right, bottom, true);
+    }
+
+    void remove(int slot, int left, int top, int right, int bottom) {
+        update(slot, left, top, right, bottom, false);
+    }
+
+    void clear() {
+        for (TreeIndex.Postings cell : cells) {
+            if (cell != null) {
+                cell.clear();
+            }
+        }
+        large.clear();
+    }
+
+    private void update(int slot, int left, int top, int right, int bottom, boolean add) {
+        int firstColumn = column(left);
+        int lastColumn = column(right - 1);
+        int firstRow = row(top);
+        int lastRow = row(bottom - 1);
+        if ((lastColumn - firstColumn + 1) * (lastRow - firstRow + 1) > MAX_CELLS_PER_NODE) {
+            if (add) {
+                large.add(slot);
+            } else {
+                large.remove(slot);
+            }
+            return;
+        }
+        for (int r = firstRow; r <= lastRow; r++) {
+            for (int c = firstColumn; c <= lastColumn; c++) {
+                int cellIndex = r * COLUMNS + c;
+                TreeIndex.Postings cell = cells[cellIndex];
+                if (add) {
+                    if (cell == null) {
+                        cell = new TreeIndex.Postings();
+                        cells[cellIndex] = cell;
+                    }
+                    cell.add(slot);
+                } else if (cell != null) {
+                    cell.remove(slot);
+                }
+            }
+        }
+    }
+
+    /**
+     * 边界可能包含该点的候选
+     */
+    void collectPoint(int x, int y, TreeIndex.Postings out) {
+        out.addAll(large);
+        if (x < 0 || y < 0) {
+            return;
+        }
+        TreeIndex.Postings cell = cells[row(y) * COLUMNS + column(x)];
+        if (cell != null) {
+            out.addAll(cell);
+        }
+    }
+
+    /**
+     * 边界可能与矩形相交的候选，可能有重复
+     */
+    void collectRect(int left, int top, int right, int bottom, TreeIndex.Postings out) {
+        out.addAll(large);
+        for (int r = row(top); r <= row(bottom - 1); r++) {
+            for (int c = column(left); c <= column(right - 1); c++) {
+                TreeIndex.Postings cell = cells[r * COLUMNS + c];
+                if (cell != null) {
+                    out.addAll(cell);
+                }
+            }
+        }
+    }
+
+    private static int column(int x) {
+        return Math.min(COLUMNS - 1, Math.max(0, x) / CELL_SIZE);
+    }
+
+    private static int row(int y) {
+        return Math.min(ROWS - 1, Math.max(0, y) / CELL_SIZE);
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.autoclicker.utils;
+
+import android.graphics.Rect;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * 节点树差异比较
+ *
+ * 每次capture()从快照复制一份先序结构，与上一次的结构比较。两棵子树的结构哈希相等时整体跳过，
+ * 不相等时比较节点自身，再按位置逐个比较子节点，多出或少掉的子节点整棵计为新增或移除。
+ * 界面只有局部变化时（例如一个计数器在跳动）比较只深入变化的那一条路径，其余部分为O(1)。
+ * 子节点按位置对应，中间插入一个子节点会让其后的兄弟都计为变化，但变化区域仍然是准确的上界。
+ */
+public class TreeDiffer {
+    private static final String TAG = "TreeDiffer";
+
+    private final TreeSnapshot snapshot;
+    private TreeShape previous = new TreeShape();
+    private TreeShape current = new TreeShape();
+    private boolean hasPrevious = false;
+    private int[] pairs = new int[64];
+
+    public TreeDiffer(TreeSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * 采集当前界面并与上一次采集比较，第一次采集时所有节点都计为新增
+     *
+     * @return 无法获取根节点时返回null
+     */
+    public synchronized Diff capture() {
+        if (!snapshot.captureShape(current)) {
+            return null;
+        }
+        Diff diff = new Diff(current.subtreeHash[0]);
+        if (hasPrevious) {
+            compare(previous, current, diff);
+        } else {
+            diff.addedCount = current.count;
+            union(diff.region, current, 0);
+        }
+        TreeShape swap = previous;
+        previous = current;
+        current = swap;
+        hasPrevious = true;
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, diff.toString());
+        }
+        return diff;
+    }
+
+    /**
+     * 丢弃上一次的结构，下次capture()重新开始
+     */
+    public synchronized void reset() {
+        hasPrevious = false;
+    }
+
+    private void compare(TreeShape before, TreeShape after, Diff diff) {
+        int depth = 0;
+        pairs[depth++] = 0;
+        pairs[depth++] = 0;
+        while (depth > 0) {
+            int b = pairs[--depth];
+            int a = pairs[--depth];
+            if (before.subtreeHash[a] == after.subtreeHash[b]) {
+                continue;
+            }
+            if (before.ownHash[a] != after.ownHash[b]) {
+                diff.changedCount++;
+                union(diff.region, before, a);
+                union(diff.region, after, b);
+            }
+            int childA = a + 1;
+            int childB = b + 1;
+            int endA = a + before.size[a];
+            int endB = b + after.size[b];
+            while (childA < endA && childB < endB) {
+                if (depth + 2 > pairs.length) {
+                    pairs = Arrays.copyOf(pairs, pairs.length * 2);
+                }
+                pairs[depth++] = childA;
+                pairs[depth++] = childB;
+                childA += before.size[childA];
+                childB += after.size[childB];
+            }
+            for (; childA < endA; childA += before.size[childA]) {
+                diff.removedCount += before.size[childA];
+                union(diff.region, before, childA);
+            }
+            for (; childB < endB; childB += after.size[childB]) {
+                diff.addedCount += after.size[childB];
+                union(diff.region, after, childB);
+            }
+        }
+    }
+
+    private static void union(Rect region, TreeShape shape, int index) {
+        // 空矩形不参与合并
+        region.union(shape.left[index], shape.top[index], shape.right[index], shape.bottom[index]);
+    }
+
+    /**
+     * 一次比较的结果
+     */
+    public static class Diff {
+        private final long treeHash;
+        private final Rect region = new Rect();
+        private int changedCount = 0;
+        private int addedCount = 0;
+        private int removedCount = 0;
+
+        Diff(long treeHash) {
+            this.treeHash = treeHash;
+        }
+
+        /**
+         * 内容或位置变化的节点数
+         */
+        public int getChangedCount() {
+            return changedCount;
+        }
+
+        public int getAddedCount() {
+            return addedCount;
+        }
+
+        public int getRemovedCount() {
+            return removedCount;
+        }
+
+        /**
+         * 覆盖所有变化节点的屏幕区域，没有变化时为空
+         */
+        public Rect getRegion() {
+            return region;
+        }
+
+        /**
+         * 本次采集时整棵树的结构哈希
+         */
+        public long getTreeHash() {
+            return treeHash;
+        }
+
+        public boolean isEmpty() {
+            return changedCount == 0 && addedCount == 0 && removedCount == 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("变化 %d, 新增 %d, 移除 %d, 区域: (%d, %d, %d, %d)",
+                changedCount, addedCount, removedCount, region.left, region.top, region.right, region.bottom);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.autoclicker.utils;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 节点树快照的倒排索引
+ *
+ * 把文本、内容描述、资源ID和类名（统一转小写）映射到快照槽位。文本和内容描述另外建立：
+ * 每个词开头到结尾的后缀（用于前缀查询，也就是某个词以查询内容开头），以及三字符片段（用于子串查询）。
+ * 索引只负责缩小候选范围，候选节点由快照按原来的条件再校验一次，所以大小写等匹配规则不受索引影响。
+ * 节点加入和移出快照时由快照增量维护，传入的值已经由快照用 {@link #normalize} 转为小写。
+ */
+class TreeIndex {
+    public static final int FIELD_TEXT = 0;
+    public static final int FIELD_DESCRIPTION = 1;
+    public static final int FIELD_VIEW_ID = 2;
+    public static final int FIELD_CLASS_NAME = 3;
+    private static final int FIELD_COUNT = 4;
+
+    /**
+     * 超过这个长度的值只建立完整值的索引，前缀和子串查询时总是作为候选
+     */
+    private static final int INDEXED_LENGTH = 128;
+
+    /**
+     * 前缀键的最大长度，更长的查询只用前面的部分查找
+     */
+    private static final int PREFIX_KEY_LENGTH = 32;
+
+    private static final int GRAM = 3;
+
+    private final Map<String, Postings>[] exact;
+    private final TreeMap<String, Postings>[] prefixes;
+    private final Map<Long, Postings>[] trigrams;
+    private final Postings[] unindexed;
+
+    @SuppressWarnings("unchecked")
+    TreeIndex() {
+        exact = new Map[FIELD_COUNT];
+        prefixes = new TreeMap[FIELD_COUNT];
+        trigrams = new Map[FIELD_COUNT];
+        unindexed = new Postings[FIELD_COUNT];
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            exact[field] = new HashMap<>();
+            if (hasPartialKeys(field)) {
+                prefixes[field] = new TreeMap<>();
+                trigrams[field] = new HashMap<>();
+                unindexed[field] = new Postings();
+            }
+        }
+    }
+
+    private static boolean hasPartialKeys(int field) {
+        return field == FIELD_TEXT || field == FIELD_DESCRIPTION;
+    }
+
+    static String normalize(String value) {
+        return value != null ? value.toLowerCase(Locale.ROOT) : null;
+    }
+
+    void add(int slot, int field, String key) {
+        update(slot, field, key, true);
+    }
+
+    void remove(int slot, int field, String key) {
+        update(slot, field, key, false);
+    }
+
+    void clear() {
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            exact[field].clear();
+            if (hasPartialKeys(field)) {
+                prefixes[field].clear();
+                trigrams[field].clear();
+                unindexed[field].clear();
+            }
+        }
+    }
+
+    private void update(int slot, int field, String key, boolean add) {
+        if (key == null || key.isEmpty()) {
+            return;
+        }
+        apply(exact[field], key, slot, add);
+        if (!hasPartialKeys(field)) {
+            return;
+        }
+        if (key.length() > INDEXED_LENGTH) {
+            if (add) {
+                unindexed[field].add(slot);
+            } else {
+                unindexed[field].remove(slot);
+            }
+            return;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (isWordStart(key, i)) {
+                apply(prefixes[field], key.substring(i, Math.min(key.length(), i + PREFIX_KEY_LENGTH)), slot, add);
+            }
+        }
+        for (int i = 0; i + GRAM <= key.length(); i++) {
+            apply(trigrams[field], gram(key, i), slot, add);
+        }
+    }
+
+    private static <K> void apply(Map<K, Postings> map, K key, int slot, boolean add) {
+        Postings postings = map.get(key);
+        if (add) {
+            if (postings == null) {
+                postings = new Postings();
+                map.put(key, postings);
+            }
+            postings.add(slot);
+        } else if (postings != null) {
+            postings.remove(slot);
+            if (postings.size == 0) {
+                map.remove(key);
+            }
+        }
+    }
+
+    /**
+     * 完整值相等（不区分大小写）的候选
+     */
+    void collectExact(int field, String query, Postings out) {
+        Postings postings = exact[field].get(normalize(query));
+        if (postings != null) {
+            out.addAll(postings);
+        }
+    }
+
+    /**
+     * 某个词以查询内容开头的候选，只支持文本和内容描述
+     */
+    void collectPrefix(int field, String query, Postings out) {
+        String key = normalize(query);
+        if (key.length() > PREFIX_KEY_LENGTH) {
+            key = key.substring(0, PREFIX_KEY_LENGTH);
+        }
+        for (Postings postings : prefixes[field].subMap(key, key + Character.MAX_VALUE).values()) {
+            out.addAll(postings);
+        }
+        out.addAll(unindexed[field]);
+    }
+
+    /**
+     * 包含查询内容的候选。查询至少三个字符时取各片段中最短的倒排表，
+     * 否则在不同的完整值中查找，界面上不同的值通常远少于节点数
+     */
+    void collectContains(int field, String query, Postings out) {
+        String key = normalize(query);
+        if (key.length() < GRAM || !hasPartialKeys(field)) {
+            for (Map.Entry<String, Postings> entry : exact[field].entrySet()) {
+                if (entry.getKey().contains(key)) {
+                    out.addAll(entry.getValue());
+                }
+            }
+            return;
+        }
+        Postings shortest = null;
+        for (int i = 0; i + GRAM <= key.length(); i++) {
+            Postings postings = trigrams[field].get(gram(key, i));
+            if (postings == null) {
+                shortest = null;
+                break;
+            }
+            if (shortest == null || postings.size < shortest.size) {
+                shortest = postings;
+            }
+        }
+        if (shortest != null) {
+            out.addAll(shortest);
+        }
+        out.addAll(unindexed[field]);
+    }
+
+    private static boolean isWordStart(String value, int index) {
+        if (!Character.isLetterOrDigit(value.charAt(index))) {
+            return false;
+        }
+        return index == 0 || !Character.isLetterOrDigit(value.charAt(index - 1));
+    }
+
+    private static Long gram(String value, int index) {
+        return ((long) value.charAt(index) << 32) | ((long) value.charAt(index + 1) << 16) | value.charAt(index + 2);
+    }
+
+    /**
+     * 槽位的倒排表，不保证顺序
+     */
+    static final class Postings {
+        int[] slots = new int[4];
+        int size = 0;
+
+        void add(int slot) {
+            if (size == slots.length) {
+                int[] grown = new int[size * 2];
+                System.arraycopy(slots, 0, grown, 0, size);
+                slots = grown;
+            }
+            slots[size++] = slot;
+        }
+
+        void addAll(Postings other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.slots[i]);
+            }
+        }
+
+        void remove(int slot) {
+            for (int i = 0; i < size; i++) {
+                if (slots[i] == slot) {
+                    slots[i] = slots[--size];
+                    return;
+                }
+            }
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+}
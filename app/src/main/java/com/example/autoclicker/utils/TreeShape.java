@@ -0,0 +1,36 @@
+package com.example.autoclicker.utils;
+
+import java.util.Arrays;
+
+/**
+ * 某一时刻节点树结构的紧凑副本，供 {@link TreeDiffer} 比较
+ *
+ * 节点按先序存放，下标i的子树占据 [i, i + size[i]) 区间，第一个子节点在i + 1，
+ * 下一个兄弟在i + size[i]。subtreeHash相等的两棵子树视为相同，比较时整体跳过。
+ */
+final class TreeShape {
+    int count = 0;
+    long[] ownHash = new long[0];
+    long[] subtreeHash = new long[0];
+    int[] parent = new int[0];
+    int[] size = new int[0];
+    int[] left = new int[0];
+    int[] top = new int[0];
+    int[] right = new int[0];
+    int[] bottom = new int[0];
+
+    void ensureCapacity(int capacity) {
+        if (ownHash.length >= capacity) {
+            return;
+        }
+        int grown = Math.max(capacity, ownHash.length * 2);
+        ownHash = Arrays.copyOf(ownHash, grown);
+        subtreeHash = Arrays.copyOf(subtreeHash, grown);
+        parent = Arrays.copyOf(parent, grown);
+        size = Arrays.copyOf(size, grown);
+        left = Arrays.copyOf(left, grown);
+        top = Arrays.copyOf(top, grown);
+        right = Arrays.copyOf(right, grown);
+        bottom = Arrays.copyOf(bottom, grown);
+    }
+}
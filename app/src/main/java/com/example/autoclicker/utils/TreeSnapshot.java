@@ -0,0 +1,1209 @@
+package com.example.autoclicker.utils;
+
+import android.accessibilityservice.AccessibilityService;
+import android.graphics.Rect;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 活动窗口节点树的快照
+ *
+ * 节点属性平铺在按槽位索引的数组中，父子关系用firstChild/nextSibling链表示，释放的槽位串成空闲链表复用。
+ * 快照建立后查询只读数组，不再经过Binder；文本、内容描述、资源ID和类名另有 {@link TreeIndex} 倒排索引，
+ * 查询先从索引取候选再校验，不需要遍历整棵树；可见节点的边界另有 {@link SpatialIndex} 网格索引，
+ * 用于按坐标查找元素。每个节点还有覆盖整棵子树的哈希，子树变化时只沿父节点链失效，
+ * 下次需要时只重新计算失效的部分：内容哈希用于 {@link TreeDiffer} 比较前后两次的界面，
+ * 只包含类名和资源ID的结构哈希作为界面指纹识别当前是哪个界面。窗口内容变化事件把来源节点的子树标记为过期，下次查询时
+ * 只重新读取这些子树，其他窗口（状态栏、输入法、悬浮层）的内容变化在主线程上按窗口ID直接丢弃；
+ * 窗口状态变化（切换界面、弹出对话框）使整个快照失效。
+ *
+ * 快照依赖这两种事件保持最新，所以只有在服务订阅了它们之后才跨查询保留，否则每次查询都重新建立。
+ * 查找者应先用 {@link #isUsable()} 确认订阅已经生效，之前的查询直接调用框架的查找方法，
+ * 避免为一次查找读取整棵树。有查询时通过 {@link Listener} 请求订阅，长时间没有查询后释放。
+ *
+ * 快照持有建立时取得的所有节点，槽位释放、快照清空时回收。快照由主线程、查找线程和调度线程共用，
+ * 查询返回的节点是在锁内用AccessibilityNodeInfo.obtain复制的副本，归调用方所有，不受之后其他线程刷新快照的影响，
+ * 没有用到的由调用方回收。只需要边界时用 {@link #locate}，不复制节点。
+ */
+public class TreeSnapshot {
+    private static final String TAG = "TreeSnapshot";
+
+    /**
+     * 维护快照需要订阅的事件类型
+     */
+    public static final int INVALIDATION_EVENT_TYPES =
+        AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED | AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED;
+
+    /**
+     * 超过这么久没有查询时释放快照并退订事件
+     */
+    public static final long IDLE_RELEASE_MS = 30000;
+
+    public static final int FLAG_CLICKABLE = 1;
+    public static final int FLAG_ENABLED = 1 << 1;
+    public static final int FLAG_FOCUSABLE = 1 << 2;
+    public static final int FLAG_VISIBLE = 1 << 3;
+    public static final int FLAG_SCROLLABLE = 1 << 4;
+
+    public static final int NONE = -1;
+
+    /**
+     * 文本和内容描述的匹配方式：完整相等、某个词以查询内容开头、包含查询内容
+     */
+    public static final int QUERY_EXACT = 0;
+    public static final int QUERY_PREFIX = 1;
+    public static final int QUERY_CONTAINS = 2;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * 两次查询之间积累的过期事件超过上限时不再逐个处理，直接整体重建。
+     * 每个事件处理时至少一次跨进程调用，整体重建约为每个节点一次，上限取节点数的一半，不低于这个值
+     */
+    private static final int MIN_PENDING_EVENTS = 32;
+
+    private static final int MATCH_TEXT = 0;
+    private static final int MATCH_VIEW_ID = 1;
+    private static final int MATCH_DESCRIPTION = 2;
+    private static final int MATCH_CLASS_NAME = 3;
+    private static final int MATCH_CLICKABLE = 4;
+
+    public interface Listener {
+        /**
+         * 开始有查询、需要订阅维护快照的事件时回调，在查询线程上执行
+         */
+        void onSubscriptionRequested();
+    }
+
+    private final AccessibilityService service;
+    private volatile Listener listener;
+
+    private int capacity = 0;
+    private int size = 0;
+    private int root = NONE;
+    private int freeHead = NONE;
+    private int liveCount = 0;
+    private int[] parent;
+    private int[] firstChild;
+    private int[] lastChild;
+    private int[] nextSibling;
+    private int[] flags;
+    private int[] left;
+    private int[] top;
+    private int[] right;
+    private int[] bottom;
+    private boolean[] dirty;
+    private String[] text;
+    private String[] description;
+    /**
+     * 文本和内容描述的小写形式，索引和打分共用，节点读取时计算一次
+     */
+    private String[] textKey;
+    private String[] descriptionKey;
+    private String[] viewId;
+    private String[] className;
+    private AccessibilityNodeInfo[] nodes;
+    private long[] ownHash;
+    private long[] subtreeHash;
+    private long[] shapeHash;
+    private boolean[] hashValid;
+    private int[] stack = new int[64];
+    private int[] hashWork = new int[64];
+    private final Rect boundsScratch = new Rect();
+    private final Map<AccessibilityNodeInfo, Integer> slotByNode = new HashMap<>();
+    private final List<Integer> dirtySlots = new ArrayList<>();
+    private final TreeIndex index = new TreeIndex();
+    private final SpatialIndex spatial = new SpatialIndex();
+    private final TreeIndex.Postings candidates = new TreeIndex.Postings();
+
+    /**
+     * 槽位的先序序号，树结构变化后在下次查询时重新编号，用于让索引查到的结果保持文档顺序
+     */
+    private int[] order;
+    private boolean orderDirty = true;
+    private int[] mark;
+    private int markStamp = 0;
+    private long[] sortKeys = new long[64];
+
+    /**
+     * 主线程收到的过期事件，下次查询时在查询线程上处理
+     */
+    private final Object pendingLock = new Object();
+    private List<AccessibilityEvent> pending = new ArrayList<>();
+    private List<AccessibilityEvent> draining = new ArrayList<>();
+    private boolean fullInvalidate = false;
+    private volatile int pendingLimit = MIN_PENDING_EVENTS;
+
+    /**
+     * 快照根节点所在的窗口，主线程用它丢弃其他窗口的内容变化事件
+     */
+    private volatile int rootWindowId = NONE;
+
+    private volatile boolean hasTree = false;
+    private volatile boolean wanted = false;
+    private volatile boolean subscribed = false;
+    private volatile long lastQueryTime = 0;
+
+    private volatile long queryCount = 0;
+    private volatile long fullBuildCount = 0;
+    private volatile long subtreeRefreshCount = 0;
+
+    /**
+     * 开启 {@link NodeTraversal#setLeakCheckEnabled} 时跟踪快照取得的节点，清空快照后核对
+     */
+    private NodeLeakTracker leakTracker;
+
+    public TreeSnapshot(AccessibilityService service) {
+        this.service = service;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 是否有查询需要订阅维护快照的事件
+     */
+    public boolean isWanted() {
+        return wanted;
+    }
+
+    /**
+     * 记录一次使用并在需要时请求订阅，返回快照是否已经可以跨查询保留。
+     * 返回false时快照每次查询都要重新读取整棵树，查找者应改用框架的查找方法
+     */
+    public boolean isUsable() {
+        lastQueryTime = SystemClock.uptimeMillis();
+        requestSubscription();
+        return subscribed;
+    }
+
+    /**
+     * 服务更新订阅后调用。开始订阅之前建立的快照可能已经错过事件，丢弃后重新建立
+     */
+    public void setSubscribed(boolean subscribed) {
+        synchronized (pendingLock) {
+            if (this.subscribed == subscribed) {
+                return;
+            }
+            fullInvalidate = true;
+            recyclePending();
+            this.subscribed = subscribed;
+        }
+    }
+
+    /**
+     * 在主线程上调用，只复制事件，不做任何跨进程调用
+     */
+    public void onAccessibilityEvent(AccessibilityEvent event) {
+        int type = event.getEventType();
+        if ((type & INVALIDATION_EVENT_TYPES) == 0 || !subscribed || !hasTree) {
+            return;
+        }
+        // 其他窗口的内容变化不影响快照；窗口状态变化可能意味着活动窗口已经切换，仍然使快照失效
+        if (type == AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED && event.getWindowId() != rootWindowId) {
+            return;
+        }
+        synchronized (pendingLock) {
+            if (fullInvalidate) {
+                return;
+            }
+            if (type == AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED || pending.size() >= pendingLimit) {
+                fullInvalidate = true;
+                recyclePending();
+                return;
+            }
+            pending.add(AccessibilityEvent.obtain(event));
+        }
+    }
+
+    /**
+     * 超过 {@link #IDLE_RELEASE_MS} 没有查询时释放快照。释放要等正在进行的查询结束，
+     * 应在查找线程上调用，不要放在主线程
+     *
+     * @return 是否已释放，释放后服务应当退订事件
+     */
+    public boolean releaseIfIdle(long now) {
+        // 先不加锁检查，仍在使用时不等待正在进行的查询
+        if (!wanted || now - lastQueryTime < IDLE_RELEASE_MS) {
+            return false;
+        }
+        synchronized (this) {
+            return releaseLocked(now);
+        }
+    }
+
+    private boolean releaseLocked(long now) {
+        if (!wanted || now - lastQueryTime < IDLE_RELEASE_MS) {
+            return false;
+        }
+        wanted = false;
+        setSubscribed(false);
+        clear();
+        Log.d(TAG, "快照空闲，释放 " + getSummary());
+        return true;
+    }
+
+    /**
+     * 查找文本或内容描述包含指定文本（不区分大小写）的节点，与findAccessibilityNodeInfosByText一致
+     *
+     * @return 无法获取根节点时返回null
+     */
+    public List<AccessibilityNodeInfo> findByText(String query) {
+        return find(MATCH_TEXT, QUERY_CONTAINS, query);
+    }
+
+    /**
+     * @param kind {@link #QUERY_EXACT}、{@link #QUERY_PREFIX} 或 {@link #QUERY_CONTAINS}，都不区分大小写
+     */
+    public List<AccessibilityNodeInfo> findByText(String query, int kind) {
+        return find(MATCH_TEXT, kind, query);
+    }
+
+    public List<AccessibilityNodeInfo> findByViewId(String query) {
+        return find(MATCH_VIEW_ID, QUERY_EXACT, query);
+    }
+
+    public List<AccessibilityNodeInfo> findByContentDescription(String query) {
+        return find(MATCH_DESCRIPTION, QUERY_CONTAINS, query);
+    }
+
+    /**
+     * 内容描述区分大小写，与实时查找一致
+     */
+    public List<AccessibilityNodeInfo> findByContentDescription(String query, int kind) {
+        return find(MATCH_DESCRIPTION, kind, query);
+    }
+
+    public List<AccessibilityNodeInfo> findByClassName(String query) {
+        return find(MATCH_CLASS_NAME, QUERY_CONTAINS, query);
+    }
+
+    public List<AccessibilityNodeInfo> findClickable() {
+        return find(MATCH_CLICKABLE, QUERY_EXACT, null);
+    }
+
+    /**
+     * 先序中第一个可点击的节点，找到即停止
+     *
+     * @return 没有可点击的节点或无法获取根节点时返回null
+     */
+    public synchronized AccessibilityNodeInfo findFirstClickable() {
+        if (!prepare()) {
+            return null;
+        }
+        for (int slot = root; slot != NONE; slot = nextInPreorder(slot)) {
+            if ((flags[slot] & FLAG_CLICKABLE) != 0) {
+                return copyOf(slot);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 按选择器查找，结果按先序排列
+     *
+     * @return 无法获取根节点时返回null
+     */
+    public synchronized List<AccessibilityNodeInfo> select(ElementSelector selector) {
+        if (!prepare()) {
+            return null;
+        }
+        List<AccessibilityNodeInfo> matches = new ArrayList<>();
+        select(selector, matches);
+        return matches;
+    }
+
+    /**
+     * 取选择器匹配的第一个元素的边界，边界取自槽位，在锁内完成，不受其他线程刷新快照的影响
+     *
+     * @return 没有找到或无法获取根节点时返回false
+     */
+    public synchronized boolean locate(ElementSelector selector, Rect outBounds) {
+        if (!prepare()) {
+            return false;
+        }
+        int slot = select(selector, null);
+        if (slot == NONE) {
+            return false;
+        }
+        outBounds.set(left[slot], top[slot], right[slot], bottom[slot]);
+        return true;
+    }
+
+    /**
+     * @param matches 为null时找到第一个匹配即返回
+     * @return 第一个匹配的槽位，没有匹配时返回 {@link #NONE}
+     */
+    private int select(ElementSelector selector, List<AccessibilityNodeInfo> matches) {
+        int first = NONE;
+        synchronized (selector) {
+            ElementSelector.Predicate predicate = selector.getIndexablePredicate();
+            if (predicate == null) {
+                for (int slot = root; slot != NONE; slot = nextInPreorder(slot)) {
+                    if (selector.matches(this, slot)) {
+                        if (matches == null) {
+                            return slot;
+                        }
+                        if (first == NONE) {
+                            first = slot;
+                        }
+                        matches.add(copyOf(slot));
+                    }
+                }
+                return first;
+            }
+            candidates.clear();
+            int field = predicate.indexField();
+            int kind = predicate.indexKind();
+            if (kind == QUERY_EXACT) {
+                index.collectExact(field, predicate.value, candidates);
+            } else if (kind == QUERY_PREFIX) {
+                index.collectPrefix(field, predicate.value, candidates);
+            } else {
+                index.collectContains(field, predicate.value, candidates);
+            }
+            int count = sortCandidates();
+            for (int i = 0; i < count; i++) {
+                int slot = (int) sortKeys[i];
+                if (selector.matches(this, slot)) {
+                    if (matches == null) {
+                        return slot;
+                    }
+                    if (first == NONE) {
+                        first = slot;
+                    }
+                    matches.add(copyOf(slot));
+                }
+            }
+        }
+        return first;
+    }
+
+    public AccessibilityNodeInfo findElementAt(int x, int y) {
+        return findElementAt(x, y, 0);
+    }
+
+    /**
+     * 坐标处最上层的元素：边界包含该点的可见节点中先序最靠后的一个，也就是层级最深、绘制在最上面的
+     *
+     * @param requiredFlags 节点必须具有的标志，例如 {@link #FLAG_CLICKABLE}，0表示不限
+     * @return 该处没有元素或无法获取根节点时返回null
+     */
+    public synchronized AccessibilityNodeInfo findElementAt(int x, int y, int requiredFlags) {
+        if (!prepare()) {
+            return null;
+        }
+        ensureOrder();
+        candidates.clear();
+        spatial.collectPoint(x, y, candidates);
+        int best = NONE;
+        for (int i = 0; i < candidates.size; i++) {
+            int slot = candidates.slots[i];
+            if ((flags[slot] & requiredFlags) == requiredFlags
+                    && x >= left[slot] && x < right[slot] && y >= top[slot] && y < bottom[slot]
+                    && (best == NONE || order[slot] > order[best])) {
+                best = slot;
+            }
+        }
+        return best != NONE ? copyOf(best) : null;
+    }
+
+    /**
+     * 边界与矩形相交的可见元素，按先序排列
+     *
+     * @return 无法获取根节点时返回null
+     */
+    public synchronized List<AccessibilityNodeInfo> findElementsIn(Rect area) {
+        if (!prepare()) {
+            return null;
+        }
+        List<AccessibilityNodeInfo> matches = new ArrayList<>();
+        if (area.right <= area.left || area.bottom <= area.top) {
+            return matches;
+        }
+        candidates.clear();
+        spatial.collectRect(area.left, area.top, area.right, area.bottom, candidates);
+        int count = sortCandidates();
+        for (int i = 0; i < count; i++) {
+            int slot = (int) sortKeys[i];
+            if (left[slot] < area.right && area.left < right[slot]
+                    && top[slot] < area.bottom && area.top < bottom[slot]) {
+                matches.add(copyOf(slot));
+            }
+        }
+        return matches;
+    }
+
+    private synchronized List<AccessibilityNodeInfo> find(int mode, int kind, String query) {
+        if (!prepare()) {
+            return null;
+        }
+
+        List<AccessibilityNodeInfo> matches = new ArrayList<>();
+        if (mode == MATCH_CLICKABLE) {
+            // 借助parent/nextSibling按先序遍历，不需要栈
+            int slot = root;
+            while (slot != NONE) {
+                if ((flags[slot] & FLAG_CLICKABLE) != 0) {
+                    matches.add(copyOf(slot));
+                }
+                slot = nextInPreorder(slot);
+            }
+            return matches;
+        }
+
+        collectCandidates(mode, kind, query);
+        int count = sortCandidates();
+        for (int i = 0; i < count; i++) {
+            int slot = (int) sortKeys[i];
+            if (matches(slot, mode, kind, query)) {
+                matches.add(copyOf(slot));
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * 查询前的准备：记录查询时间、请求订阅，处理积累的事件
+     *
+     * @return 无法获取根节点时返回false
+     */
+    private boolean prepare() {
+        queryCount++;
+        lastQueryTime = SystemClock.uptimeMillis();
+        requestSubscription();
+        if (!subscribed) {
+            // 还没有订阅事件，无法得知快照是否过期
+            clear();
+        }
+        return ensureFresh();
+    }
+
+    private void requestSubscription() {
+        if (!wanted) {
+            wanted = true;
+            Listener current = listener;
+            if (current != null) {
+                current.onSubscriptionRequested();
+            }
+        }
+    }
+
+    /**
+     * 按 {@link MatchScorer} 的规则为快照中的节点打分，属性和边界取自槽位，不读取节点也不分配对象。
+     * 节点按来源（窗口和视图）找到槽位，查询返回的副本与快照中的节点相等
+     *
+     * @param targetKey 经过 {@link TreeIndex#normalize} 的查找内容
+     * @param outBounds 写入节点的边界
+     * @return 节点已经不在快照中时返回 {@link #NONE}
+     */
+    synchronized int scoreOf(AccessibilityNodeInfo node, String targetKey, Rect outBounds) {
+        Integer boxed = slotByNode.get(node);
+        if (boxed == null) {
+            return NONE;
+        }
+        int slot = boxed;
+        outBounds.set(left[slot], top[slot], right[slot], bottom[slot]);
+        int score = MatchScorer.keyScore(textKey[slot], targetKey, MatchScorer.TEXT_EXACT, MatchScorer.TEXT_PARTIAL)
+            + MatchScorer.keyScore(descriptionKey[slot], targetKey,
+                MatchScorer.DESCRIPTION_EXACT, MatchScorer.DESCRIPTION_PARTIAL);
+        return score + MatchScorer.baseScore((flags[slot] & FLAG_CLICKABLE) != 0,
+            (flags[slot] & FLAG_ENABLED) != 0, outBounds);
+    }
+
+    /**
+     * 槽位中节点的副本，调用方持有快照的锁
+     */
+    private AccessibilityNodeInfo copyOf(int slot) {
+        return AccessibilityNodeInfo.obtain(nodes[slot]);
+    }
+
+    /**
+     * 整棵树的结构哈希，界面没有变化时保持不变
+     *
+     * @return 无法获取根节点时返回0
+     */
+    public synchronized long getTreeHash() {
+        if (!prepare() || root == NONE) {
+            return 0;
+        }
+        return subtreeHashOf(root);
+    }
+
+    /**
+     * 当前界面的结构指纹，只由各节点的类名、资源ID和父子关系决定，
+     * 文本、位置和可滚动容器内的条目变化都不影响指纹，同一个界面在不同内容下指纹相同。
+     * 快照没有过期时只重新计算变化的路径
+     *
+     * @return 无法获取根节点时返回0
+     */
+    public synchronized long getScreenFingerprint() {
+        if (!prepare() || root == NONE) {
+            return 0;
+        }
+        subtreeHashOf(root);
+        // 0保留给无法获取界面的情况
+        return shapeHash[root] != 0 ? shapeHash[root] : 1;
+    }
+
+    /**
+     * 按先序把当前结构复制到out
+     *
+     * @return 无法获取根节点时返回false
+     */
+    synchronized boolean captureShape(TreeShape out) {
+        if (!prepare() || root == NONE) {
+            return false;
+        }
+        subtreeHashOf(root);
+        ensureOrder();
+        out.ensureCapacity(liveCount);
+        int count = 0;
+        for (int slot = root; slot != NONE; slot = nextInPreorder(slot)) {
+            int i = order[slot];
+            out.ownHash[i] = ownHash[slot];
+            out.subtreeHash[i] = subtreeHash[slot];
+            out.parent[i] = parent[slot] != NONE ? order[parent[slot]] : NONE;
+            out.size[i] = 1;
+            out.left[i] = left[slot];
+            out.top[i] = top[slot];
+            out.right[i] = right[slot];
+            out.bottom[i] = bottom[slot];
+            count++;
+        }
+        for (int i = count - 1; i > 0; i--) {
+            out.size[out.parent[i]] += out.size[i];
+        }
+        out.count = count;
+        return true;
+    }
+
+    // 以下供选择器匹配读取槽位数据，调用方持有快照的锁
+
+    int parentOf(int slot) {
+        return parent[slot];
+    }
+
+    String textOf(int slot) {
+        return text[slot];
+    }
+
+    String descriptionOf(int slot) {
+        return description[slot];
+    }
+
+    String viewIdOf(int slot) {
+        return viewId[slot];
+    }
+
+    String classNameOf(int slot) {
+        return className[slot];
+    }
+
+    boolean hasFlag(int slot, int flag) {
+        return (flags[slot] & flag) != 0;
+    }
+
+    int leftOf(int slot) {
+        return left[slot];
+    }
+
+    int topOf(int slot) {
+        return top[slot];
+    }
+
+    int rightOf(int slot) {
+        return right[slot];
+    }
+
+    int bottomOf(int slot) {
+        return bottom[slot];
+    }
+
+    /**
+     * 在父节点的子节点中的位置
+     */
+    int indexInParent(int slot) {
+        int parentSlot = parent[slot];
+        if (parentSlot == NONE) {
+            return 0;
+        }
+        int position = 0;
+        for (int child = firstChild[parentSlot]; child != slot; child = nextSibling[child]) {
+            position++;
+        }
+        return position;
+    }
+
+    private int nextInPreorder(int slot) {
+        if (firstChild[slot] != NONE) {
+            return firstChild[slot];
+        }
+        while (slot != NONE && nextSibling[slot] == NONE) {
+            slot = parent[slot];
+        }
+        return slot != NONE ? nextSibling[slot] : NONE;
+    }
+
+    private void collectCandidates(int mode, int kind, String query) {
+        candidates.clear();
+        switch (mode) {
+            case MATCH_TEXT:
+                collect(TreeIndex.FIELD_TEXT, kind, query);
+                collect(TreeIndex.FIELD_DESCRIPTION, kind, query);
+                break;
+            case MATCH_VIEW_ID:
+                index.collectExact(TreeIndex.FIELD_VIEW_ID, query, candidates);
+                break;
+            case MATCH_DESCRIPTION:
+                collect(TreeIndex.FIELD_DESCRIPTION, kind, query);
+                break;
+            case MATCH_CLASS_NAME:
+                index.collectContains(TreeIndex.FIELD_CLASS_NAME, query, candidates);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void collect(int field, int kind, String query) {
+        if (kind == QUERY_EXACT) {
+            index.collectExact(field, query, candidates);
+        } else if (kind == QUERY_PREFIX) {
+            index.collectPrefix(field, query, candidates);
+        } else {
+            index.collectContains(field, query, candidates);
+        }
+    }
+
+    /**
+     * 候选去重后按先序序号排序，结果存放在sortKeys的低32位
+     */
+    private int sortCandidates() {
+        ensureOrder();
+        markStamp++;
+        if (sortKeys.length < candidates.size) {
+            sortKeys = new long[Math.max(candidates.size, sortKeys.length * 2)];
+        }
+        int count = 0;
+        for (int i = 0; i < candidates.size; i++) {
+            int slot = candidates.slots[i];
+            if (mark[slot] != markStamp) {
+                mark[slot] = markStamp;
+                sortKeys[count++] = ((long) order[slot] << 32) | slot;
+            }
+        }
+        Arrays.sort(sortKeys, 0, count);
+        return count;
+    }
+
+    private void ensureOrder() {
+        if (orderDirty) {
+            int rank = 0;
+            for (int slot = root; slot != NONE; slot = nextInPreorder(slot)) {
+                order[slot] = rank++;
+            }
+            orderDirty = false;
+        }
+    }
+
+    private boolean matches(int slot, int mode, int kind, String query) {
+        switch (mode) {
+            case MATCH_TEXT:
+                return matchValue(text[slot], query, kind, true) || matchValue(description[slot], query, kind, true);
+            case MATCH_VIEW_ID:
+                return query.equals(viewId[slot]);
+            case MATCH_DESCRIPTION:
+                return matchValue(description[slot], query, kind, false);
+            case MATCH_CLASS_NAME:
+                return className[slot] != null && className[slot].contains(query);
+            default:
+                return false;
+        }
+    }
+
+    private static boolean matchValue(String value, String query, int kind, boolean ignoreCase) {
+        if (value == null) {
+            return false;
+        }
+        if (kind == QUERY_EXACT) {
+            return ignoreCase ? value.equalsIgnoreCase(query) : value.equals(query);
+        }
+        int last = value.length() - query.length();
+        for (int i = 0; i <= last; i++) {
+            if (kind == QUERY_PREFIX && !isWordStart(value, i)) {
+                continue;
+            }
+            if (value.regionMatches(ignoreCase, i, query, 0, query.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isWordStart(String value, int index) {
+        if (!Character.isLetterOrDigit(value.charAt(index))) {
+            return false;
+        }
+        return index == 0 || !Character.isLetterOrDigit(value.charAt(index - 1));
+    }
+
+    /**
+     * 处理积累的事件，重新读取过期的子树，没有快照时整体建立
+     */
+    private boolean ensureFresh() {
+        boolean full;
+        List<AccessibilityEvent> events;
+        synchronized (pendingLock) {
+            full = fullInvalidate;
+            fullInvalidate = false;
+            events = pending;
+            pending = draining;
+            draining = events;
+        }
+        if (full) {
+            clear();
+        }
+        if (root == NONE) {
+            recycleEvents(events);
+            return buildFull();
+        }
+
+        for (int i = 0; i < events.size(); i++) {
+            AccessibilityEvent event = events.get(i);
+            // 快照在事件入队后可能已经换到另一个窗口，先按窗口ID过滤，不为无关事件取来源节点
+            if (root != NONE && event.getWindowId() == rootWindowId) {
+                AccessibilityNodeInfo source = event.getSource();
+                markDirty(source);
+                if (source != null) {
+                    source.recycle();
+                }
+            }
+            event.recycle();
+        }
+        events.clear();
+        if (root == NONE) {
+            return buildFull();
+        }
+
+        for (int i = 0; i < dirtySlots.size(); i++) {
+            int slot = dirtySlots.get(i);
+            // 已经随过期的祖先一起重建的槽位不再处理
+            if (!dirty[slot] || nodes[slot] == null) {
+                continue;
+            }
+            if (!refreshSubtree(slot)) {
+                clear();
+                return buildFull();
+            }
+        }
+        dirtySlots.clear();
+        updatePendingLimit();
+        return true;
+    }
+
+    private void updatePendingLimit() {
+        pendingLimit = Math.max(MIN_PENDING_EVENTS, liveCount / 2);
+    }
+
+    private void markDirty(AccessibilityNodeInfo source) {
+        Integer slot = source != null ? slotByNode.get(source) : null;
+        if (slot == null) {
+            // 来源节点不在快照中，无法确定影响范围
+            clear();
+            return;
+        }
+        if (!dirty[slot]) {
+            dirty[slot] = true;
+            dirtySlots.add(slot);
+        }
+    }
+
+    private boolean refreshSubtree(int slot) {
+        AccessibilityNodeInfo node = nodes[slot];
+        invalidateHash(slot);
+        freeDescendants(slot);
+        if (!node.refresh()) {
+            return false;
+        }
+        dirty[slot] = false;
+        indexSlot(slot, false);
+        readNode(slot, node);
+        indexSlot(slot, true);
+        buildChildren(slot);
+        subtreeRefreshCount++;
+        return true;
+    }
+
+    private boolean buildFull() {
+        AccessibilityNodeInfo rootNode = service.getRootInActiveWindow();
+        if (rootNode == null) {
+            return false;
+        }
+        trackAcquired(rootNode);
+        rootWindowId = rootNode.getWindowId();
+        root = obtainSlot(rootNode, NONE);
+        buildChildren(root);
+        updatePendingLimit();
+        hasTree = true;
+        fullBuildCount++;
+        return true;
+    }
+
+    private void buildChildren(int start) {
+        int depth = 0;
+        stack[depth++] = start;
+        while (depth > 0) {
+            int slot = stack[--depth];
+            AccessibilityNodeInfo node = nodes[slot];
+            int count = node.getChildCount();
+            for (int i = 0; i < count; i++) {
+                AccessibilityNodeInfo child = node.getChild(i);
+                if (child == null) {
+                    continue;
+                }
+                trackAcquired(child);
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                }
+                stack[depth++] = obtainSlot(child, slot);
+            }
+        }
+    }
+
+    private void freeDescendants(int slot) {
+        int child = firstChild[slot];
+        firstChild[slot] = NONE;
+        lastChild[slot] = NONE;
+        int depth = 0;
+        while (child != NONE) {
+            if (depth == stack.length) {
+                stack = Arrays.copyOf(stack, depth * 2);
+            }
+            stack[depth++] = child;
+            child = nextSibling[child];
+        }
+        while (depth > 0) {
+            int current = stack[--depth];
+            int grandChild = firstChild[current];
+            while (grandChild != NONE) {
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                }
+                stack[depth++] = grandChild;
+                grandChild = nextSibling[grandChild];
+            }
+            releaseSlot(current);
+        }
+    }
+
+    private int obtainSlot(AccessibilityNodeInfo node, int parentSlot) {
+        int slot;
+        if (freeHead != NONE) {
+            slot = freeHead;
+            freeHead = nextSibling[slot];
+        } else {
+            if (size == capacity) {
+                allocate(capacity * 2);
+            }
+            slot = size++;
+        }
+        liveCount++;
+        parent[slot] = parentSlot;
+        firstChild[slot] = NONE;
+        lastChild[slot] = NONE;
+        nextSibling[slot] = NONE;
+        dirty[slot] = false;
+        nodes[slot] = node;
+        hashValid[slot] = false;
+        invalidateHash(parentSlot);
+        readNode(slot, node);
+        indexSlot(slot, true);
+        slotByNode.put(node, slot);
+        orderDirty = true;
+        if (parentSlot != NONE) {
+            if (lastChild[parentSlot] == NONE) {
+                firstChild[parentSlot] = slot;
+            } else {
+                nextSibling[lastChild[parentSlot]] = slot;
+            }
+            lastChild[parentSlot] = slot;
+        }
+        return slot;
+    }
+
+    private void releaseSlot(int slot) {
+        indexSlot(slot, false);
+        orderDirty = true;
+        slotByNode.remove(nodes[slot]);
+        trackReleased(nodes[slot]);
+        nodes[slot].recycle();
+        nodes[slot] = null;
+        text[slot] = null;
+        description[slot] = null;
+        textKey[slot] = null;
+        descriptionKey[slot] = null;
+        viewId[slot] = null;
+        className[slot] = null;
+        dirty[slot] = false;
+        nextSibling[slot] = freeHead;
+        freeHead = slot;
+        liveCount--;
+    }
+
+    /**
+     * 读取节点属性，这些getter只读取节点对象中已有的数据，不经过Binder
+     */
+    private void readNode(int slot, AccessibilityNodeInfo node) {
+        text[slot] = toString(node.getText());
+        description[slot] = toString(node.getContentDescription());
+        textKey[slot] = TreeIndex.normalize(text[slot]);
+        descriptionKey[slot] = TreeIndex.normalize(description[slot]);
+        className[slot] = toString(node.getClassName());
+        viewId[slot] = node.getViewIdResourceName();
+        int nodeFlags = 0;
+        if (node.isClickable()) {
+            nodeFlags |= FLAG_CLICKABLE;
+        }
+        if (node.isEnabled()) {
+            nodeFlags |= FLAG_ENABLED;
+        }
+        if (node.isFocusable()) {
+            nodeFlags |= FLAG_FOCUSABLE;
+        }
+        if (node.isVisibleToUser()) {
+            nodeFlags |= FLAG_VISIBLE;
+        }
+        if (node.isScrollable()) {
+            nodeFlags |= FLAG_SCROLLABLE;
+        }
+        flags[slot] = nodeFlags;
+        Rect bounds = boundsScratch;
+        node.getBoundsInScreen(bounds);
+        left[slot] = bounds.left;
+        top[slot] = bounds.top;
+        right[slot] = bounds.right;
+        bottom[slot] = bounds.bottom;
+
+        long hash = mix(0, text[slot] != null ? text[slot].hashCode() : 0);
+        hash = mix(hash, description[slot] != null ? description[slot].hashCode() : 0);
+        hash = mix(hash, viewId[slot] != null ? viewId[slot].hashCode() : 0);
+        hash = mix(hash, className[slot] != null ? className[slot].hashCode() : 0);
+        hash = mix(hash, nodeFlags);
+        hash = mix(hash, ((long) bounds.left << 32) | (bounds.top & 0xFFFFFFFFL));
+        ownHash[slot] = mix(hash, ((long) bounds.right << 32) | (bounds.bottom & 0xFFFFFFFFL));
+    }
+
+    private static long mix(long hash, long value) {
+        hash ^= value;
+        hash *= 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+
+    /**
+     * 节点自身或子树变化后，它和所有祖先的子树哈希失效。
+     * 失效的节点的祖先一定也已失效，遇到已失效的节点即可停止
+     */
+    private void invalidateHash(int slot) {
+        while (slot != NONE && hashValid[slot]) {
+            hashValid[slot] = false;
+            slot = parent[slot];
+        }
+    }
+
+    /**
+     * 只重新计算失效的节点：先序收集失效节点（有效的子树整体跳过），再倒序计算，子节点总是先于父节点
+     */
+    private long subtreeHashOf(int start) {
+        if (hashValid[start]) {
+            return subtreeHash[start];
+        }
+        int collected = 0;
+        int depth = 0;
+        stack[depth++] = start;
+        while (depth > 0) {
+            int slot = stack[--depth];
+            if (collected == hashWork.length) {
+                hashWork = Arrays.copyOf(hashWork, collected * 2);
+            }
+            hashWork[collected++] = slot;
+            for (int child = firstChild[slot]; child != NONE; child = nextSibling[child]) {
+                if (!hashValid[child]) {
+                    if (depth == stack.length) {
+                        stack = Arrays.copyOf(stack, depth * 2);
+                    }
+                    stack[depth++] = child;
+                }
+            }
+        }
+        for (int i = collected - 1; i >= 0; i--) {
+            int slot = hashWork[i];
+            long hash = ownHash[slot];
+            long shape = mix(mix(0, className[slot] != null ? className[slot].hashCode() : 0),
+                viewId[slot] != null ? viewId[slot].hashCode() : 0);
+            // 列表的条目数和滚动位置不影响结构
+            boolean scrollable = (flags[slot] & FLAG_SCROLLABLE) != 0;
+            int childCount = 0;
+            for (int child = firstChild[slot]; child != NONE; child = nextSibling[child]) {
+                hash = mix(hash, subtreeHash[child]);
+                if (!scrollable) {
+                    shape = mix(shape, shapeHash[child]);
+                }
+                childCount++;
+            }
+            subtreeHash[slot] = mix(hash, childCount);
+            shapeHash[slot] = scrollable ? shape : mix(shape, childCount);
+            hashValid[slot] = true;
+        }
+        return subtreeHash[start];
+    }
+
+    private void indexSlot(int slot, boolean add) {
+        if (add) {
+            index.add(slot, TreeIndex.FIELD_TEXT, textKey[slot]);
+            index.add(slot, TreeIndex.FIELD_DESCRIPTION, descriptionKey[slot]);
+            index.add(slot, TreeIndex.FIELD_VIEW_ID, TreeIndex.normalize(viewId[slot]));
+            index.add(slot, TreeIndex.FIELD_CLASS_NAME, TreeIndex.normalize(className[slot]));
+            if (isOnScreen(slot)) {
+                spatial.add(slot, left[slot], top[slot], right[slot], bottom[slot]);
+            }
+        } else {
+            index.remove(slot, TreeIndex.FIELD_TEXT, textKey[slot]);
+            index.remove(slot, TreeIndex.FIELD_DESCRIPTION, descriptionKey[slot]);
+            index.remove(slot, TreeIndex.FIELD_VIEW_ID, TreeIndex.normalize(viewId[slot]));
+            index.remove(slot, TreeIndex.FIELD_CLASS_NAME, TreeIndex.normalize(className[slot]));
+            if (isOnScreen(slot)) {
+                spatial.remove(slot, left[slot], top[slot], right[slot], bottom[slot]);
+            }
+        }
+    }
+
+    private void trackAcquired(AccessibilityNodeInfo node) {
+        if (NodeTraversal.isLeakCheckEnabled()) {
+            if (leakTracker == null) {
+                leakTracker = new NodeLeakTracker(TAG);
+            }
+            leakTracker.acquired(node);
+        }
+    }
+
+    private void trackReleased(AccessibilityNodeInfo node) {
+        if (leakTracker != null) {
+            leakTracker.released(node);
+        }
+    }
+
+    private boolean isOnScreen(int slot) {
+        return (flags[slot] & FLAG_VISIBLE) != 0 && right[slot] > left[slot] && bottom[slot] > top[slot];
+    }
+
+    private static String toString(CharSequence value) {
+        return value != null ? value.toString() : null;
+    }
+
+    private void clear() {
+        for (int slot = 0; slot < size; slot++) {
+            if (nodes[slot] != null) {
+                trackReleased(nodes[slot]);
+                nodes[slot].recycle();
+                nodes[slot] = null;
+            }
+        }
+        if (leakTracker != null) {
+            leakTracker.finish();
+            leakTracker = null;
+        }
+        Arrays.fill(text, 0, size, null);
+        Arrays.fill(description, 0, size, null);
+        Arrays.fill(textKey, 0, size, null);
+        Arrays.fill(descriptionKey, 0, size, null);
+        Arrays.fill(viewId, 0, size, null);
+        Arrays.fill(className, 0, size, null);
+        Arrays.fill(dirty, 0, size, false);
+        Arrays.fill(hashValid, 0, size, false);
+        slotByNode.clear();
+        dirtySlots.clear();
+        index.clear();
+        spatial.clear();
+        orderDirty = true;
+        size = 0;
+        liveCount = 0;
+        root = NONE;
+        freeHead = NONE;
+        rootWindowId = NONE;
+        hasTree = false;
+    }
+
+    private void allocate(int newCapacity) {
+        parent = grow(parent, newCapacity);
+        firstChild = grow(firstChild, newCapacity);
+        lastChild = grow(lastChild, newCapacity);
+        nextSibling = grow(nextSibling, newCapacity);
+        flags = grow(flags, newCapacity);
+        order = grow(order, newCapacity);
+        mark = grow(mark, newCapacity);
+        left = grow(left, newCapacity);
+        top = grow(top, newCapacity);
+        right = grow(right, newCapacity);
+        bottom = grow(bottom, newCapacity);
+        dirty = dirty == null ? new boolean[newCapacity] : Arrays.copyOf(dirty, newCapacity);
+        text = text == null ? new String[newCapacity] : Arrays.copyOf(text, newCapacity);
+        description = description == null ? new String[newCapacity] : Arrays.copyOf(description, newCapacity);
+        textKey = textKey == null ? new String[newCapacity] : Arrays.copyOf(textKey, newCapacity);
+        descriptionKey = descriptionKey == null ? new String[newCapacity] : Arrays.copyOf(descriptionKey, newCapacity);
+        viewId = viewId == null ? new String[newCapacity] : Arrays.copyOf(viewId, newCapacity);
+        className = className == null ? new String[newCapacity] : Arrays.copyOf(className, newCapacity);
+        nodes = nodes == null ? new AccessibilityNodeInfo[newCapacity] : Arrays.copyOf(nodes, newCapacity);
+        ownHash = ownHash == null ? new long[newCapacity] : Arrays.copyOf(ownHash, newCapacity);
+        subtreeHash = subtreeHash == null ? new long[newCapacity] : Arrays.copyOf(subtreeHash, newCapacity);
+        shapeHash = shapeHash == null ? new long[newCapacity] : Arrays.copyOf(shapeHash, newCapacity);
+        hashValid = hashValid == null ? new boolean[newCapacity] : Arrays.copyOf(hashValid, newCapacity);
+        capacity = newCapacity;
+    }
+
+    private static int[] grow(int[] array, int newCapacity) {
+        return array == null ? new int[newCapacity] : Arrays.copyOf(array, newCapacity);
+    }
+
+    private void recyclePending() {
+        recycleEvents(pending);
+    }
+
+    private static void recycleEvents(List<AccessibilityEvent> events) {
+        for (int i = 0; i < events.size(); i++) {
+            events.get(i).recycle();
+        }
+        events.clear();
+    }
+
+    public synchronized int getNodeCount() {
+        return liveCount;
+    }
+
+    public long getQueryCount() {
+        return queryCount;
+    }
+
+    public long getFullBuildCount() {
+        return fullBuildCount;
+    }
+
+    public long getSubtreeRefreshCount() {
+        return subtreeRefreshCount;
+    }
+
+    public String getSummary() {
+        return String.format("节点快照: 查询 %d, 整体建立 %d, 子树刷新 %d",
+            queryCount, fullBuildCount, subtreeRefreshCount);
+    }
+}
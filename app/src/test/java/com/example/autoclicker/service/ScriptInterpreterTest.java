@@ -0,0 +1,207 @@
+package com.example.autoclicker.service;
+
+import android.accessibilityservice.GestureDescription;
+import android.graphics.Rect;
+
+import com.example.autoclicker.model.ClickScript;
+import com.example.autoclicker.utils.AllocationMeter;
+import com.example.autoclicker.utils.ElementSelector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 解释器的执行顺序、分发和稳态分配
+ *
+ * JVM上没有手势实现，编译时通过 {@link TestGestures} 生成手势，手势指令都会经过分发出口。
+ */
+public class ScriptInterpreterTest {
+    private static final long SEED = 42;
+
+    /**
+     * {@link #sampleScript} 每遍分发的手势数
+     */
+    private static final int GESTURES_PER_ITERATION = 3;
+
+    @Before
+    public void setUp() {
+        TestGestures.install();
+    }
+
+    @After
+    public void tearDown() {
+        TestGestures.uninstall();
+    }
+
+    private static ClickScript sampleScript() {
+        ClickScript script = new ClickScript("测试");
+        script.setClickInterval(200);
+        script.setRandomDelay(0);
+        script.setRepeatCount(3);
+        script.addStep(new ClickScript.ClickStep(100, 200, ClickScript.StepType.CLICK, "点击"));
+        script.addStep(new ClickScript.ClickStep(0, 0, ClickScript.StepType.WAIT, 300, "等待"));
+        script.addStep(new ClickScript.ClickStep(300, 900, ClickScript.StepType.SWIPE, 150, "滑动"));
+        script.addStep(new ClickScript.ClickStep(50, 60, ClickScript.StepType.LONG_CLICK, "长按"));
+        return script;
+    }
+
+    /**
+     * 记录分发次数的手势出口，不创建对象
+     */
+    private static final class CountingSink implements ScriptInterpreter.GestureSink {
+        int count = 0;
+        GestureDescription last;
+
+        @Override
+        public boolean dispatch(GestureDescription gesture) {
+            count++;
+            last = gesture;
+            return true;
+        }
+    }
+
+    @Test
+    public void stepsFollowProgramOrderAndRepeatCount() {
+        ScriptProgram program = ScriptCompiler.compile(sampleScript(), SEED);
+        int[] expectedOps = {
+            ScriptProgram.OP_TAP, ScriptProgram.OP_WAIT, ScriptProgram.OP_SWIPE, ScriptProgram.OP_LONG_PRESS
+        };
+        long[] expectedDelays = {200, 300, 150, 200};
+        assertEquals(expectedOps.length, program.size());
+
+        ScriptInterpreter interpreter = new ScriptInterpreter(program);
+        CountingSink sink = new CountingSink();
+        for (int iteration = 0; iteration < 3; iteration++) {
+            for (int pc = 0; pc < expectedOps.length; pc++) {
+                int before = sink.count;
+                long delay = interpreter.step(sink);
+                assertEquals(pc, interpreter.getLastPc());
+                assertEquals(expectedOps[pc], program.getOp(pc));
+                assertEquals(expectedDelays[pc], delay);
+                assertEquals(iteration, interpreter.getIteration());
+                if (expectedOps[pc] == ScriptProgram.OP_WAIT) {
+                    assertNull(program.gestures[pc]);
+                    assertFalse(interpreter.lastDispatched());
+                    assertEquals(before, sink.count);
+                } else {
+                    assertNotNull(program.gestures[pc]);
+                    assertTrue(interpreter.lastDispatched());
+                    assertEquals(before + 1, sink.count);
+                    assertSame(program.gestures[pc], sink.last);
+                }
+            }
+        }
+        assertEquals(ScriptInterpreter.END, interpreter.step(sink));
+        assertEquals(3, interpreter.getIteration());
+        assertEquals(3 * GESTURES_PER_ITERATION, sink.count);
+    }
+
+    @Test
+    public void seekAndResetReplayTheSameSequence() {
+        ClickScript script = sampleScript();
+        script.setRandomDelay(80);
+        ScriptProgram program = ScriptCompiler.compile(script, SEED);
+        ScriptInterpreter interpreter = new ScriptInterpreter(program);
+        CountingSink sink = new CountingSink();
+
+        long[] first = new long[program.size() * 3];
+        for (int i = 0; i < first.length; i++) {
+            first[i] = interpreter.step(sink);
+        }
+        interpreter.reset();
+        for (int i = 0; i < first.length; i++) {
+            assertEquals(first[i], interpreter.step(sink));
+        }
+
+        interpreter.seek(2);
+        assertEquals(2, interpreter.getIteration());
+        for (int pc = 0; pc < program.size(); pc++) {
+            interpreter.step(sink);
+        }
+        assertEquals(ScriptInterpreter.END, interpreter.step(sink));
+    }
+
+    @Test
+    public void nextDispatchesGestureMatchesStep() {
+        ScriptProgram program = ScriptCompiler.compile(sampleScript(), SEED);
+        ScriptInterpreter interpreter = new ScriptInterpreter(program);
+        CountingSink sink = new CountingSink();
+        int predicted = 0;
+        for (int i = 0; i < program.size() * 3; i++) {
+            boolean expected = interpreter.nextDispatchesGesture();
+            if (expected) {
+                predicted++;
+            }
+            interpreter.step(sink);
+            assertEquals(expected, interpreter.lastDispatched());
+        }
+        assertFalse(interpreter.nextDispatchesGesture());
+        assertEquals(3 * GESTURES_PER_ITERATION, predicted);
+    }
+
+    @Test
+    public void selectorStepDispatchesAtLocatedElement() {
+        ClickScript script = new ClickScript("选择器");
+        script.setClickInterval(100);
+        script.setRepeatCount(2);
+        ClickScript.ClickStep step = new ClickScript.ClickStep(10, 20, ClickScript.StepType.CLICK, "按钮");
+        step.setSelector("[text=确定]");
+        script.addStep(step);
+        ScriptProgram program = ScriptCompiler.compile(script, SEED);
+        ScriptInterpreter interpreter = new ScriptInterpreter(program);
+        CountingSink sink = new CountingSink();
+
+        ElementSelector selector = interpreter.nextSelector();
+        assertNotNull(selector);
+        interpreter.setLocation(new Rect(100, 200, 300, 400));
+        // 已经交回结果，不再要求定位
+        assertNull(interpreter.nextSelector());
+        interpreter.step(sink);
+        assertTrue(interpreter.lastDispatched());
+        assertEquals(1, sink.count);
+        assertNotNull(sink.last);
+        assertTrue(sink.last != program.gestures[0]);
+
+        // 结果只用于一次执行，下一遍重新定位；没有找到时跳过
+        assertNotNull(interpreter.nextSelector());
+        interpreter.setLocation(null);
+        interpreter.step(sink);
+        assertFalse(interpreter.lastDispatched());
+        assertEquals(1, sink.count);
+        assertEquals(1, interpreter.getMissCount());
+        assertEquals(ScriptInterpreter.END, interpreter.step(sink));
+    }
+
+    @Test
+    public void steadyStateLoopDoesNotAllocate() {
+        for (long jitter : new long[] {0, 80}) {
+            ClickScript script = sampleScript();
+            script.setLoop(true);
+            script.setRandomDelay(jitter);
+            final ScriptProgram program = ScriptCompiler.compile(script, SEED);
+            final ScriptInterpreter interpreter = new ScriptInterpreter(program);
+            final CountingSink sink = new CountingSink();
+
+            AllocationMeter.assertDoesNotAllocate("稳态循环", 200000, 1000000, new AllocationMeter.Workload() {
+                @Override
+                public long run(int steps) {
+                    long total = 0;
+                    for (int i = 0; i < steps; i++) {
+                        total += interpreter.step(sink);
+                    }
+                    return total;
+                }
+            });
+            // 测量的循环确实经过了分发出口
+            assertEquals(1200000 / program.size() * GESTURES_PER_ITERATION, sink.count);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package com.example.autoclicker.service;
+
+import android.accessibilityservice.GestureDescription;
+
+import com.example.autoclicker.model.ClickScript;
+
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 循环执行的长时间模拟
+ *
+ * {@link ClickScheduler} 使用虚拟时钟，每条消息都比截止时间晚一段随机时间才执行，模拟繁忙的调度线程，
+ * 模拟数百万步只需要几百毫秒。检查重复次数、固定频率不因迟到漂移、长时间停顿后不连续补发、
+ * 随机延迟可重放且不越界。
+ */
+public class ScriptLoopSoakTest {
+    private static final int SOAK_STEPS = 2000000;
+    private static final long CLICK_INTERVAL = 120;
+    private static final long[] BASE_DELAYS = {CLICK_INTERVAL, 250, 40};
+
+    private static ClickScript loopScript(long jitter) {
+        ClickScript script = new ClickScript("循环");
+        script.setClickInterval(CLICK_INTERVAL);
+        script.setRandomDelay(jitter);
+        script.setLoop(true);
+        script.addStep(new ClickScript.ClickStep(10, 20, ClickScript.StepType.CLICK, "点击"));
+        script.addStep(new ClickScript.ClickStep(0, 0, ClickScript.StepType.WAIT, 250, "等待"));
+        script.addStep(new ClickScript.ClickStep(30, 40, ClickScript.StepType.CLICK, 40, "快速点击"));
+        return script;
+    }
+
+    private static final ScriptInterpreter.GestureSink SINK = new ScriptInterpreter.GestureSink() {
+        @Override
+        public boolean dispatch(GestureDescription gesture) {
+            return true;
+        }
+    };
+
+    /**
+     * 虚拟时钟和消息队列。消息按时间和投递顺序执行，执行时时钟先走到消息的时间，再加上迟到的时间
+     */
+    private static final class VirtualTimer implements ClickScheduler.Timer {
+        private final PriorityQueue<Message> queue = new PriorityQueue<>();
+        private long now = 0;
+        private long sequence = 0;
+        /**
+         * 每条消息迟到的时间在[0, maxLateness]内，由固定种子的伪随机序列决定
+         */
+        long maxLateness = 0;
+        private long lcg = 1;
+        /**
+         * 下一条消息额外迟到的时间，模拟一次长时间停顿
+         */
+        long stall = 0;
+
+        @Override
+        public long now() {
+            return now;
+        }
+
+        @Override
+        public void postAtTime(Runnable runnable, Object token, long uptimeMillis) {
+            queue.add(new Message(runnable, token, uptimeMillis, sequence++));
+        }
+
+        @Override
+        public void cancel(Object token) {
+            if (token == null) {
+                queue.clear();
+                return;
+            }
+            for (Iterator<Message> it = queue.iterator(); it.hasNext(); ) {
+                if (it.next().token == token) {
+                    it.remove();
+                }
+            }
+        }
+
+        /**
+         * 执行一条消息，返回消息的截止时间；没有消息时返回-1
+         */
+        long runNext() {
+            Message message = queue.poll();
+            if (message == null) {
+                return -1;
+            }
+            now = Math.max(now, message.when) + nextLateness() + stall;
+            stall = 0;
+            message.runnable.run();
+            return message.when;
+        }
+
+        private long nextLateness() {
+            if (maxLateness == 0) {
+                return 0;
+            }
+            lcg = lcg * 6364136223846793005L + 1442695040888963407L;
+            return (lcg >>> 33) % (maxLateness + 1);
+        }
+
+        private static final class Message implements Comparable<Message> {
+            final Runnable runnable;
+            final Object token;
+            final long when;
+            final long sequence;
+
+            Message(Runnable runnable, Object token, long when, long sequence) {
+                this.runnable = runnable;
+                this.token = token;
+                this.when = when;
+                this.sequence = sequence;
+            }
+
+            @Override
+            public int compareTo(Message other) {
+                if (when != other.when) {
+                    return when < other.when ? -1 : 1;
+                }
+                return Long.compare(sequence, other.sequence);
+            }
+        }
+    }
+
+    /**
+     * 按调度器执行解释器的任务，记录每一步返回的延迟之和
+     */
+    private static final class InterpreterTask implements ClickScheduler.Task {
+        final ScriptInterpreter interpreter;
+        long delaySum = 0;
+        /**
+         * 最近一次执行之前的延迟之和，即按固定频率这次执行应有的截止时间
+         */
+        long lastStart = 0;
+
+        InterpreterTask(ScriptInterpreter interpreter) {
+            this.interpreter = interpreter;
+        }
+
+        @Override
+        public long run() {
+            long delay = interpreter.step(SINK);
+            lastStart = delaySum;
+            delaySum += delay;
+            return delay;
+        }
+    }
+
+    /**
+     * 解释器返回的延迟序列，checksum按顺序混合每一步的延迟，用于比较两次运行是否相同
+     */
+    private static final class DelaySequence {
+        long total = 0;
+        long checksum = 0;
+        long minExcess = Long.MAX_VALUE;
+        long maxExcess = Long.MIN_VALUE;
+
+        void run(ScriptInterpreter interpreter, int steps) {
+            for (int i = 0; i < steps; i++) {
+                long delay = interpreter.step(SINK);
+                assertTrue(delay != ScriptInterpreter.END);
+                long excess = delay - BASE_DELAYS[interpreter.getLastPc()];
+                minExcess = Math.min(minExcess, excess);
+                maxExcess = Math.max(maxExcess, excess);
+                total += delay;
+                checksum = checksum * 31 + delay;
+            }
+        }
+    }
+
+    @Test
+    public void fixedRateDeadlinesDoNotDriftWhenLate() {
+        ScriptProgram program = ScriptCompiler.compile(loopScript(60), 1);
+        assertTrue(program.isLoop());
+        VirtualTimer timer = new VirtualTimer();
+        // 迟到不超过最短的步骤间隔，调度线程不会落后到需要追赶
+        timer.maxLateness = BASE_DELAYS[2] - 1;
+        ClickScheduler scheduler = new ClickScheduler(timer);
+        InterpreterTask task = new InterpreterTask(new ScriptInterpreter(program));
+        ClickScheduler.Run run = scheduler.schedule(task, ClickScheduler.Mode.FIXED_RATE, 0);
+
+        long totalLateness = 0;
+        for (int i = 0; i < SOAK_STEPS; i++) {
+            long due = timer.runNext();
+            // 每次执行的截止时间都是之前所有延迟之和，与之前迟到了多少无关
+            assertEquals(task.lastStart, due);
+            totalLateness += run.getLastLateness();
+        }
+        assertEquals(SOAK_STEPS, run.getExecutions());
+        assertTrue(totalLateness > 0);
+        assertTrue(run.getMaxLateness() <= timer.maxLateness);
+        assertEquals(SOAK_STEPS / BASE_DELAYS.length, task.interpreter.getIteration());
+        run.cancel();
+        assertEquals(-1, timer.runNext());
+    }
+
+    @Test
+    public void fixedDelayAccumulatesLateness() {
+        VirtualTimer timer = new VirtualTimer();
+        timer.maxLateness = 10;
+        ClickScheduler scheduler = new ClickScheduler(timer);
+        InterpreterTask task = new InterpreterTask(new ScriptInterpreter(ScriptCompiler.compile(loopScript(0), 1)));
+        ClickScheduler.Run run = scheduler.schedule(task, ClickScheduler.Mode.FIXED_DELAY, 0);
+
+        long totalLateness = 0;
+        for (int i = 0; i < 100000; i++) {
+            timer.runNext();
+            totalLateness += run.getLastLateness();
+        }
+        // 固定延迟从上次执行时开始计时，迟到全部累积到时钟上，作为上一个测试的对照
+        assertEquals(task.lastStart + totalLateness, timer.now());
+        assertTrue(totalLateness > 0);
+    }
+
+    @Test
+    public void longStallSkipsCatchUp() {
+        VirtualTimer timer = new VirtualTimer();
+        ClickScheduler scheduler = new ClickScheduler(timer);
+        InterpreterTask task = new InterpreterTask(new ScriptInterpreter(ScriptCompiler.compile(loopScript(0), 1)));
+        ClickScheduler.Run run = scheduler.schedule(task, ClickScheduler.Mode.FIXED_RATE, 0);
+        for (int i = 0; i < 300; i++) {
+            timer.runNext();
+        }
+        assertEquals(0, run.getMaxLateness());
+
+        // 一次停顿远超可追赶的时间：之后不连续补发，截止时间从停顿结束时重新开始
+        long stall = 10000;
+        timer.stall = stall;
+        long stalledAt = timer.runNext();
+        long resumedAt = timer.now();
+        assertEquals(stall, run.getLastLateness());
+        long next = timer.runNext();
+        assertEquals(resumedAt, next);
+        for (int i = 0; i < 300; i++) {
+            long due = timer.runNext();
+            assertEquals(0, run.getLastLateness());
+            assertTrue(due > stalledAt + stall);
+        }
+    }
+
+    @Test
+    public void finiteRepeatCountEndsExactly() {
+        ClickScript script = loopScript(0);
+        script.setLoop(false);
+        script.setRepeatCount(5000);
+        ScriptInterpreter interpreter = new ScriptInterpreter(ScriptCompiler.compile(script, 1));
+        int steps = 0;
+        while (interpreter.step(SINK) != ScriptInterpreter.END) {
+            steps++;
+        }
+        assertEquals(5000 * BASE_DELAYS.length, steps);
+        assertEquals(5000, interpreter.getIteration());
+    }
+
+    @Test
+    public void zeroRepeatCountRunsOnce() {
+        ClickScript script = loopScript(0);
+        script.setLoop(false);
+        for (long repeatCount : new long[] {new ClickScript("默认").getRepeatCount(), 0}) {
+            script.setRepeatCount(repeatCount);
+            ScriptProgram program = ScriptCompiler.compile(script, 1);
+            assertFalse(program.isLoop());
+            ScriptInterpreter interpreter = new ScriptInterpreter(program);
+            int steps = 0;
+            while (interpreter.step(SINK) != ScriptInterpreter.END) {
+                steps++;
+            }
+            assertEquals(BASE_DELAYS.length, steps);
+        }
+    }
+
+    @Test
+    public void seededJitterIsReproducibleAndBounded() {
+        long jitter = 60;
+        DelaySequence first = new DelaySequence();
+        first.run(new ScriptInterpreter(ScriptCompiler.compile(loopScript(jitter), 7)), SOAK_STEPS);
+        DelaySequence second = new DelaySequence();
+        second.run(new ScriptInterpreter(ScriptCompiler.compile(loopScript(jitter), 7)), SOAK_STEPS);
+        DelaySequence other = new DelaySequence();
+        other.run(new ScriptInterpreter(ScriptCompiler.compile(loopScript(jitter), 8)), SOAK_STEPS);
+
+        assertEquals(first.total, second.total);
+        assertEquals(first.checksum, second.checksum);
+        assertNotEquals(first.checksum, other.checksum);
+
+        // 随机延迟在[0, jitter)内，长时间运行的平均值接近jitter / 2
+        assertTrue(first.minExcess >= 0);
+        assertTrue(first.maxExcess < jitter);
+        long base = (SOAK_STEPS / BASE_DELAYS.length) * (BASE_DELAYS[0] + BASE_DELAYS[1] + BASE_DELAYS[2])
+            + BASE_DELAYS[0] * (SOAK_STEPS % BASE_DELAYS.length);
+        double meanExcess = (double) (first.total - base) / SOAK_STEPS;
+        assertEquals(jitter / 2.0, meanExcess, jitter * 0.02);
+    }
+
+    @Test
+    public void humanizerOffsetsStayWithinBounds() {
+        Humanizer humanizer = new Humanizer(3);
+        Humanizer same = new Humanizer(3);
+        for (int i = 0; i < SOAK_STEPS; i++) {
+            float normal = humanizer.nextNormal();
+            assertTrue(normal >= -1f && normal <= 1f);
+            float uniform = humanizer.nextUniform();
+            assertTrue(uniform >= 0f && uniform < 1f);
+            int variant = humanizer.nextVariant(8);
+            assertTrue(variant >= 0 && variant < 8);
+            assertEquals(normal, same.nextNormal(), 0);
+            assertEquals(uniform, same.nextUniform(), 0);
+            assertEquals(variant, same.nextVariant(8));
+        }
+        assertEquals(100, humanizer.jitterDelay(100, 0));
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.autoclicker.service;
+
+import android.accessibilityservice.GestureDescription;
+
+import java.lang.reflect.Field;
+
+/**
+ * 单元测试用的手势工厂
+ *
+ * 单元测试的android.jar中Build.VERSION.SDK_INT为0、GestureDescription.Builder.build返回null，
+ * 系统实现编译不出手势，手势指令全部按未分发处理。这里绕过构造函数直接分配GestureDescription，
+ * 每次生成不同的实例，测试可以按引用判断分发的是哪个手势。
+ */
+final class TestGestures implements ScriptCompiler.GestureFactory {
+    static final TestGestures INSTANCE = new TestGestures();
+
+    private static final sun.misc.Unsafe UNSAFE = loadUnsafe();
+
+    private TestGestures() {
+    }
+
+    /**
+     * 编译时改用本工厂，测试结束后调用 {@link #uninstall}
+     */
+    static void install() {
+        ScriptCompiler.setGestureFactory(INSTANCE);
+    }
+
+    static void uninstall() {
+        ScriptCompiler.setGestureFactory(null);
+    }
+
+    @Override
+    public GestureDescription tap(float x, float y, long duration) {
+        return newGesture();
+    }
+
+    @Override
+    public GestureDescription swipe(float startX, float startY, float endX, float endY, long duration) {
+        return newGesture();
+    }
+
+    @Override
+    public GestureDescription curvedSwipe(float startX, float startY, float endX, float endY,
+            float controlX, float controlY, long duration) {
+        return newGesture();
+    }
+
+    private static GestureDescription newGesture() {
+        try {
+            return (GestureDescription) UNSAFE.allocateInstance(GestureDescription.class);
+        } catch (InstantiationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static sun.misc.Unsafe loadUnsafe() {
+        try {
+            Field field = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return (sun.misc.Unsafe) field.get(null);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
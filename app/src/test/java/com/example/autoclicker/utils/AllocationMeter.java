@@ -0,0 +1,57 @@
+package com.example.autoclicker.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * 测量一段代码在当前线程上分配的字节数，各测试共用
+ *
+ * 先预热让被测代码经过编译，再读取线程的累计分配量。JVM不支持按线程统计分配时跳过测试。
+ */
+public final class AllocationMeter {
+    /**
+     * 测量本身允许的少量开销，被测循环平均每次应为0字节
+     */
+    public static final long TOLERANCE_BYTES = 1024;
+
+    public interface Workload {
+        /**
+         * 执行rounds轮，返回依赖计算结果的校验值，防止被优化掉
+         */
+        long run(int rounds);
+    }
+
+    private static volatile long sink;
+
+    private AllocationMeter() {
+    }
+
+    /**
+     * @return 测量阶段分配的字节数
+     */
+    public static long measure(int warmupRounds, int rounds, Workload workload) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        long checksum = workload.run(warmupRounds);
+        long threadId = Thread.currentThread().getId();
+        // 第一次读取可能初始化统计本身，不计入
+        threads.getThreadAllocatedBytes(threadId);
+        long before = threads.getThreadAllocatedBytes(threadId);
+        checksum += workload.run(rounds);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        sink += checksum;
+        return allocated;
+    }
+
+    public static void assertDoesNotAllocate(String what, int warmupRounds, int rounds, Workload workload) {
+        long allocated = measure(warmupRounds, rounds, workload);
+        assertTrue(what + "分配了 " + allocated + " 字节", allocated < TOLERANCE_BYTES);
+    }
+}
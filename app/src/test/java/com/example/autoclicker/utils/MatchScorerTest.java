@@ -0,0 +1,142 @@
+package com.example.autoclicker.utils;
+
+import android.graphics.Rect;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 查找打分
+ *
+ * 对比原来的打分方式（每个候选转字符串、转小写、新建Rect）与 {@link MatchScorer} 的实时节点和快照键两条路径，
+ * 校验三者得分一致，并且两条新路径打分时不分配内存。
+ */
+public class MatchScorerTest {
+    private static final int CANDIDATES = 256;
+    private static final int WARMUP_ROUNDS = 2000;
+    private static final int ROUNDS = 20000;
+    private static final String[] WORDS = {"确定", "Cancel", "OK", "下一步", "Settings", "跳过广告", "ok按钮", "Skip"};
+    private static final String TARGET = "ok";
+
+    private CharSequence[] texts;
+    private CharSequence[] descriptions;
+    private String[] textKeys;
+    private String[] descriptionKeys;
+    private final Rect scratch = new Rect();
+
+    @Before
+    public void setUp() {
+        texts = new CharSequence[CANDIDATES];
+        descriptions = new CharSequence[CANDIDATES];
+        textKeys = new String[CANDIDATES];
+        descriptionKeys = new String[CANDIDATES];
+        for (int i = 0; i < CANDIDATES; i++) {
+            // 界面上的文本通常是Spannable，用StringBuilder模拟非String的CharSequence
+            texts[i] = i % 5 == 0 ? null : new StringBuilder(WORDS[i % WORDS.length]).append(i % 3 == 0 ? "" : " " + i);
+            descriptions[i] = i % 4 == 0 ? new StringBuilder(WORDS[(i + 3) % WORDS.length]) : null;
+            textKeys[i] = texts[i] != null ? TreeIndex.normalize(texts[i].toString()) : null;
+            descriptionKeys[i] = descriptions[i] != null ? TreeIndex.normalize(descriptions[i].toString()) : null;
+        }
+    }
+
+    /**
+     * 修改前SmartElementFinder中的打分方式
+     */
+    private static int legacyScore(CharSequence text, CharSequence description, String target) {
+        int score = 0;
+        String targetLower = target.toLowerCase();
+        if (text != null) {
+            String nodeText = text.toString().toLowerCase();
+            if (nodeText.equals(targetLower)) {
+                score += 100;
+            } else if (nodeText.contains(targetLower)) {
+                score += 50;
+            }
+        }
+        if (description != null) {
+            String desc = description.toString().toLowerCase();
+            if (desc.equals(targetLower)) {
+                score += 80;
+            } else if (desc.contains(targetLower)) {
+                score += 40;
+            }
+        }
+        Rect bounds = new Rect();
+        return score + MatchScorer.baseScore(true, true, bounds);
+    }
+
+    private int liveScore(int i) {
+        return MatchScorer.contentScore(texts[i], descriptions[i], TARGET)
+            + MatchScorer.baseScore(true, true, scratch);
+    }
+
+    private int keyScore(int i, String targetKey) {
+        return MatchScorer.keyScore(textKeys[i], targetKey, MatchScorer.TEXT_EXACT, MatchScorer.TEXT_PARTIAL)
+            + MatchScorer.keyScore(descriptionKeys[i], targetKey,
+                MatchScorer.DESCRIPTION_EXACT, MatchScorer.DESCRIPTION_PARTIAL)
+            + MatchScorer.baseScore(true, true, scratch);
+    }
+
+    @Test
+    public void allPathsAgreeWithLegacyScore() {
+        String targetKey = TreeIndex.normalize(TARGET);
+        int matched = 0;
+        for (int i = 0; i < CANDIDATES; i++) {
+            int expected = legacyScore(texts[i], descriptions[i], TARGET);
+            assertEquals("候选 " + i, expected, liveScore(i));
+            assertEquals("候选 " + i, expected, keyScore(i, targetKey));
+            if (expected > MatchScorer.MAX_BASE_SCORE) {
+                matched++;
+            }
+        }
+        assertTrue(matched > 0);
+    }
+
+    @Test
+    public void scoringDoesNotAllocate() {
+        final String targetKey = TreeIndex.normalize(TARGET);
+
+        // 原实现每个候选都要分配，确认测量确实能发现分配
+        long legacy = AllocationMeter.measure(WARMUP_ROUNDS, ROUNDS, new AllocationMeter.Workload() {
+            @Override
+            public long run(int rounds) {
+                long total = 0;
+                for (int round = 0; round < rounds; round++) {
+                    for (int i = 0; i < CANDIDATES; i++) {
+                        total += legacyScore(texts[i], descriptions[i], TARGET);
+                    }
+                }
+                return total;
+            }
+        });
+        assertTrue(legacy > AllocationMeter.TOLERANCE_BYTES);
+
+        AllocationMeter.assertDoesNotAllocate("实时节点打分", WARMUP_ROUNDS, ROUNDS, new AllocationMeter.Workload() {
+            @Override
+            public long run(int rounds) {
+                long total = 0;
+                for (int round = 0; round < rounds; round++) {
+                    for (int i = 0; i < CANDIDATES; i++) {
+                        total += liveScore(i);
+                    }
+                }
+                return total;
+            }
+        });
+        AllocationMeter.assertDoesNotAllocate("快照键打分", WARMUP_ROUNDS, ROUNDS, new AllocationMeter.Workload() {
+            @Override
+            public long run(int rounds) {
+                long total = 0;
+                for (int round = 0; round < rounds; round++) {
+                    for (int i = 0; i < CANDIDATES; i++) {
+                        total += keyScore(i, targetKey);
+                    }
+                }
+                return total;
+            }
+        });
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.autoclicker.utils;
+
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 开启泄漏检查时遍历的节点去向
+ *
+ * 节点树由内存中的假节点组成，每个假节点记录自己被回收的次数。
+ */
+public class NodeTraversalTest {
+
+    private static final class FakeNode extends AccessibilityNodeInfo {
+        final String name;
+        final List<FakeNode> children;
+        int recycled = 0;
+
+        FakeNode(String name, FakeNode... children) {
+            this.name = name;
+            this.children = new ArrayList<>(Arrays.asList(children));
+        }
+
+        @Override
+        public int getChildCount() {
+            return children.size();
+        }
+
+        @Override
+        public AccessibilityNodeInfo getChild(int index) {
+            return children.get(index);
+        }
+
+        @Override
+        public void recycle() {
+            recycled++;
+        }
+    }
+
+    private final FakeNode a1 = new FakeNode("a1");
+    private final FakeNode a2 = new FakeNode("a2");
+    private final FakeNode a = new FakeNode("a", a1, a2);
+    private final FakeNode b1 = new FakeNode("b1");
+    private final FakeNode b = new FakeNode("b", b1);
+    private final FakeNode c = new FakeNode("c");
+    private final FakeNode root = new FakeNode("root", a, b, c);
+    private final List<FakeNode> all = Arrays.asList(root, a, a1, a2, b, b1, c);
+
+    @Before
+    public void setUp() {
+        NodeTraversal.setLeakCheckEnabled(true);
+        NodeTraversal.resetLeakCount();
+    }
+
+    @After
+    public void tearDown() {
+        NodeTraversal.setLeakCheckEnabled(false);
+        NodeTraversal.resetLeakCount();
+    }
+
+    @Test
+    public void everyNodeIsRecycledOrKept() {
+        final StringBuilder order = new StringBuilder();
+        int visited = NodeTraversal.traverse(root, new NodeTraversal.Visitor() {
+            @Override
+            public int visit(AccessibilityNodeInfo node, int depth) {
+                order.append(((FakeNode) node).name).append(' ');
+                return node == a1 ? NodeTraversal.KEEP : NodeTraversal.CONTINUE;
+            }
+        });
+
+        assertEquals("root a a1 a2 b b1 c ", order.toString());
+        assertEquals(all.size(), visited);
+        for (FakeNode node : all) {
+            assertEquals(node.name, node == a1 ? 0 : 1, node.recycled);
+        }
+        assertEquals(0, NodeTraversal.getLeakedCount());
+    }
+
+    @Test
+    public void stopRecyclesNodesStillOnTheStack() {
+        NodeTraversal.traverse(root, new NodeTraversal.Visitor() {
+            @Override
+            public int visit(AccessibilityNodeInfo node, int depth) {
+                return node == a1 ? NodeTraversal.STOP : NodeTraversal.CONTINUE;
+            }
+        });
+
+        // 停止时a2、b、c已经取得但还没有访问，b1还没有取得
+        for (FakeNode node : all) {
+            assertEquals(node.name, node == b1 ? 0 : 1, node.recycled);
+        }
+        assertEquals(0, NodeTraversal.getLeakedCount());
+    }
+
+    @Test
+    public void sameNodeObjectReturnedTwiceIsReported() {
+        // 取得和回收的次数相等，只有按身份核对才能发现同一个对象进入了两次节点池
+        b.children.add(b1);
+        NodeTraversal.traverse(root, new NodeTraversal.Visitor() {
+            @Override
+            public int visit(AccessibilityNodeInfo node, int depth) {
+                return NodeTraversal.CONTINUE;
+            }
+        });
+
+        assertEquals(2, b1.recycled);
+        assertEquals(2, NodeTraversal.getLeakedCount());
+    }
+
+    @Test
+    public void unhandledNodesAreCountedAsLeaks() {
+        NodeLeakTracker tracker = new NodeLeakTracker("测试");
+        tracker.acquired(a);
+        tracker.acquired(b);
+        tracker.acquired(c);
+        tracker.released(a);
+        tracker.handedOut(b);
+        tracker.finish();
+        assertEquals(1, NodeTraversal.getLeakedCount());
+
+        // 回收没有登记的节点
+        tracker.released(c);
+        assertEquals(2, NodeTraversal.getLeakedCount());
+    }
+}